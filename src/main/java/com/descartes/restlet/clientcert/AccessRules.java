@@ -0,0 +1,408 @@
+package com.descartes.restlet.clientcert;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Access rules compiled from an access control list (ACL) into a trie of path segments.
+ * Each trie node with a rule has a bitset of the identities and roles that have access,
+ * so an access decision is one walk down the trie plus a bit test.
+ * <br>The ACL has one statement per line, empty lines and lines starting with {@code #} are ignored:
+ * <br>{@code role <role>: <identity> [<identity> ...]} assigns identities to a role.
+ * <br>{@code <path-prefix> <identity, @role or *> [...]} gives access to all paths starting with the path-prefix
+ * (matched per path segment: {@code /admin} matches {@code /admin/users} but not {@code /administrator}).
+ * {@code *} gives access to all (authenticated) identities.
+ * <br>Identities and roles are separated by white-space or commas, an identity containing these
+ * (like a subject) must be quoted: {@code /admin "CN=John Smith,O=Example"}.
+ * <br>An identity is an email-address, subject (RFC 2253) or fingerprint (SHA-256) of a client certificate,
+ * see {@link ClientIdentity}. Identities are normalized: email-addresses are compared case-insensitive,
+ * subjects in canonical form (so {@code CN=John Smith, O=Example} matches {@code CN=John Smith,O=Example})
+ * and fingerprints without colons and case-insensitive (e.g. as shown by {@code openssl x509 -fingerprint -sha256}).
+ * A warning is logged for identities that are not recognized, these never match. The rule with the longest matching path-prefix decides: a rule for {@code /admin}
+ * denies access to identities that are allowed by a rule for {@code /}. Without matching rule access is denied.
+ * <br>Request paths are matched after removing empty and {@code .} segments and matrix parameters
+ * ({@code /./admin} and {@code /admin;x=1} match the rule for {@code /admin}), paths with a {@code ..} segment are denied.
+ * <br>Instances are immutable and thread-safe.
+ */
+public class AccessRules {
+
+	private static final Logger log = LoggerFactory.getLogger(AccessRules.class);
+
+	public static final String ANY_IDENTITY = "*";
+	public static final String ROLE_PREFIX = "@";
+	static final String ROLE_STATEMENT = "role ";
+	/** SHA-256 fingerprint in lower-case hex. */
+	static final Pattern FINGERPRINT = Pattern.compile("[0-9a-f]{64}");
+
+	/** Identity or role name to bit index. Roles are stored with the {@link #ROLE_PREFIX}. */
+	private final Map<String, Integer> index;
+	private final Node root;
+	private final int ruleCount;
+
+	protected AccessRules(Map<String, Integer> index, Node root, int ruleCount) {
+		super();
+		this.index = index;
+		this.root = root;
+		this.ruleCount = ruleCount;
+	}
+
+	/**
+	 * A node in the trie for one path segment.
+	 */
+	static class Node {
+
+		final Map<String, Node> children = new HashMap<String, Node>();
+		/** Null if there is no rule for the path up to this node. */
+		BitSet allowed;
+		boolean anyIdentity;
+
+		Node child(String segment) {
+
+			Node child = children.get(segment);
+			if (child == null) {
+				child = new Node();
+				children.put(segment, child);
+			}
+			return child;
+		}
+	}
+
+	public static AccessRules load(Path aclFile) throws IOException {
+
+		List<String> lines = new ArrayList<String>();
+		try (BufferedReader in = Files.newBufferedReader(aclFile, StandardCharsets.UTF_8)) {
+			String line = null;
+			while ((line = in.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+		try {
+			return compile(lines);
+		} catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage() + " in " + aclFile);
+		}
+	}
+
+	/**
+	 * Compiles the ACL statements, see {@link AccessRules} for the format.
+	 * @throws IllegalArgumentException if a statement is invalid.
+	 */
+	public static AccessRules compile(List<String> lines) {
+
+		Map<String, Integer> index = new HashMap<String, Integer>();
+		Map<String, Set<String>> roleMembers = new HashMap<String, Set<String>>();
+		List<String[]> rules = new ArrayList<String[]>();
+		int lineNumber = 0;
+		for (String line : lines) {
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			if (line.startsWith(ROLE_STATEMENT)) {
+				int i = line.indexOf(':');
+				String role = (i < 0 ? "" : line.substring(ROLE_STATEMENT.length(), i).trim());
+				if (role.isEmpty()) {
+					throw new IllegalArgumentException("Invalid role statement on line " + lineNumber);
+				}
+				Set<String> members = roleMembers.get(role);
+				if (members == null) {
+					members = new LinkedHashSet<String>();
+					roleMembers.put(role, members);
+				}
+				for (String identity : split(line.substring(i + 1))) {
+					identity = normalize(identity, lineNumber);
+					members.add(identity);
+					indexOf(index, identity);
+				}
+			} else {
+				String[] rule = split(line);
+				if (rule.length < 2 || !rule[0].startsWith("/") || segments(rule[0]) == null) {
+					throw new IllegalArgumentException("Invalid rule on line " + lineNumber);
+				}
+				rules.add(rule);
+				for (int r = 1; r < rule.length; r++) {
+					if (!ANY_IDENTITY.equals(rule[r])) {
+						rule[r] = normalize(rule[r], lineNumber);
+						indexOf(index, rule[r]);
+					}
+				}
+			}
+		}
+		Node root = new Node();
+		for (String[] rule : rules) {
+			Node node = root;
+			for (String segment : segments(rule[0])) {
+				node = node.child(segment);
+			}
+			if (node.allowed == null) {
+				node.allowed = new BitSet(index.size());
+			}
+			for (int r = 1; r < rule.length; r++) {
+				if (ANY_IDENTITY.equals(rule[r])) {
+					node.anyIdentity = true;
+					continue;
+				}
+				node.allowed.set(index.get(rule[r]));
+				// Roles from the ACL are expanded so that a decision needs only the bit of the identity.
+				if (rule[r].startsWith(ROLE_PREFIX)) {
+					Set<String> members = roleMembers.get(rule[r].substring(ROLE_PREFIX.length()));
+					if (members != null) {
+						for (String identity : members) {
+							node.allowed.set(index.get(identity));
+						}
+					}
+				}
+			}
+		}
+		return new AccessRules(index, root, rules.size());
+	}
+
+	/**
+	 * Normalizes an identity from the ACL, roles are not changed.
+	 * @param lineNumber the line in the ACL for a warning when the identity is not recognized.
+	 */
+	static String normalize(String identity, int lineNumber) {
+
+		if (identity.startsWith(ROLE_PREFIX)) {
+			return identity;
+		}
+		String normalized = normalize(identity);
+		if (normalized == null) {
+			log.warn("Identity [" + identity + "] on line " + lineNumber + " is not an email-address, subject or SHA-256 fingerprint and never matches.");
+			return identity;
+		}
+		return normalized;
+	}
+
+	/**
+	 * @return the email-address in lower-case, the subject in canonical form (see {@link X500Principal#CANONICAL})
+	 * or the fingerprint in lower-case hex without colons, null if the identity is not recognized.
+	 */
+	static String normalize(String identity) {
+
+		if (identity.indexOf('=') > 0) {
+			try {
+				return new X500Principal(identity).getName(X500Principal.CANONICAL);
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+		}
+		if (identity.indexOf('@') > 0) {
+			return identity.toLowerCase(Locale.ROOT);
+		}
+		String hex = identity.replace(":", "").toLowerCase(Locale.ROOT);
+		return (FINGERPRINT.matcher(hex).matches() ? hex : null);
+	}
+
+	static int indexOf(Map<String, Integer> index, String name) {
+
+		Integer i = index.get(name);
+		if (i == null) {
+			i = index.size();
+			index.put(name, i);
+		}
+		return i;
+	}
+
+	/**
+	 * Splits on white-space and commas outside double quotes, quotes are removed.
+	 * @throws IllegalArgumentException if a quote is not closed.
+	 */
+	static String[] split(String s) {
+
+		List<String> parts = new ArrayList<String>();
+		StringBuilder part = new StringBuilder();
+		boolean quoted = false;
+		boolean hasPart = false;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+				hasPart = true;
+			} else if (!quoted && (c == ',' || Character.isWhitespace(c))) {
+				if (hasPart) {
+					parts.add(part.toString());
+					part.setLength(0);
+					hasPart = false;
+				}
+			} else {
+				part.append(c);
+				hasPart = true;
+			}
+		}
+		if (quoted) {
+			throw new IllegalArgumentException("Missing closing quote in [" + s.trim() + "]");
+		}
+		if (hasPart) {
+			parts.add(part.toString());
+		}
+		return parts.toArray(new String[parts.size()]);
+	}
+
+	/**
+	 * @return the segments in the path without empty and {@code .} segments and without matrix parameters,
+	 * or null if the path contains a {@code ..} segment.
+	 */
+	static List<String> segments(String path) {
+
+		List<String> segments = new ArrayList<String>();
+		for (String segment : path.split("/")) {
+			int matrix = segment.indexOf(';');
+			if (matrix >= 0) {
+				segment = segment.substring(0, matrix);
+			}
+			if (segment.equals("..")) {
+				return null;
+			}
+			if (!segment.isEmpty() && !segment.equals(".")) {
+				segments.add(segment);
+			}
+		}
+		return segments;
+	}
+
+	/**
+	 * @param path the (decoded) request path.
+	 * @param identities names of the identity (e.g. email-address, subject and fingerprint), null values are ignored.
+	 * The names are normalized for each call, see {@link #isAllowed(String, ClientIdentity, Collection)} to normalize once.
+	 * @param roles role names assigned to the identity outside the ACL, can be null.
+	 * @return true if one of the identities or roles has access to the path.
+	 */
+	public boolean isAllowed(String path, String[] identities, Collection<String> roles) {
+
+		Node node = find(path);
+		if (node == null) {
+			return false;
+		}
+		if (node.anyIdentity) {
+			return true;
+		}
+		for (String identity : identities) {
+			String name = (identity == null ? null : normalize(identity));
+			Integer i = (name == null ? null : index.get(name));
+			if (i != null && node.allowed.get(i)) {
+				return true;
+			}
+		}
+		return isRoleAllowed(node, roles);
+	}
+
+	/**
+	 * Same as {@link #isAllowed(String, String[], Collection)} for the email-address, subject and fingerprint of the identity.
+	 * The bit indexes of the (normalized) identity are looked up once per rules and kept with the identity.
+	 */
+	public boolean isAllowed(String path, ClientIdentity identity, Collection<String> roles) {
+
+		Node node = find(path);
+		if (node == null) {
+			return false;
+		}
+		if (node.anyIdentity) {
+			return true;
+		}
+		for (int i : getIndexes(identity)) {
+			if (node.allowed.get(i)) {
+				return true;
+			}
+		}
+		return isRoleAllowed(node, roles);
+	}
+
+	protected int[] getIndexes(ClientIdentity identity) {
+
+		IdentityIndexes indexes = identity.accessIndexes;
+		if (indexes == null || indexes.rules != this) {
+			int[] found = new int[3];
+			int count = 0;
+			for (String name : new String[] { identity.getEmailAddress(), identity.getSubject(), identity.getFingerprint() }) {
+				name = (name == null ? null : normalize(name));
+				Integer i = (name == null ? null : index.get(name));
+				if (i != null) {
+					found[count++] = i;
+				}
+			}
+			indexes = new IdentityIndexes(this, Arrays.copyOf(found, count));
+			identity.accessIndexes = indexes;
+		}
+		return indexes.indexes;
+	}
+
+	protected boolean isRoleAllowed(Node node, Collection<String> roles) {
+
+		if (roles != null) {
+			for (String role : roles) {
+				Integer i = index.get(ROLE_PREFIX + role);
+				if (i != null && node.allowed.get(i)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the node with the longest matching path-prefix that has a rule, or null.
+	 * Also null if the path contains a {@code ..} segment.
+	 */
+	protected Node find(String path) {
+
+		List<String> segments = segments(path);
+		if (segments == null) {
+			return null;
+		}
+		Node node = root;
+		Node ruleNode = (root.allowed == null ? null : root);
+		for (int i = 0; i < segments.size() && node != null; i++) {
+			node = node.children.get(segments.get(i));
+			if (node != null && node.allowed != null) {
+				ruleNode = node;
+			}
+		}
+		return ruleNode;
+	}
+
+	/**
+	 * The bit indexes of a client identity in one instance of the rules.
+	 */
+	static class IdentityIndexes {
+
+		final AccessRules rules;
+		final int[] indexes;
+
+		IdentityIndexes(AccessRules rules, int[] indexes) {
+			this.rules = rules;
+			this.indexes = indexes;
+		}
+	}
+
+	/** Amount of path rules. */
+	public int getRuleCount() { return ruleCount; }
+	/** Amount of distinct identities and roles in the rules. */
+	public int getIdentityCount() { return index.size(); }
+
+	@Override
+	public String toString() {
+		return "Access rules: " + ruleCount + " path rules for " + index.size() + " identities and roles";
+	}
+
+}
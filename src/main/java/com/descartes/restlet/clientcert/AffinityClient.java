@@ -0,0 +1,392 @@
+package com.descartes.restlet.clientcert;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.restlet.Client;
+import org.restlet.Context;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.data.Parameter;
+import org.restlet.data.Protocol;
+import org.restlet.data.Reference;
+import org.restlet.data.Status;
+import org.restlet.engine.header.HeaderConstants;
+import org.restlet.engine.ssl.SslContextFactory;
+import org.restlet.representation.Representation;
+import org.restlet.util.Series;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends requests to one of several server nodes, choosing the node by client identity (certificate):
+ * the identity is mapped to a preferred node on a consistent hash ring (see {@link NodeRing}).
+ * All requests with the same identity go to the same node, so that the client's TLS session for that node
+ * can be resumed and the server node's caches for the client (e.g. the session cache and client identity cache) stay warm.
+ * <br>A node that refuses connections, fails while a request is sent or received or responds with 503 (service unavailable)
+ * is skipped for {@link #getRetryNodeMs()}: the requests for the identities that prefer that node go to the next node
+ * on the ring (the same fallback node for each identity). A request that could not connect is always sent to the next node,
+ * other failed requests only when they are idempotent (the node may have processed the request) and the request entity
+ * can be sent again.
+ * <br>Each identity has its own {@link Client} with one SSL context (and session cache) for all requests,
+ * see {@link #addIdentity(String, SslContextFactory, HostnameVerifier)}. Requests are sent with the identity set in
+ * the request attribute {@link #IDENTITY_ATTRIBUTE}, when only one identity is added the attribute is optional.
+ * <br>Per node the requests, latency, handshakes and resumed handshakes are counted, see {@link #toString()}.
+ * Use as next Restlet of a {@code ClientResource} with a reference to any of the nodes, the host and port are replaced
+ * for the request sent to a node (the references of the caller's request are not changed).
+ * Before a request is sent to the next node, the response of the failed attempt is reset.
+ */
+public class AffinityClient extends Restlet {
+
+	private static final Logger log = LoggerFactory.getLogger(AffinityClient.class);
+
+	/** Request attribute with the identity (e.g. email-address) to use for the request. */
+	public static final String IDENTITY_ATTRIBUTE = AffinityClient.class.getName() + ".identity";
+
+	private final List<Node> nodes;
+	private final NodeRing<Node> ring;
+	private final ConcurrentMap<String, Restlet> clients = new ConcurrentHashMap<String, Restlet>();
+	private final ConcurrentMap<String, List<Node>> preferences = new ConcurrentHashMap<String, List<Node>>();
+	private volatile String singleIdentity;
+	private long retryNodeMs = 5000L;
+
+	/**
+	 * @param nodeUrls base URLs of the server nodes (e.g. {@code https://10.0.0.1:8183}).
+	 */
+	public AffinityClient(Context context, List<String> nodeUrls) {
+		super(context);
+		nodes = new ArrayList<Node>();
+		for (String url : nodeUrls) {
+			nodes.add(new Node(url));
+		}
+		ring = new NodeRing<Node>(nodes, NodeRing.DEFAULT_VIRTUAL_NODES);
+	}
+
+	/**
+	 * Adds a client for the identity. The SSL context from the factory is created once
+	 * and wrapped to count handshakes and resumed handshakes per node.
+	 * @param hostnameVerifier null for the default hostname verifier.
+	 * @return the client (started when the first request is sent).
+	 */
+	public Client addIdentity(String identity, SslContextFactory sslContextFactory, HostnameVerifier hostnameVerifier) {
+
+		Client client = new Client(new Context(), Protocol.HTTPS);
+		ConcurrentMap<String, Object> attribs = client.getContext().getAttributes();
+		if (hostnameVerifier != null) {
+			attribs.put("hostnameVerifier", hostnameVerifier);
+		}
+		attribs.put("sslContextFactory", new TrackingSslContextFactory(sslContextFactory));
+		setClient(identity, client);
+		return client;
+	}
+
+	/**
+	 * Sets the client to use for the identity, handshakes are not counted for this client.
+	 */
+	public void setClient(String identity, Restlet client) {
+
+		clients.put(identity, client);
+		singleIdentity = (clients.size() == 1 ? identity : null);
+	}
+
+	@Override
+	public void handle(Request request, Response response) {
+
+		super.handle(request, response);
+		Object identityValue = request.getAttributes().get(IDENTITY_ATTRIBUTE);
+		String identity = (identityValue == null ? singleIdentity : identityValue.toString());
+		Restlet client = (identity == null ? null : clients.get(identity));
+		if (client == null) {
+			response.setStatus(Status.CLIENT_ERROR_FORBIDDEN, "No client for identity " + identity);
+			return;
+		}
+		List<Node> preference = getPreference(identity);
+		Node preferred = preference.get(0);
+		// When all nodes are down, try them all anyway.
+		boolean allDown = isAllDown(preference, System.currentTimeMillis());
+		Reference resourceRef = request.getResourceRef();
+		Reference hostRef = request.getHostRef();
+		boolean attempted = false;
+		try {
+			for (Node node : preference) {
+				if (!allDown && !node.isUp(System.currentTimeMillis())) {
+					continue;
+				}
+				if (attempted) {
+					resetResponse(response);
+				}
+				attempted = true;
+				if (send(node, node != preferred, client, request, resourceRef, response)) {
+					return;
+				}
+				node.markDown(retryNodeMs);
+				log.warn("Node " + node + " is down - " + response.getStatus());
+				if (!Status.CONNECTOR_ERROR_CONNECTION.equals(response.getStatus()) && !isRetryable(request)) {
+					return;
+				}
+			}
+		} finally {
+			request.setResourceRef(resourceRef);
+			request.setHostRef(hostRef);
+		}
+	}
+
+	/**
+	 * Clears what a failed attempt set on the response (e.g. a 503 with an entity and a Retry-After header)
+	 * before the request is sent to the next node. The entity of the failed attempt is released.
+	 */
+	protected void resetResponse(Response response) {
+
+		Representation entity = response.getEntity();
+		if (entity != null) {
+			entity.release();
+			response.setEntity((Representation) null);
+		}
+		response.setStatus(Status.SUCCESS_OK);
+		response.getAttributes().remove(HeaderConstants.ATTRIBUTE_HEADERS);
+		response.setRetryAfter(null);
+		response.setLocationRef((Reference) null);
+		response.getChallengeRequests().clear();
+	}
+
+	/**
+	 * @return true if the status shows the node is down.
+	 */
+	protected boolean isNodeDown(Status status) {
+		return (Status.CONNECTOR_ERROR_CONNECTION.equals(status) || Status.CONNECTOR_ERROR_COMMUNICATION.equals(status)
+				|| Status.SERVER_ERROR_SERVICE_UNAVAILABLE.equals(status));
+	}
+
+	/**
+	 * @return true if the request can be sent again after it (possibly) reached a node.
+	 */
+	protected boolean isRetryable(Request request) {
+
+		Representation entity = request.getEntity();
+		return (request.getMethod() != null && request.getMethod().isIdempotent() && (entity == null || !entity.isTransient()));
+	}
+
+	/**
+	 * Sends the request with a copy of the resource reference for the node.
+	 * @param resourceRef the resource reference of the caller's request, not changed.
+	 * @return false when the node is down (see {@link #isNodeDown(Status)}).
+	 */
+	protected boolean send(Node node, boolean fallback, Restlet client, Request request, Reference resourceRef, Response response) {
+
+		Reference ref = new Reference(resourceRef);
+		request.setResourceRef(ref);
+		ref.setScheme(node.scheme);
+		ref.setHostDomain(node.host);
+		ref.setHostPort(node.port);
+		if (request.getHostRef() != null) {
+			request.setHostRef(node.url);
+		}
+		long start = System.nanoTime();
+		client.handle(request, response);
+		long latency = System.nanoTime() - start;
+		if (isNodeDown(response.getStatus())) {
+			node.failures.incrementAndGet();
+			return false;
+		}
+		node.requests.incrementAndGet();
+		if (fallback) {
+			node.fallbacks.incrementAndGet();
+		}
+		node.latencyTotalNanos.addAndGet(latency);
+		long max = node.latencyMaxNanos.get();
+		while (latency > max && !node.latencyMaxNanos.compareAndSet(max, latency)) {
+			max = node.latencyMaxNanos.get();
+		}
+		return true;
+	}
+
+	protected List<Node> getPreference(String identity) {
+
+		List<Node> preference = preferences.get(identity);
+		if (preference == null) {
+			preference = ring.getPreference(identity);
+			preferences.put(identity, preference);
+		}
+		return preference;
+	}
+
+	static boolean isAllDown(List<Node> nodes, long now) {
+
+		for (Node node : nodes) {
+			if (node.isUp(now)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	protected Node findNode(String host, int port) {
+
+		for (Node node : nodes) {
+			if (node.port == port && node.host.equalsIgnoreCase(host)) {
+				return node;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Creates the SSL context once (so that sessions are resumed) and counts handshakes per node.
+	 */
+	class TrackingSslContextFactory extends SslContextFactory implements HandshakeTrackingSocketFactory.Listener {
+
+		private final SslContextFactory wrapped;
+		private volatile SSLContext sslContext;
+
+		public TrackingSslContextFactory(SslContextFactory wrapped) {
+			super();
+			this.wrapped = wrapped;
+		}
+
+		@Override
+		public void init(Series<Parameter> parameters) {
+			wrapped.init(parameters);
+		}
+
+		@Override
+		public SSLContext createSslContext() throws Exception {
+
+			if (sslContext == null) {
+				synchronized (this) {
+					if (sslContext == null) {
+						sslContext = new WrappedSslContext(wrapped.createSslContext(), new WrappedSslContext.SocketFactoryWrapper() {
+							@Override public SSLSocketFactory wrap(SSLSocketFactory socketFactory) {
+								return new HandshakeTrackingSocketFactory(socketFactory, TrackingSslContextFactory.this);
+							}
+						});
+					}
+				}
+			}
+			return sslContext;
+		}
+
+		@Override
+		public void handshakeCompleted(SSLSession session, boolean resumed) {
+
+			Node node = findNode(session.getPeerHost(), session.getPeerPort());
+			if (node == null) {
+				return;
+			}
+			node.handshakes.incrementAndGet();
+			if (resumed) {
+				node.resumedHandshakes.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * A server node with statistics and the time until which it is considered down.
+	 */
+	public static class Node {
+
+		final String url;
+		final String scheme;
+		final String host;
+		final int port;
+		private final AtomicLong downUntil = new AtomicLong();
+		final AtomicLong requests = new AtomicLong();
+		final AtomicLong fallbacks = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+		final AtomicLong latencyTotalNanos = new AtomicLong();
+		final AtomicLong latencyMaxNanos = new AtomicLong();
+		final AtomicLong handshakes = new AtomicLong();
+		final AtomicLong resumedHandshakes = new AtomicLong();
+
+		public Node(String url) {
+			super();
+			URI uri = URI.create(url);
+			if (uri.getHost() == null) {
+				throw new IllegalArgumentException("No host in node URL " + url);
+			}
+			this.url = (url.endsWith("/") ? url.substring(0, url.length() - 1) : url);
+			scheme = (uri.getScheme() == null ? "https" : uri.getScheme());
+			host = uri.getHost();
+			port = (uri.getPort() > 0 ? uri.getPort() : "http".equals(scheme) ? 80 : 443);
+		}
+
+		public boolean isUp(long now) {
+			return downUntil.get() <= now;
+		}
+
+		public void markDown(long durationMs) {
+			downUntil.set(System.currentTimeMillis() + durationMs);
+		}
+
+		public String getUrl() { return url; }
+		/** Requests that received a response. */
+		public long getRequests() { return requests.get(); }
+		/** Requests for identities that prefer another node (that was down). */
+		public long getFallbacks() { return fallbacks.get(); }
+		/** Requests that failed because the node was down. */
+		public long getFailures() { return failures.get(); }
+		public long getHandshakes() { return handshakes.get(); }
+		public long getResumedHandshakes() { return resumedHandshakes.get(); }
+
+		/** Percentage of handshakes that resumed a session. */
+		public double getResumptionRate() {
+
+			long total = handshakes.get();
+			return (total == 0L ? 0.0 : resumedHandshakes.get() * 100.0 / total);
+		}
+
+		public double getAverageLatencyMs() {
+
+			long count = requests.get();
+			return (count == 0L ? 0.0 : latencyTotalNanos.get() / 1000000.0 / count);
+		}
+
+		public long getMaxLatencyMs() {
+			return TimeUnit.NANOSECONDS.toMillis(latencyMaxNanos.get());
+		}
+
+		@Override
+		public String toString() {
+			return url;
+		}
+
+		/**
+		 * Handshakes are counted on the thread the JSSE notifies after each handshake,
+		 * so the handshake counts are eventually consistent: they can lag behind the request counts.
+		 */
+		public String getReport() {
+			return String.format(Locale.US, "%s: %d requests (%d fallback, %d failed), latency avg %.1f ms max %d ms, "
+					+ "%d handshakes (%d resumed, %.1f%%)", url, requests.get(), fallbacks.get(), failures.get(),
+					getAverageLatencyMs(), getMaxLatencyMs(), handshakes.get(), resumedHandshakes.get(), getResumptionRate());
+		}
+	}
+
+	public List<Node> getNodes() { return nodes; }
+	public long getRetryNodeMs() { return retryNodeMs; }
+	public void setRetryNodeMs(long retryNodeMs) { this.retryNodeMs = retryNodeMs; }
+
+	/**
+	 * @return the statistics per node, see {@link Node#getReport()} (handshake counts are eventually consistent).
+	 */
+	@Override
+	public String toString() {
+
+		StringBuilder sb = new StringBuilder("Affinity client for " + clients.size() + " identities:");
+		for (Node node : nodes) {
+			sb.append('\n').append(node.getReport());
+		}
+		return sb.toString();
+	}
+
+}
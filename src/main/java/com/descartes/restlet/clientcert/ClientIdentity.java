@@ -0,0 +1,93 @@
+package com.descartes.restlet.clientcert;
+
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * The identity of a client as found in the client certificate: fingerprint, subject and email-address.
+ * <br>Computing the identity (hashing, formatting the subject) is done once per client certificate
+ * and cached via {@link Cache}: all connections and TLS sessions from the same client present the same certificate.
+ * Values are not stored in the {@link javax.net.ssl.SSLSession} since session values prevent stateless session tickets.
+ */
+public class ClientIdentity {
+
+	private final String fingerprint;
+	private final String subject;
+	private final String emailAddress;
+	/** Bit indexes of this identity in the last used access rules, see {@link AccessRules#isAllowed(String, ClientIdentity, java.util.Collection)}. */
+	volatile AccessRules.IdentityIndexes accessIndexes;
+
+	public ClientIdentity(X509Certificate clientCert) throws Exception {
+		super();
+		fingerprint = SessionTicketKeys.toHex(MessageDigest.getInstance("SHA-256").digest(clientCert.getEncoded()));
+		subject = clientCert.getSubjectX500Principal().getName(X500Principal.RFC2253);
+		emailAddress = SslUtils.getClientEmailAddress(clientCert);
+	}
+
+	/** SHA-256 hash (hex) of the encoded client certificate. */
+	public String getFingerprint() { return fingerprint; }
+	/** Subject of the client certificate in RFC 2253 format. */
+	public String getSubject() { return subject; }
+	/** Null or the email-address in the subject of the client certificate. */
+	public String getEmailAddress() { return emailAddress; }
+
+	@Override
+	public String toString() {
+		return subject + " (" + fingerprint + ")";
+	}
+
+	/**
+	 * Least recently used cache of client identities, keyed by client certificate.
+	 */
+	public static class Cache {
+
+		private final Map<X509Certificate, ClientIdentity> identities;
+
+		public Cache(final int maxSize) {
+			super();
+			identities = new LinkedHashMap<X509Certificate, ClientIdentity>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override protected boolean removeEldestEntry(Map.Entry<X509Certificate, ClientIdentity> eldest) {
+					return size() > maxSize;
+				}
+			};
+		}
+
+		/**
+		 * @param certificates the client certificate chain (as found in the client info of a request), first certificate is the client certificate.
+		 * @return null if there is no (X509) client certificate, else the (cached) client identity.
+		 */
+		public ClientIdentity get(List<Certificate> certificates) throws Exception {
+
+			if (certificates == null || certificates.isEmpty() || !(certificates.get(0) instanceof X509Certificate)) {
+				return null;
+			}
+			X509Certificate clientCert = (X509Certificate) certificates.get(0);
+			ClientIdentity identity = null;
+			synchronized (identities) {
+				identity = identities.get(clientCert);
+			}
+			if (identity == null) {
+				// Computed outside the lock, at worst computed twice.
+				identity = new ClientIdentity(clientCert);
+				synchronized (identities) {
+					identities.put(clientCert, identity);
+				}
+			}
+			return identity;
+		}
+
+		public int size() {
+			synchronized (identities) {
+				return identities.size();
+			}
+		}
+	}
+
+}
@@ -2,6 +2,7 @@ package com.descartes.restlet.clientcert;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.Provider;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 
@@ -23,13 +24,26 @@ public class ClientSslContextFactory extends SslContextFactory {
 	
 	protected KeyManager[] kms;
 	protected TrustManager[] tms;
+	protected Provider provider;
+
+	/**
+	 * The provider for the SSL context and key manager factory, must be set before calling {@link #init(String, char[])}.
+	 * <br>Null (default) uses the default providers, see also {@link SslUtils#getProvider(String)}.
+	 */
+	public void setProvider(Provider provider) {
+		this.provider = provider;
+	}
+
+	public Provider getProvider() {
+		return provider;
+	}
 
 	public void init(String certFileName, char[] certFilePwd) throws Exception {
 		
 		log.debug("Loading certificates from [" + certFileName + "] and using " 
 				+ (certFilePwd != null && certFilePwd.length > 0 ? "a" : "no") + " password.");
 		Path certFilePath = Paths.get(Thread.currentThread().getContextClassLoader().getResource(certFileName).toURI());
-		KeyManagerFactory kmf = SslUtils.loadKeyStore(certFilePath, certFilePwd);
+		KeyManagerFactory kmf = SslUtils.loadKeyStore(certFilePath, certFilePwd, null, null, provider);
 		kms = kmf.getKeyManagers();
 		/*
 		List<X509Certificate> certs = SslUtils.getClientCaCerts(kms);
@@ -48,7 +62,7 @@ public class ClientSslContextFactory extends SslContextFactory {
 	@Override
 	public SSLContext createSslContext() throws Exception {
 
-		SSLContext ctx = SSLContext.getInstance(SslUtils.DEFAULT_SSL_PROTOCOL);
+		SSLContext ctx = SslUtils.getSslContext(SslUtils.DEFAULT_SSL_PROTOCOL, provider);
 		ctx.init(kms, tms, null);
 		return ctx;
 	}
@@ -0,0 +1,319 @@
+package com.descartes.restlet.clientcert;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.restlet.data.Parameter;
+import org.restlet.util.Series;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Closes connections of the JDK {@code HttpServer} (used by {@code HttpsServerHelper2}) in the background:
+ * <br>- idle keep-alive connections that have been idle longer than {@link #getIdleTimeoutMs()},
+ * <br>- connections that did not send a (complete) request within {@link #getRequestTimeoutMs()},
+ * this includes connections that never send a byte and connections that stall in the TLS handshake,
+ * <br>- idle connections (longest idle first) when more than {@link #getMaxConnections()} connections are open.
+ * <br>Connections are counted per reason they were closed, connections closed by the client or by the server itself
+ * are counted as {@link CloseReason#OTHER}. Opened and other closed connections are counted by comparing
+ * the open connections every {@link #getReapIntervalMs()}, so connections that open and close within
+ * one interval are not counted.
+ * <br>The reaper is opt-in: nothing is reaped unless one of the connector parameters is set.
+ * The JDK server has its own (JVM-wide) limits set via system properties which still apply, e.g.
+ * {@code sun.net.httpserver.idleInterval} (30 seconds by default), {@code sun.net.httpserver.maxIdleConnections},
+ * {@code sun.net.httpserver.maxReqTime} (maximum time to receive a request, disabled by default)
+ * and {@code jdk.httpserver.maxConnections} (JDK 17 and later, refuses connections on accept).
+ * <br>The open connections are accessed via reflection, this requires on Java 9+ the JVM option
+ * {@code --add-opens jdk.httpserver/sun.net.httpserver=ALL-UNNAMED}.
+ * Without access, a warning is logged once and nothing is reaped.
+ * <br>Configured via the connector parameters {@link #PARAM_MAX_CONNECTIONS}, {@link #PARAM_IDLE_TIMEOUT_MS},
+ * {@link #PARAM_REQUEST_TIMEOUT_MS} and {@link #PARAM_REAP_INTERVAL_MS}.
+ */
+public class ConnectionReaper implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(ConnectionReaper.class);
+
+	/** Maximum amount of open connections before idle connections are closed, 0 (default) for no maximum. */
+	public static final String PARAM_MAX_CONNECTIONS = "maxConnections";
+	/** Maximum time a keep-alive connection can be idle, 0 (default) to disable. */
+	public static final String PARAM_IDLE_TIMEOUT_MS = "idleTimeoutMs";
+	/** Maximum time to receive a request (including the TLS handshake on a new connection), 0 (default) to disable. */
+	public static final String PARAM_REQUEST_TIMEOUT_MS = "requestTimeoutMs";
+	/** Time between checks of the open connections, defaults to 1000 ms. */
+	public static final String PARAM_REAP_INTERVAL_MS = "reapIntervalMs";
+
+	/** Context attribute name under which the reaper is registered by {@code HttpsServerHelper2}. */
+	public static final String CONTEXT_ATTRIBUTE = ConnectionReaper.class.getName();
+
+	private static final String CONNECTION_CLASS = "sun.net.httpserver.HttpConnection";
+
+	/**
+	 * The reason a connection was closed.
+	 */
+	public enum CloseReason {
+		IDLE_TIMEOUT, REQUEST_TIMEOUT, OVER_LIMIT, OTHER
+	}
+
+	private static volatile boolean warned;
+
+	private final int maxConnections;
+	private final long idleTimeoutMs;
+	private final long requestTimeoutMs;
+	private final long reapIntervalMs;
+
+	private final AtomicLong opened = new AtomicLong();
+	private final AtomicLongArray closed = new AtomicLongArray(CloseReason.values().length);
+	private volatile int openConnections;
+	private volatile int idleConnections;
+	private volatile int peakConnections;
+
+	/** Connections seen open during the last check, only used by the reaper thread. */
+	private final Set<Object> tracked = new HashSet<Object>();
+	private Set<Object> all;
+	private Set<Object> idle;
+	private Set<Object> newlyAccepted;
+	private Set<Object> requesting;
+	private Field idleStartTime;
+	private Field reqStartedTime;
+	private Method close;
+	private ScheduledExecutorService reaper;
+
+	public ConnectionReaper(int maxConnections, long idleTimeoutMs, long requestTimeoutMs, long reapIntervalMs) {
+		super();
+		this.maxConnections = Math.max(0, maxConnections);
+		this.idleTimeoutMs = Math.max(0L, idleTimeoutMs);
+		this.requestTimeoutMs = Math.max(0L, requestTimeoutMs);
+		if (reapIntervalMs < 1L) {
+			throw new IllegalArgumentException("Reap interval must be at least 1 ms, not " + reapIntervalMs);
+		}
+		this.reapIntervalMs = reapIntervalMs;
+	}
+
+	/**
+	 * Creates a reaper from connector parameters.
+	 * @return null when maximum connections, idle timeout and request timeout are all disabled.
+	 */
+	public static ConnectionReaper create(Series<Parameter> parameters) {
+
+		int maxConnections = Integer.parseInt(parameters.getFirstValue(PARAM_MAX_CONNECTIONS, "0"));
+		long idleTimeoutMs = Long.parseLong(parameters.getFirstValue(PARAM_IDLE_TIMEOUT_MS, "0"));
+		long requestTimeoutMs = Long.parseLong(parameters.getFirstValue(PARAM_REQUEST_TIMEOUT_MS, "0"));
+		long reapIntervalMs = Long.parseLong(parameters.getFirstValue(PARAM_REAP_INTERVAL_MS, "1000"));
+		if (maxConnections < 1 && idleTimeoutMs < 1L && requestTimeoutMs < 1L) {
+			return null;
+		}
+		return new ConnectionReaper(maxConnections, idleTimeoutMs, requestTimeoutMs, reapIntervalMs);
+	}
+
+	/**
+	 * Starts a background thread that reaps connections from the (started) server.
+	 * @return false if the connections of the server cannot be accessed (a warning is logged once).
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized boolean start(HttpServer server) {
+
+		if (reaper != null) {
+			return true;
+		}
+		try {
+			Object impl = ReflectionUtils.getField(server.getClass(), server, "server");
+			Class<?> implClass = impl.getClass();
+			all = (Set<Object>) ReflectionUtils.getField(implClass, impl, "allConnections");
+			idle = (Set<Object>) ReflectionUtils.getField(implClass, impl, "idleConnections");
+			requesting = (Set<Object>) ReflectionUtils.getField(implClass, impl, "reqConnections");
+			try {
+				newlyAccepted = (Set<Object>) ReflectionUtils.getField(implClass, impl, "newlyAcceptedConnections");
+			} catch (NoSuchFieldException e) {
+				// Older Java versions register new connections as requesting connections.
+				newlyAccepted = null;
+			}
+			Class<?> connectionClass = Class.forName(CONNECTION_CLASS);
+			idleStartTime = connectionClass.getDeclaredField("idleStartTime");
+			idleStartTime.setAccessible(true);
+			reqStartedTime = connectionClass.getDeclaredField("reqStartedTime");
+			reqStartedTime.setAccessible(true);
+			close = connectionClass.getDeclaredMethod("close");
+			close.setAccessible(true);
+		} catch (Exception e) {
+			if (!warned) {
+				warned = true;
+				log.warn("Unable to access connections of the HTTP server, connections are not reaped. "
+						+ "Requires --add-opens jdk.httpserver/sun.net.httpserver=ALL-UNNAMED on Java 9+ - " + e);
+			}
+			return false;
+		}
+		reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "connection-reaper");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		reaper.scheduleWithFixedDelay(this, reapIntervalMs, reapIntervalMs, TimeUnit.MILLISECONDS);
+		return true;
+	}
+
+	public synchronized void stop() {
+
+		if (reaper != null) {
+			reaper.shutdownNow();
+			reaper = null;
+		}
+	}
+
+	@Override
+	public void run() {
+
+		try {
+			reap(System.currentTimeMillis());
+		} catch (Exception e) {
+			log.warn("Failed to reap connections - " + e);
+		}
+	}
+
+	/**
+	 * Closes timed out and excess connections and updates the statistics.
+	 * A connection is only closed after it is removed from the collection of its state (like the JDK server does):
+	 * if the server removed it first, the connection became active and is not closed.
+	 */
+	protected void reap(long now) throws Exception {
+
+		if (idleTimeoutMs > 0L) {
+			for (Object c : copy(idle)) {
+				if (now - idleStartTime.getLong(c) >= idleTimeoutMs && idle.remove(c)) {
+					close(c, CloseReason.IDLE_TIMEOUT);
+				}
+			}
+		}
+		if (requestTimeoutMs > 0L) {
+			if (newlyAccepted != null) {
+				for (Object c : copy(newlyAccepted)) {
+					if (now - idleStartTime.getLong(c) >= requestTimeoutMs && newlyAccepted.remove(c)) {
+						close(c, CloseReason.REQUEST_TIMEOUT);
+					}
+				}
+			}
+			for (Object c : copy(requesting)) {
+				if (now - reqStartedTime.getLong(c) >= requestTimeoutMs && requesting.remove(c)) {
+					close(c, CloseReason.REQUEST_TIMEOUT);
+				}
+			}
+		}
+		if (maxConnections > 0 && all.size() > maxConnections) {
+			closeExcess(all.size() - maxConnections);
+		}
+		List<Object> current = copy(all);
+		Set<Object> open = new HashSet<Object>(current);
+		for (Object c : current) {
+			if (tracked.add(c)) {
+				opened.incrementAndGet();
+			}
+		}
+		Iterator<Object> it = tracked.iterator();
+		while (it.hasNext()) {
+			if (!open.contains(it.next())) {
+				it.remove();
+				closed.incrementAndGet(CloseReason.OTHER.ordinal());
+			}
+		}
+		openConnections = current.size();
+		idleConnections = idle.size();
+		if (openConnections > peakConnections) {
+			peakConnections = openConnections;
+		}
+	}
+
+	/**
+	 * Closes idle connections, longest idle first.
+	 */
+	protected void closeExcess(int excess) throws Exception {
+
+		List<Object> candidates = copy(idle);
+		final long[] idleSince = new long[candidates.size()];
+		List<Integer> order = new ArrayList<Integer>(candidates.size());
+		for (int i = 0; i < idleSince.length; i++) {
+			idleSince[i] = idleStartTime.getLong(candidates.get(i));
+			order.add(i);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override public int compare(Integer i1, Integer i2) {
+				return Long.compare(idleSince[i1], idleSince[i2]);
+			}
+		});
+		for (int i = 0; i < order.size() && excess > 0; i++) {
+			Object c = candidates.get(order.get(i));
+			if (idle.remove(c)) {
+				close(c, CloseReason.OVER_LIMIT);
+				excess--;
+			}
+		}
+		if (excess > 0 && log.isDebugEnabled()) {
+			log.debug("Open connections exceed maximum of " + maxConnections + " by " + excess + " active connections.");
+		}
+	}
+
+	protected void close(Object connection, CloseReason reason) throws Exception {
+
+		all.remove(connection);
+		try {
+			close.invoke(connection);
+		} catch (InvocationTargetException e) {
+			log.debug("Failed to close connection " + connection + " - " + e.getCause());
+		}
+		closed.incrementAndGet(reason.ordinal());
+		if (!tracked.remove(connection)) {
+			opened.incrementAndGet();
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Closed connection " + connection + ": " + reason);
+		}
+	}
+
+	static List<Object> copy(Set<Object> synchronizedSet) {
+
+		synchronized (synchronizedSet) {
+			return new ArrayList<Object>(synchronizedSet);
+		}
+	}
+
+	public int getMaxConnections() { return maxConnections; }
+	public long getIdleTimeoutMs() { return idleTimeoutMs; }
+	public long getRequestTimeoutMs() { return requestTimeoutMs; }
+	public long getReapIntervalMs() { return reapIntervalMs; }
+
+	/** Open connections during the last check. */
+	public int getOpenConnections() { return openConnections; }
+	/** Idle keep-alive connections during the last check. */
+	public int getIdleConnections() { return idleConnections; }
+	/** Maximum open connections seen during a check. */
+	public int getPeakConnections() { return peakConnections; }
+	/** Connections seen open. */
+	public long getOpened() { return opened.get(); }
+	/** Connections closed for the given reason. */
+	public long getClosed(CloseReason reason) { return closed.get(reason.ordinal()); }
+
+	@Override
+	public String toString() {
+		return "Connections: " + openConnections + " open (" + idleConnections + " idle, peak " + peakConnections
+				+ "), " + opened.get() + " opened, closed: " + getClosed(CloseReason.IDLE_TIMEOUT) + " idle timeout, "
+				+ getClosed(CloseReason.REQUEST_TIMEOUT) + " request timeout, " + getClosed(CloseReason.OVER_LIMIT)
+				+ " over limit, " + getClosed(CloseReason.OTHER) + " other";
+	}
+
+}
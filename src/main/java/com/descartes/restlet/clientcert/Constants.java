@@ -10,6 +10,35 @@ public class Constants {
 	/** This can be any value, as long as it is somewhat unique. */
 	public static final String CERT_CA_ALIAS = "myrootca";
 	public static final int PORT_TEST = 8183;
+	/** System property with the path to a session ticket key file shared by all server nodes, see {@link SessionTicketKeys}. */
+	public static final String SESSION_TICKET_KEYS_PROPERTY = "session.ticket.keys";
+	/** System property with the secure random algorithm for the server SSL context, see {@link SslUtils#createSecureRandom(String)}. */
+	public static final String SECURE_RANDOM_PROPERTY = "secure.random";
+	/** System property with the name or class name of the security provider for the SSL contexts, see {@link SslUtils#getProvider(String)}. */
+	public static final String SSL_PROVIDER_PROPERTY = "ssl.provider";
+	/** System property with comma-separated base URLs of plain-HTTP backends, when set the server runs as {@link ReverseProxy}. */
+	public static final String PROXY_BACKENDS_PROPERTY = "proxy.backends";
+	/** System property with the URL of the OCSP responder for stapling, or {@code certificate} to use the responder in the certificate, see {@link OcspStapling}. */
+	public static final String OCSP_STAPLING_PROPERTY = "ocsp.stapling";
+	/** System property with the path to an ACL file for authorization of requests, see {@link PathAuthorizer} and {@link AccessRules}. */
+	public static final String ACL_FILE_PROPERTY = "acl.file";
+	/** System property with additional HTTPS listeners (comma-separated {@code name:port[:minThreads[:maxThreads[:maxQueued]]][;param=value...]}), see {@link HttpsListener}.
+	 * Listeners without their own {@code maxFullHandshakes} parameter share the limit of {@link #HANDSHAKE_MAX_FULL_PROPERTY}. */
+	public static final String HTTPS_LISTENERS_PROPERTY = "https.listeners";
+	/** System property with the maximum amount of decoded keys, when set the server loads keys from a {@link LazyKeyStore}. */
+	public static final String LAZY_KEY_CACHE_SIZE_PROPERTY = "keystore.lazy.cacheSize";
+	/** System property with the directory for the key pack file of the {@link LazyKeyStore}, defaults to the directory of the key-store. */
+	public static final String LAZY_KEY_PACK_DIR_PROPERTY = "keystore.lazy.packDir";
+	/** System property with the maximum amount of concurrent full handshakes on all listeners, not set or 0 (default) disables, see {@link HandshakeAdmission}. */
+	public static final String HANDSHAKE_MAX_FULL_PROPERTY = "handshake.maxFull";
+	/** System property with the maximum amount of full handshakes waiting for a slot, see {@link HandshakeAdmission#PARAM_MAX_QUEUED_HANDSHAKES}. */
+	public static final String HANDSHAKE_MAX_QUEUED_PROPERTY = "handshake.maxQueued";
+	/** System property with the maximum time a full handshake waits for a slot, see {@link HandshakeAdmission#PARAM_HANDSHAKE_QUEUE_TIMEOUT_MS}. */
+	public static final String HANDSHAKE_QUEUE_TIMEOUT_PROPERTY = "handshake.queueTimeoutMs";
+	/** System property with comma-separated base URLs of server nodes for the client, see {@link AffinityClient}. */
+	public static final String CLIENT_NODES_PROPERTY = "client.nodes";
+	/** System property with the amount of requests the client sends to the server nodes. */
+	public static final String CLIENT_REQUESTS_PROPERTY = "client.requests";
 	
 	public static void configureLogging() {
 		
@@ -0,0 +1,213 @@
+package com.descartes.restlet.clientcert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Minimal DER encoder and reader for the ASN.1 structures in X.509 certificates (RFC 5280)
+ * and OCSP requests and responses (RFC 6960).
+ * <br>Reading is done on the encoded bytes: {@link #contentOffset(byte[], int)} and {@link #length(byte[], int)}
+ * give the position and size of the content of the value starting at an offset,
+ * {@link #next(byte[], int)} gives the offset of the next value.
+ */
+class Der {
+
+	static final byte[] NULL = new byte[] { 0x05, 0x00 };
+
+	static final int TAG_INTEGER = 0x02;
+	static final int TAG_BIT_STRING = 0x03;
+	static final int TAG_OCTET_STRING = 0x04;
+	static final int TAG_OID = 0x06;
+	static final int TAG_SEQUENCE = 0x30;
+
+	private Der() {}
+
+	static byte[] encode(int tag, byte[] content) {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(content.length + 6);
+		out.write(tag);
+		int length = content.length;
+		if (length < 0x80) {
+			out.write(length);
+		} else {
+			int bytes = (length > 0xFFFFFF ? 4 : length > 0xFFFF ? 3 : length > 0xFF ? 2 : 1);
+			out.write(0x80 | bytes);
+			for (int i = bytes - 1; i >= 0; i--) {
+				out.write(length >>> (i * 8));
+			}
+		}
+		out.write(content, 0, content.length);
+		return out.toByteArray();
+	}
+
+	static byte[] concat(byte[]... parts) {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] part : parts) {
+			out.write(part, 0, part.length);
+		}
+		return out.toByteArray();
+	}
+
+	static byte[] sequence(byte[]... parts) { return encode(TAG_SEQUENCE, concat(parts)); }
+	static byte[] tagged(int tag, byte[] content) { return encode(tag, content); }
+	static byte[] integer(BigInteger i) { return encode(TAG_INTEGER, i.toByteArray()); }
+	static byte[] bool(boolean b) { return new byte[] { 0x01, 0x01, (byte) (b ? 0xFF : 0x00) }; }
+	static byte[] octetString(byte[] b) { return encode(TAG_OCTET_STRING, b); }
+	static byte[] bitString(byte[] b) { return encode(TAG_BIT_STRING, concat(new byte[] { 0 }, b)); }
+
+	static byte[] oid(String oid) {
+
+		String[] parts = oid.split("\\.");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(Integer.parseInt(parts[0]) * 40 + Integer.parseInt(parts[1]));
+		for (int i = 2; i < parts.length; i++) {
+			long value = Long.parseLong(parts[i]);
+			int groups = 1;
+			while ((value >>> (7 * groups)) != 0) {
+				groups++;
+			}
+			for (int g = groups - 1; g >= 0; g--) {
+				out.write((int) ((value >>> (7 * g)) & 0x7F) | (g > 0 ? 0x80 : 0));
+			}
+		}
+		return encode(TAG_OID, out.toByteArray());
+	}
+
+	/** UTCTime until 2049, GeneralizedTime from 2050 (RFC 5280 section 4.1.2.5). */
+	static byte[] time(Date date) {
+
+		SimpleDateFormat year = new SimpleDateFormat("yyyy");
+		year.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return (Integer.parseInt(year.format(date)) < 2050 ? formatTime(0x17, "yyMMddHHmmss'Z'", date) : generalizedTime(date));
+	}
+
+	/** GeneralizedTime, as used in OCSP responses. */
+	static byte[] generalizedTime(Date date) {
+		return formatTime(0x18, "yyyyMMddHHmmss'Z'", date);
+	}
+
+	static byte[] formatTime(int tag, String pattern, Date date) {
+
+		SimpleDateFormat format = new SimpleDateFormat(pattern);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return encode(tag, format.format(date).getBytes(StandardCharsets.US_ASCII));
+	}
+
+	static byte[] extension(String oid, boolean critical, byte[] value) {
+		return (critical ? sequence(oid(oid), bool(true), octetString(value)) : sequence(oid(oid), octetString(value)));
+	}
+
+	/**
+	 * @param keyEncipherment for end-entity RSA keys.
+	 * @param ca for CA keys (certificate and CRL signing), else digital signature.
+	 */
+	static byte[] keyUsage(boolean keyEncipherment, boolean ca) {
+
+		if (ca) {
+			// bits 5 (keyCertSign) and 6 (cRLSign), 1 unused bit
+			return new byte[] { 0x03, 0x02, 0x01, 0x06 };
+		}
+		// bit 0 (digitalSignature) and optionally bit 2 (keyEncipherment)
+		return (keyEncipherment ? new byte[] { 0x03, 0x02, 0x05, (byte) 0xA0 } : new byte[] { 0x03, 0x02, 0x07, (byte) 0x80 });
+	}
+
+	static byte[] subjectAltNames(List<String> hostNames, List<InetAddress> addresses) {
+
+		List<byte[]> names = new ArrayList<byte[]>();
+		if (hostNames != null) {
+			for (String host : hostNames) {
+				// dNSName [2] IMPLICIT IA5String
+				names.add(tagged(0x82, host.getBytes(StandardCharsets.US_ASCII)));
+			}
+		}
+		if (addresses != null) {
+			for (InetAddress address : addresses) {
+				// iPAddress [7] IMPLICIT OCTET STRING
+				names.add(tagged(0x87, address.getAddress()));
+			}
+		}
+		return sequence(names.toArray(new byte[names.size()][]));
+	}
+
+	/**
+	 * @return the offset of the content of the value at the given offset.
+	 */
+	static int contentOffset(byte[] b, int offset) throws IOException {
+
+		check(b, offset + 1);
+		int first = b[offset + 1] & 0xFF;
+		return offset + 2 + (first < 0x80 ? 0 : first & 0x7F);
+	}
+
+	/**
+	 * @return the length of the content of the value at the given offset.
+	 */
+	static int length(byte[] b, int offset) throws IOException {
+
+		check(b, offset + 1);
+		int first = b[offset + 1] & 0xFF;
+		if (first < 0x80) {
+			return first;
+		}
+		int bytes = first & 0x7F;
+		if (bytes > 3) {
+			throw new IOException("DER length too large at offset " + offset);
+		}
+		check(b, offset + 1 + bytes);
+		int length = 0;
+		for (int i = 0; i < bytes; i++) {
+			length = (length << 8) | (b[offset + 2 + i] & 0xFF);
+		}
+		return length;
+	}
+
+	/**
+	 * @return the offset of the value following the value at the given offset.
+	 */
+	static int next(byte[] b, int offset) throws IOException {
+
+		int next = contentOffset(b, offset) + length(b, offset);
+		if (next > b.length) {
+			throw new IOException("DER value at offset " + offset + " exceeds data length " + b.length);
+		}
+		return next;
+	}
+
+	static int tag(byte[] b, int offset) throws IOException {
+
+		check(b, offset);
+		return b[offset] & 0xFF;
+	}
+
+	/**
+	 * @return the complete encoding (tag, length and content) of the value at the given offset.
+	 */
+	static byte[] value(byte[] b, int offset) throws IOException {
+		return Arrays.copyOfRange(b, offset, next(b, offset));
+	}
+
+	/**
+	 * @return the content of the value at the given offset.
+	 */
+	static byte[] content(byte[] b, int offset) throws IOException {
+		return Arrays.copyOfRange(b, contentOffset(b, offset), next(b, offset));
+	}
+
+	static void check(byte[] b, int index) throws IOException {
+
+		if (index >= b.length) {
+			throw new IOException("Unexpected end of DER data at offset " + index);
+		}
+	}
+
+}
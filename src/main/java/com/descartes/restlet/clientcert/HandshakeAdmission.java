@@ -0,0 +1,343 @@
+package com.descartes.restlet.clientcert;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+
+import org.restlet.data.Parameter;
+import org.restlet.util.Series;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the amount of concurrent full TLS handshakes.
+ * <br>When all clients reconnect at once (e.g. after a restart), running all full handshakes
+ * concurrently makes each handshake slow, clients time out and retry, which makes things worse.
+ * This controller lets at most {@link #getMaxFullHandshakes()} full handshakes run at the same time,
+ * a limited amount of full handshakes wait (for a limited time) and the rest is refused early
+ * (before any expensive crypto is done) so that clients back off.
+ * <br>Handshakes that resume a session (with a session-ID found in the session cache) are cheap and are never queued.
+ * Handshakes that offer a session ticket or pre-shared key (TLS 1.3) cannot be verified up-front:
+ * after a restart all clients present tickets that can no longer be used and a client can send any bytes as ticket.
+ * These handshakes take a slot (like a full handshake) before the engine processes the ClientHello
+ * and release the slot as soon as the engine has resumed the session. Such a resumption can wait in the queue
+ * while full handshakes use all slots. See {@link TlsClientHello} for how a resumption attempt is recognized.
+ * <br>Waiting for a slot is done deliberately on the thread calling the SSL engine: the JDK HTTP server
+ * runs the TLS handshake on its worker threads (blocking I/O via the engine). A queued handshake occupies a
+ * worker thread for at most {@link #getQueueTimeoutMs()}, so {@link #PARAM_MAX_QUEUED_HANDSHAKES} should be
+ * (well) below the amount of worker threads to leave threads for requests on established connections.
+ * <br>Used via {@link #getEngineWrapper(SSLSessionContext)} by {@code HttpsServerHelper2},
+ * configured via the connector parameters {@link #PARAM_MAX_FULL_HANDSHAKES},
+ * {@link #PARAM_MAX_QUEUED_HANDSHAKES} and {@link #PARAM_HANDSHAKE_QUEUE_TIMEOUT_MS}.
+ * One controller can be shared by several listeners (each with its own SSL context) so that
+ * the limit applies to the whole server: put the controller in the context attribute {@link #CONTEXT_ATTRIBUTE}
+ * of each server connector, the connector parameters are then ignored.
+ */
+public class HandshakeAdmission {
+
+	private static final Logger log = LoggerFactory.getLogger(HandshakeAdmission.class);
+
+	/** Maximum amount of concurrent full handshakes, 0 (default) disables admission control. */
+	public static final String PARAM_MAX_FULL_HANDSHAKES = "maxFullHandshakes";
+	/**
+	 * Maximum amount of full handshakes waiting for a slot, defaults to 4 times the maximum full handshakes
+	 * but at most half of the connector parameter {@code maxThreads}.
+	 */
+	public static final String PARAM_MAX_QUEUED_HANDSHAKES = "maxQueuedHandshakes";
+	/** Maximum time a full handshake waits for a slot before it is refused, defaults to 1000 ms. */
+	public static final String PARAM_HANDSHAKE_QUEUE_TIMEOUT_MS = "handshakeQueueTimeoutMs";
+
+	/** Default of the connector parameter {@code maxThreads} for the worker threads of {@code NetServerHelper}. */
+	public static final int DEFAULT_MAX_THREADS = 10;
+
+	/** Context attribute name under which the controller is registered by (or shared with) {@code HttpsServerHelper2}. */
+	public static final String CONTEXT_ATTRIBUTE = HandshakeAdmission.class.getName();
+
+	private final int maxFullHandshakes;
+	private final int maxQueuedHandshakes;
+	private final long queueTimeoutMs;
+	private final Semaphore slots;
+
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicLong admittedFull = new AtomicLong();
+	private final AtomicLong admittedAfterWait = new AtomicLong();
+	private final AtomicLong admittedResume = new AtomicLong();
+	private final AtomicLong resumeMisses = new AtomicLong();
+	private final AtomicLong refusedQueueFull = new AtomicLong();
+	private final AtomicLong refusedTimeout = new AtomicLong();
+	private final AtomicLong queueWaitTotalNanos = new AtomicLong();
+	private final AtomicLong queueWaitMaxNanos = new AtomicLong();
+
+	public HandshakeAdmission(int maxFullHandshakes, int maxQueuedHandshakes, long queueTimeoutMs) {
+		super();
+		if (maxFullHandshakes < 1) {
+			throw new IllegalArgumentException("Maximum full handshakes must be at least 1, not " + maxFullHandshakes);
+		}
+		this.maxFullHandshakes = maxFullHandshakes;
+		this.maxQueuedHandshakes = Math.max(0, maxQueuedHandshakes);
+		this.queueTimeoutMs = Math.max(0L, queueTimeoutMs);
+		// Fair so that queued handshakes are admitted in order of arrival.
+		slots = new Semaphore(maxFullHandshakes, true);
+	}
+
+	/**
+	 * Creates a controller from connector parameters.
+	 * @return null when {@link #PARAM_MAX_FULL_HANDSHAKES} is not set or 0 (admission control disabled).
+	 */
+	public static HandshakeAdmission create(Series<Parameter> parameters) {
+
+		int maxFull = Integer.parseInt(parameters.getFirstValue(PARAM_MAX_FULL_HANDSHAKES, "0"));
+		if (maxFull < 1) {
+			return null;
+		}
+		int maxThreads = Integer.parseInt(parameters.getFirstValue(HttpsListener.PARAM_MAX_THREADS, Integer.toString(DEFAULT_MAX_THREADS)));
+		// Leave at least half of the worker threads for requests on established connections.
+		int defaultQueued = Math.min(maxFull * 4, maxThreads / 2);
+		int maxQueued = Integer.parseInt(parameters.getFirstValue(PARAM_MAX_QUEUED_HANDSHAKES, Integer.toString(defaultQueued)));
+		if (maxQueued >= maxThreads) {
+			log.warn("Up to " + maxQueued + " queued handshakes can block all " + maxThreads + " worker threads.");
+		}
+		long timeoutMs = Long.parseLong(parameters.getFirstValue(PARAM_HANDSHAKE_QUEUE_TIMEOUT_MS, "1000"));
+		return new HandshakeAdmission(maxFull, maxQueued, timeoutMs);
+	}
+
+	/**
+	 * @param sessionContext the server session context of the SSL context that creates the engines,
+	 * used to recognize session-IDs from clients that can be resumed.
+	 * @return an engine wrapper that limits the handshakes of the engines using the slots of this controller.
+	 */
+	public WrappedSslContext.EngineWrapper getEngineWrapper(final SSLSessionContext sessionContext) {
+
+		return new WrappedSslContext.EngineWrapper() {
+			@Override public SSLEngine wrap(SSLEngine engine) {
+				return new AdmissionSslEngine(engine, sessionContext);
+			}
+		};
+	}
+
+	/**
+	 * Waits for a full handshake slot if needed.
+	 * @return true when a slot was acquired, false if the handshake must be refused.
+	 */
+	protected boolean acquire() {
+
+		if (slots.tryAcquire()) {
+			admittedFull.incrementAndGet();
+			return true;
+		}
+		if (queued.incrementAndGet() > maxQueuedHandshakes) {
+			queued.decrementAndGet();
+			refusedQueueFull.incrementAndGet();
+			return false;
+		}
+		long start = System.nanoTime();
+		boolean acquired = false;
+		try {
+			acquired = slots.tryAcquire(queueTimeoutMs, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			queued.decrementAndGet();
+		}
+		long waited = System.nanoTime() - start;
+		queueWaitTotalNanos.addAndGet(waited);
+		long max = queueWaitMaxNanos.get();
+		while (waited > max && !queueWaitMaxNanos.compareAndSet(max, waited)) {
+			max = queueWaitMaxNanos.get();
+		}
+		if (acquired) {
+			admittedFull.incrementAndGet();
+			admittedAfterWait.incrementAndGet();
+		} else {
+			refusedTimeout.incrementAndGet();
+		}
+		return acquired;
+	}
+
+	protected void release() {
+		slots.release();
+	}
+
+	public int getMaxFullHandshakes() { return maxFullHandshakes; }
+	public int getMaxQueuedHandshakes() { return maxQueuedHandshakes; }
+	public long getQueueTimeoutMs() { return queueTimeoutMs; }
+
+	/** Amount of full handshakes currently running. */
+	public int getActiveFullHandshakes() { return maxFullHandshakes - slots.availablePermits(); }
+	/** Amount of full handshakes currently waiting for a slot. */
+	public int getQueuedHandshakes() { return queued.get(); }
+	/** Total amount of full handshakes admitted, including those that had to wait. */
+	public long getAdmittedFull() { return admittedFull.get(); }
+	/** Amount of full handshakes admitted after waiting in the queue. */
+	public long getAdmittedAfterWait() { return admittedAfterWait.get(); }
+	/** Amount of handshakes that resumed a session without holding a slot (or released it early). */
+	public long getAdmittedResume() { return admittedResume.get(); }
+	/** Amount of resumption attempts that ended up as a full handshake (holding a slot if a ticket was offered). */
+	public long getResumeMisses() { return resumeMisses.get(); }
+	/** Amount of full handshakes refused because the queue was full. */
+	public long getRefusedQueueFull() { return refusedQueueFull.get(); }
+	/** Amount of full handshakes refused because no slot became available in time. */
+	public long getRefusedTimeout() { return refusedTimeout.get(); }
+	/** Total time spent waiting in the queue in milliseconds. */
+	public long getQueueWaitTotalMs() { return TimeUnit.NANOSECONDS.toMillis(queueWaitTotalNanos.get()); }
+	/** Longest time spent waiting in the queue in milliseconds. */
+	public long getQueueWaitMaxMs() { return TimeUnit.NANOSECONDS.toMillis(queueWaitMaxNanos.get()); }
+
+	@Override
+	public String toString() {
+		return "Handshakes active: " + getActiveFullHandshakes() + "/" + maxFullHandshakes
+				+ ", queued: " + getQueuedHandshakes() + "/" + maxQueuedHandshakes
+				+ ", admitted full: " + getAdmittedFull() + " (after wait: " + getAdmittedAfterWait() + ")"
+				+ ", admitted resume: " + getAdmittedResume() + " (misses: " + getResumeMisses() + ")"
+				+ ", refused queue full: " + getRefusedQueueFull() + ", refused timeout: " + getRefusedTimeout()
+				+ ", queue wait total/max ms: " + getQueueWaitTotalMs() + "/" + getQueueWaitMaxMs();
+	}
+
+	/**
+	 * Classifies the handshake on the first received record and holds a full handshake slot
+	 * until the handshake is finished, fails or the connection is closed.
+	 * A handshake offering a ticket acquires a slot when the engine needs to run the ClientHello task
+	 * and releases it after that task when the session was resumed.
+	 */
+	class AdmissionSslEngine extends DelegatingSslEngine {
+
+		private final SSLSessionContext sessionContext;
+		private boolean classified;
+		private boolean resumeAttempt;
+		private boolean ticketAttempt;
+		private boolean resumeChecked;
+		private long handshakeStart;
+		private final AtomicBoolean slotHeld = new AtomicBoolean();
+
+		public AdmissionSslEngine(SSLEngine engine, SSLSessionContext sessionContext) {
+			super(engine);
+			this.sessionContext = sessionContext;
+		}
+
+		@Override
+		public SSLEngineResult unwrap(ByteBuffer src, ByteBuffer[] dsts, int offset, int length) throws SSLException {
+
+			if (!classified) {
+				classify(src);
+			}
+			checkResumed();
+			try {
+				SSLEngineResult result = super.unwrap(src, dsts, offset, length);
+				if (ticketAttempt && !slotHeld.get() && !resumeChecked && result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+					// ClientHello received, nothing expensive is done before the task runs.
+					admit();
+				}
+				return finished(result);
+			} catch (SSLException e) {
+				releaseSlot();
+				throw e;
+			}
+		}
+
+		@Override
+		public SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length, ByteBuffer dst) throws SSLException {
+
+			checkResumed();
+			try {
+				return finished(super.wrap(srcs, offset, length, dst));
+			} catch (SSLException e) {
+				releaseSlot();
+				throw e;
+			}
+		}
+
+		@Override
+		public void closeInbound() throws SSLException {
+			releaseSlot();
+			super.closeInbound();
+		}
+
+		@Override
+		public void closeOutbound() {
+			releaseSlot();
+			super.closeOutbound();
+		}
+
+		private void classify(ByteBuffer src) throws SSLException {
+
+			int kind = TlsClientHello.classify(src, sessionContext);
+			if (kind == TlsClientHello.INCOMPLETE) {
+				return;
+			}
+			classified = true;
+			handshakeStart = System.currentTimeMillis();
+			if (kind == TlsClientHello.RESUME) {
+				resumeAttempt = true;
+				admittedResume.incrementAndGet();
+				return;
+			}
+			if (kind == TlsClientHello.TICKET) {
+				ticketAttempt = true;
+				return;
+			}
+			admit();
+		}
+
+		private void admit() throws SSLException {
+
+			if (!acquire()) {
+				if (log.isDebugEnabled()) {
+					log.debug("Refusing full handshake from " + getPeerHost() + ". " + HandshakeAdmission.this);
+				}
+				throw new SSLHandshakeException("Too many concurrent full handshakes, try again later.");
+			}
+			slotHeld.set(true);
+		}
+
+		/**
+		 * After the ClientHello task of a handshake offering a ticket, releases the slot if the session was resumed.
+		 * A resumed session was created before this handshake started, a new session is created during the handshake.
+		 */
+		private void checkResumed() {
+
+			if (!ticketAttempt || resumeChecked || !slotHeld.get() || engine.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+				return;
+			}
+			SSLSession session = engine.getHandshakeSession();
+			if (session == null) {
+				return;
+			}
+			resumeChecked = true;
+			if (session.getCreationTime() < handshakeStart) {
+				releaseSlot();
+				admittedResume.incrementAndGet();
+			} else {
+				resumeMisses.incrementAndGet();
+			}
+		}
+
+		private SSLEngineResult finished(SSLEngineResult result) {
+
+			if (result.getHandshakeStatus() == HandshakeStatus.FINISHED) {
+				releaseSlot();
+				if (resumeAttempt && getSession().getCreationTime() >= handshakeStart) {
+					resumeMisses.incrementAndGet();
+				}
+			}
+			return result;
+		}
+
+		private void releaseSlot() {
+			if (slotHeld.compareAndSet(true, false)) {
+				release();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.descartes.restlet.clientcert;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A SSL socket factory that reports each completed handshake of the sockets it creates,
+ * and whether the session was resumed: the session was seen on a previous connection to the same peer.
+ * A resumed TLS 1.2 session has the session ID of the previous session. A resumed TLS 1.3 session has a new session ID
+ * but keeps the creation time of the previous session, which must also be before the socket was created.
+ * <br>Use with {@link WrappedSslContext.SocketFactoryWrapper} for clients that get the socket factory from a SSL context.
+ */
+public class HandshakeTrackingSocketFactory extends SSLSocketFactory {
+
+	/**
+	 * Receives completed handshakes.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called after the handshake completed, the SunJSSE calls this on a new thread for each handshake
+		 * ({@code HandshakeCompletedNotify-Thread}): the call can happen after the request on the connection was sent.
+		 * @param session the session with the peer host and port.
+		 */
+		void handshakeCompleted(SSLSession session, boolean resumed);
+	}
+
+	/** Maximum amount of sessions remembered per peer. */
+	static final int MAX_SESSIONS_PER_PEER = 1000;
+
+	private final SSLSocketFactory wrapped;
+	private final Listener listener;
+	/** Per peer host and port the (least recently) seen sessions. */
+	private final Map<String, Set<String>> seenSessions = new HashMap<String, Set<String>>();
+
+	public HandshakeTrackingSocketFactory(SSLSocketFactory wrapped, Listener listener) {
+		super();
+		this.wrapped = wrapped;
+		this.listener = listener;
+	}
+
+	protected Socket track(Socket socket) {
+
+		if (socket instanceof SSLSocket) {
+			final long created = System.currentTimeMillis();
+			((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+				@Override public void handshakeCompleted(HandshakeCompletedEvent event) {
+					SSLSession session = event.getSession();
+					listener.handshakeCompleted(session, isResumed(session, created));
+				}
+			});
+		}
+		return socket;
+	}
+
+	/**
+	 * Remembers the session and checks if it was seen before.
+	 * @param created the time the socket was created.
+	 */
+	protected boolean isResumed(SSLSession session, long created) {
+
+		byte[] id = session.getId();
+		boolean byTime = ("TLSv1.3".equals(session.getProtocol()) || id == null || id.length == 0);
+		String key = (byTime ? "created:" + session.getCreationTime() : SessionTicketKeys.toHex(id));
+		String peer = session.getPeerHost() + ":" + session.getPeerPort();
+		boolean seen = false;
+		synchronized (seenSessions) {
+			Set<String> sessions = seenSessions.get(peer);
+			if (sessions == null) {
+				sessions = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+					@Override protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+						return size() > MAX_SESSIONS_PER_PEER;
+					}
+				});
+				seenSessions.put(peer, sessions);
+			}
+			// Adding a seen session updates the access order.
+			seen = !sessions.add(key);
+		}
+		return (seen && (!byTime || session.getCreationTime() < created));
+	}
+
+	@Override
+	public String[] getDefaultCipherSuites() {
+		return wrapped.getDefaultCipherSuites();
+	}
+
+	@Override
+	public String[] getSupportedCipherSuites() {
+		return wrapped.getSupportedCipherSuites();
+	}
+
+	@Override
+	public Socket createSocket() throws IOException {
+		return track(wrapped.createSocket());
+	}
+
+	@Override
+	public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+		return track(wrapped.createSocket(s, host, port, autoClose));
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		return track(wrapped.createSocket(host, port));
+	}
+
+	@Override
+	public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+		return track(wrapped.createSocket(host, port, localHost, localPort));
+	}
+
+	@Override
+	public Socket createSocket(InetAddress host, int port) throws IOException {
+		return track(wrapped.createSocket(host, port));
+	}
+
+	@Override
+	public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+		return track(wrapped.createSocket(address, port, localAddress, localPort));
+	}
+
+}
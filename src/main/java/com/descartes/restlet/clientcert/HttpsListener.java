@@ -0,0 +1,172 @@
+package com.descartes.restlet.clientcert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.restlet.Component;
+import org.restlet.Context;
+import org.restlet.Restlet;
+import org.restlet.Server;
+import org.restlet.data.Parameter;
+import org.restlet.data.Protocol;
+import org.restlet.engine.connector.HttpsServerHelper2;
+import org.restlet.routing.VirtualHost;
+import org.restlet.util.Series;
+
+/**
+ * A HTTPS listener (server connector) in a {@link Component} with its own port, SSL context factory,
+ * worker threads and guard chain. Listeners for different kinds of traffic (e.g. health checks, admin calls
+ * and bulk traffic) do not compete for the same worker threads: a saturated listener does not delay
+ * requests on other listeners. All listeners share the key material loaded once (see {@link ServerSslContextFactory#copy()}).
+ * <br>Listeners are declared as comma-separated {@code name:port[:minThreads[:maxThreads[:maxQueued]]][;param=value...]},
+ * e.g. {@code health:8184:1:2:0, bulk:8185:4:32:200;backlog=500;idleTimeoutMs=60000}.
+ * Omitted thread values use the connector defaults. A {@code maxQueued} of 0 means no queue,
+ * -1 an unbounded queue. The optional {@code param=value} pairs are connector parameters for this listener only
+ * (see {@code HttpsServerHelper2}), other connector parameters take the connector defaults.
+ * In {@link RestletServerMain} listeners share one limit for full handshakes unless the listener has its own
+ * {@link HandshakeAdmission#PARAM_MAX_FULL_HANDSHAKES} parameter (0 turns the limit off for that listener).
+ */
+public class HttpsListener {
+
+	/** Connector parameters for the worker threads used by {@code NetServerHelper}. */
+	public static final String PARAM_MIN_THREADS = "minThreads";
+	public static final String PARAM_MAX_THREADS = "maxThreads";
+	public static final String PARAM_MAX_QUEUED = "maxQueued";
+
+	private final String name;
+	private final int port;
+	private final Integer minThreads;
+	private final Integer maxThreads;
+	private final Integer maxQueued;
+	private final Map<String, String> parameters;
+
+	/**
+	 * @param minThreads null for the connector default.
+	 * @param maxThreads null for the connector default.
+	 * @param maxQueued null for the connector default.
+	 */
+	public HttpsListener(String name, int port, Integer minThreads, Integer maxThreads, Integer maxQueued) {
+		this(name, port, minThreads, maxThreads, maxQueued, null);
+	}
+
+	/**
+	 * @param parameters null or additional connector parameters for this listener.
+	 */
+	public HttpsListener(String name, int port, Integer minThreads, Integer maxThreads, Integer maxQueued, Map<String, String> parameters) {
+		super();
+		if (port < 1) {
+			throw new IllegalArgumentException("Invalid port " + port + " for HTTPS listener " + name);
+		}
+		this.name = name;
+		this.port = port;
+		this.minThreads = minThreads;
+		this.maxThreads = maxThreads;
+		this.maxQueued = maxQueued;
+		this.parameters = (parameters == null ? Collections.<String, String>emptyMap()
+				: Collections.unmodifiableMap(new LinkedHashMap<String, String>(parameters)));
+	}
+
+	/**
+	 * @param listeners comma-separated listener declarations, see {@link HttpsListener}.
+	 * @throws IllegalArgumentException if a declaration is invalid.
+	 */
+	public static List<HttpsListener> parse(String listeners) {
+
+		List<HttpsListener> parsed = new ArrayList<HttpsListener>();
+		if (SslUtils.isEmpty(listeners)) {
+			return parsed;
+		}
+		for (String listener : listeners.trim().split("\\s*,\\s*")) {
+			String[] paramParts = listener.split("\\s*;\\s*");
+			Map<String, String> params = new LinkedHashMap<String, String>();
+			for (int i = 1; i < paramParts.length; i++) {
+				int eq = paramParts[i].indexOf('=');
+				if (eq < 1) {
+					throw new IllegalArgumentException("Invalid connector parameter [" + paramParts[i] + "] in HTTPS listener declaration [" + listener + "]");
+				}
+				params.put(paramParts[i].substring(0, eq).trim(), paramParts[i].substring(eq + 1).trim());
+			}
+			String[] parts = paramParts[0].split(":");
+			if (parts.length < 2 || parts.length > 5 || parts[0].isEmpty()) {
+				throw new IllegalArgumentException("Invalid HTTPS listener declaration [" + listener + "]");
+			}
+			Integer[] values = new Integer[4];
+			try {
+				for (int i = 1; i < parts.length; i++) {
+					values[i - 1] = Integer.valueOf(parts[i]);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid number in HTTPS listener declaration [" + listener + "]");
+			}
+			parsed.add(new HttpsListener(parts[0], values[0], values[1], values[2], values[3], params));
+		}
+		return parsed;
+	}
+
+	/**
+	 * Adds a HTTPS server for this listener to the component.
+	 * @param sslContextFactory the SSL context factory for this listener only.
+	 */
+	public Server createServer(Component component, ServerSslContextFactory sslContextFactory) {
+
+		Server server = new Server(
+				(Context) null, Arrays.asList(Protocol.HTTPS),
+				(String) null, port, component.getServers().getNext(),
+				HttpsServerHelper2.class.getName()
+			);
+		component.getServers().add(server);
+		server.getContext().getAttributes().put("sslContextFactory", sslContextFactory);
+		Series<Parameter> parameters = server.getContext().getParameters();
+		if (minThreads != null) {
+			parameters.add(PARAM_MIN_THREADS, minThreads.toString());
+		}
+		if (maxThreads != null) {
+			parameters.add(PARAM_MAX_THREADS, maxThreads.toString());
+		}
+		if (maxQueued != null) {
+			parameters.add(PARAM_MAX_QUEUED, maxQueued.toString());
+		}
+		for (Map.Entry<String, String> param : this.parameters.entrySet()) {
+			parameters.add(param.getKey(), param.getValue());
+		}
+		return server;
+	}
+
+	/**
+	 * Adds a virtual host to the component that routes all requests received on the port of this listener
+	 * to the guard chain of this listener.
+	 */
+	public VirtualHost attach(Component component, Restlet guard) {
+
+		VirtualHost host = new VirtualHost(component.getContext().createChildContext());
+		host.setServerPort(Integer.toString(port));
+		host.attachDefault(guard);
+		component.getHosts().add(host);
+		return host;
+	}
+
+	public String getName() { return name; }
+	public int getPort() { return port; }
+	/** Null for the connector default. */
+	public Integer getMinThreads() { return minThreads; }
+	/** Null for the connector default. */
+	public Integer getMaxThreads() { return maxThreads; }
+	/** Null for the connector default. */
+	public Integer getMaxQueued() { return maxQueued; }
+	/** Additional connector parameters for this listener (unmodifiable). */
+	public Map<String, String> getParameters() { return parameters; }
+
+	@Override
+	public String toString() {
+		return "HTTPS listener " + name + " on port " + port
+				+ (minThreads == null ? "" : ", min. threads " + minThreads)
+				+ (maxThreads == null ? "" : ", max. threads " + maxThreads)
+				+ (maxQueued == null ? "" : ", max. queued " + maxQueued)
+				+ (parameters.isEmpty() ? "" : ", parameters " + parameters);
+	}
+
+}
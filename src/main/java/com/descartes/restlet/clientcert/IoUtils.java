@@ -0,0 +1,26 @@
+package com.descartes.restlet.clientcert;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stream utilities shared by the proxy and the OCSP client and responder.
+ */
+public class IoUtils {
+
+	private IoUtils() {}
+
+	/**
+	 * Copies all bytes from the input stream to the output stream. Neither stream is closed.
+	 */
+	public static void copy(InputStream in, OutputStream out) throws IOException {
+
+		byte[] buf = new byte[8192];
+		int read = 0;
+		while ((read = in.read(buf)) != -1) {
+			out.write(buf, 0, read);
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+package com.descartes.restlet.clientcert;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.SSLContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Installs OCSP responses in the stapling response cache of the SunJSSE provider (Java 9 and later).
+ * <br>The SunJSSE has no public API for this: the response cache of the {@code sun.security.ssl.StatusResponseManager}
+ * is updated via reflection. Server stapling must be enabled before the SSL context is created,
+ * see {@link OcspStapling#enableServerStapling()}. This requires the JVM options
+ * <br>{@code --add-opens java.base/javax.net.ssl=ALL-UNNAMED --add-opens java.base/sun.security.ssl=ALL-UNNAMED
+ * --add-opens java.base/sun.security.util=ALL-UNNAMED --add-opens java.base/sun.security.x509=ALL-UNNAMED
+ * --add-opens java.base/sun.security.provider.certpath=ALL-UNNAMED}
+ * <br>On older Java versions, other providers or without these options, nothing is installed
+ * (a warning is logged once) and no OCSP responses are stapled.
+ */
+class JsseOcspInstaller {
+
+	private static final Logger log = LoggerFactory.getLogger(JsseOcspInstaller.class);
+
+	private static final String CACHE_ENTRY_CLASS = "sun.security.ssl.StatusResponseManager$ResponseCacheEntry";
+	private static final String CERT_ID_CLASS = "sun.security.provider.certpath.CertId";
+	private static final String SERIAL_NUMBER_CLASS = "sun.security.x509.SerialNumber";
+	private static final String CACHE_CLASS = "sun.security.util.Cache";
+
+	private static volatile boolean warned;
+
+	private JsseOcspInstaller() {}
+
+	/**
+	 * @param ctx an initialized server SSL context from the SunJSSE provider.
+	 * @param cert the server certificate.
+	 * @param issuer the issuer of the server certificate.
+	 * @param ocspResponse the encoded OCSP response for the server certificate.
+	 * @return true if the response was installed.
+	 */
+	static boolean install(SSLContext ctx, X509Certificate cert, X509Certificate issuer, byte[] ocspResponse) {
+
+		try {
+			Object cache = getResponseCache(ctx);
+			Class<?> serialClass = Class.forName(SERIAL_NUMBER_CLASS);
+			Class<?> certIdClass = Class.forName(CERT_ID_CLASS);
+			Object serial = accessible(serialClass.getConstructor(BigInteger.class)).newInstance(cert.getSerialNumber());
+			Object certId = accessible(certIdClass.getConstructor(X509Certificate.class, serialClass)).newInstance(issuer, serial);
+			Class<?> entryClass = Class.forName(CACHE_ENTRY_CLASS);
+			Object entry = accessible(entryClass.getDeclaredConstructor(byte[].class, certIdClass)).newInstance(ocspResponse, certId);
+			Method put = Class.forName(CACHE_CLASS).getMethod("put", Object.class, Object.class);
+			put.setAccessible(true);
+			put.invoke(cache, certId, entry);
+			return true;
+		} catch (Exception e) {
+			warn(e);
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if responses can be installed in the SSL context (else a warning is logged once).
+	 */
+	static boolean isAvailable(SSLContext ctx) {
+
+		try {
+			getResponseCache(ctx);
+			return true;
+		} catch (Exception e) {
+			warn(e);
+			return false;
+		}
+	}
+
+	static Object getResponseCache(SSLContext ctx) throws Exception {
+
+		Object spi = ReflectionUtils.getField(SSLContext.class, ctx, "contextSpi");
+		Class<?> c = spi.getClass();
+		while (c != null) {
+			try {
+				Method m = c.getDeclaredMethod("getStatusResponseManager");
+				m.setAccessible(true);
+				Object manager = m.invoke(spi);
+				if (manager == null) {
+					throw new IllegalStateException("Server stapling is not enabled (jdk.tls.server.enableStatusRequestExtension).");
+				}
+				return ReflectionUtils.getField(manager.getClass(), manager, "responseCache");
+			} catch (NoSuchMethodException e) {
+				c = c.getSuperclass();
+			}
+		}
+		throw new NoSuchMethodException("No status response manager in " + spi.getClass().getName());
+	}
+
+	static <T extends Constructor<?>> T accessible(T constructor) {
+
+		constructor.setAccessible(true);
+		return constructor;
+	}
+
+	static void warn(Exception ex) {
+
+		Throwable e = (ex instanceof InvocationTargetException && ex.getCause() != null ? ex.getCause() : ex);
+		if (!warned) {
+			warned = true;
+			log.warn("Unable to install OCSP responses, no OCSP responses will be stapled. "
+					+ "Requires Java 9+ with the SunJSSE provider and --add-opens options for the packages "
+					+ "javax.net.ssl, sun.security.ssl, sun.security.util, sun.security.x509 and sun.security.provider.certpath - " + e);
+		} else if (log.isDebugEnabled()) {
+			log.debug("Unable to install OCSP response - " + e);
+		}
+	}
+
+}
@@ -0,0 +1,114 @@
+package com.descartes.restlet.clientcert;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+
+import javax.crypto.spec.SecretKeySpec;
+import javax.net.ssl.SSLContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Installs session ticket keys in the SunJSSE provider (Java 13 and later, stateless session tickets).
+ * <br>The SunJSSE has no public API for this: the key map in {@code sun.security.ssl.SSLContextImpl}
+ * is updated via reflection. This requires the JVM options
+ * <br>{@code --add-opens java.base/javax.net.ssl=ALL-UNNAMED --add-opens java.base/sun.security.ssl=ALL-UNNAMED}
+ * <br>On older Java versions, other providers or without these options, nothing is installed
+ * (a warning is logged once) and each SSL context uses its own randomly generated keys.
+ * <br>Handshake threads read the key map without locking, so the map is never modified: a new, fully populated map
+ * replaces the map of the SSL context. The replacement is done while holding the lock on the old map,
+ * which is the lock the SunJSSE holds when it adds a new key (after the current key expired).
+ * <br>The current key-id is a static variable in the SunJSSE ({@code SessionTicketExtension.currentKeyID}),
+ * it is the same for all SSL contexts in the JVM: setting it affects every server SSL context in the JVM.
+ * A SSL context that does not have a key with the current key-id generates a new key and changes the current key-id,
+ * so all server SSL contexts that issue session tickets should get the same keys installed.
+ */
+class JsseTicketKeyInstaller {
+
+	private static final Logger log = LoggerFactory.getLogger(JsseTicketKeyInstaller.class);
+
+	private static final String TICKET_EXTENSION_CLASS = "sun.security.ssl.SessionTicketExtension";
+	private static final String STATELESS_KEY_CLASS = TICKET_EXTENSION_CLASS + "$StatelessKey";
+	private static final String KEY_MAP_FIELD = "keyHashMap";
+
+	private static volatile boolean warned;
+
+	private JsseTicketKeyInstaller() {}
+
+	/**
+	 * Replaces all keys of the SSL context and sets the current key-id (for all SSL contexts in the JVM).
+	 * @param ctx an initialized SSL context from the SunJSSE provider.
+	 * @param keyIds the key-ids, send to clients as part of the ticket.
+	 * @param keys the keys (32 or 16 bytes) for the key-ids.
+	 * @param expires the times (in milliseconds) after which the SunJSSE replaces a key if it is still the current key.
+	 * @param currentKeyId the key-id of the key used to issue new tickets, must be one of the key-ids.
+	 * @return true if the keys were installed.
+	 */
+	static boolean install(SSLContext ctx, int[] keyIds, byte[][] keys, long[] expires, int currentKeyId) {
+
+		try {
+			Object spi = ReflectionUtils.getField(SSLContext.class, ctx, "contextSpi");
+			Class<?> spiClass = getKeyMapClass(spi);
+			Class<?> keyClass = Class.forName(STATELESS_KEY_CLASS);
+			HashMap<Integer, Object> keyMap = new HashMap<Integer, Object>();
+			for (int i = 0; i < keyIds.length; i++) {
+				Object statelessKey = allocateInstance(keyClass);
+				ReflectionUtils.setField(keyClass, statelessKey, "key", new SecretKeySpec(keys[i], "AES"));
+				ReflectionUtils.setField(keyClass, statelessKey, "timeout", Long.valueOf(expires[i]));
+				ReflectionUtils.setField(keyClass, statelessKey, "num", Integer.valueOf(keyIds[i]));
+				keyMap.put(Integer.valueOf(keyIds[i]), statelessKey);
+			}
+			Object oldKeyMap = ReflectionUtils.getField(spiClass, spi, KEY_MAP_FIELD);
+			synchronized (oldKeyMap) {
+				ReflectionUtils.setField(spiClass, spi, KEY_MAP_FIELD, keyMap);
+				ReflectionUtils.setField(Class.forName(TICKET_EXTENSION_CLASS), null, "currentKeyID", Integer.valueOf(currentKeyId));
+			}
+			return true;
+		} catch (Exception e) {
+			warn(e);
+			return false;
+		}
+	}
+
+	/**
+	 * @return the (super) class of the SSL context implementation that has the session ticket key map.
+	 */
+	static Class<?> getKeyMapClass(Object spi) throws Exception {
+
+		Class<?> c = spi.getClass();
+		while (c != null) {
+			try {
+				c.getDeclaredField(KEY_MAP_FIELD);
+				return c;
+			} catch (NoSuchFieldException e) {
+				c = c.getSuperclass();
+			}
+		}
+		throw new NoSuchFieldException("No session ticket key map in " + spi.getClass().getName());
+	}
+
+	/**
+	 * The StatelessKey constructor requires a handshake context, so an instance is allocated without calling a constructor.
+	 */
+	static Object allocateInstance(Class<?> c) throws Exception {
+
+		Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+		Object unsafe = ReflectionUtils.getField(unsafeClass, null, "theUnsafe");
+		Method allocate = unsafeClass.getMethod("allocateInstance", Class.class);
+		return allocate.invoke(unsafe, c);
+	}
+
+	static void warn(Exception e) {
+
+		if (!warned) {
+			warned = true;
+			log.warn("Unable to install shared session ticket keys, each node will use its own keys. "
+					+ "Requires Java 13+ with the SunJSSE provider and options "
+					+ "--add-opens java.base/javax.net.ssl=ALL-UNNAMED --add-opens java.base/sun.security.ssl=ALL-UNNAMED - " + e);
+		} else if (log.isDebugEnabled()) {
+			log.debug("Unable to install session ticket keys - " + e);
+		}
+	}
+
+}
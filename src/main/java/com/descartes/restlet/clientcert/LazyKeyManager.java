@@ -0,0 +1,137 @@
+package com.descartes.restlet.clientcert;
+
+import java.net.Socket;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Key manager for a {@link LazyKeyStore}: private keys are decoded when a handshake uses them.
+ * <br>On the server side the key is chosen by the host name the client requested (SNI),
+ * matched against the names in the certificates. Without a matching certificate, the first key
+ * that matches the key type is used (as the JSSE's SunX509 key manager does).
+ * <br>On the client side the configured client alias is used, or else the first key that matches
+ * the key type and issuers requested by the server.
+ */
+public class LazyKeyManager extends X509ExtendedKeyManager {
+
+	private static final Logger log = LoggerFactory.getLogger(LazyKeyManager.class);
+
+	private final LazyKeyStore keyStore;
+	private final String clientAlias;
+
+	/**
+	 * @param clientAlias null to use the first alias that matches the server's request.
+	 */
+	public LazyKeyManager(LazyKeyStore keyStore, String clientAlias) {
+		super();
+		this.keyStore = keyStore;
+		this.clientAlias = clientAlias;
+	}
+
+	@Override
+	public String[] getClientAliases(String keyType, Principal[] issuers) {
+		return toArray(keyStore.getAliases(keyType, issuers));
+	}
+
+	@Override
+	public String chooseClientAlias(String[] keyTypes, Principal[] issuers, Socket socket) {
+		return chooseClientAlias(keyTypes, issuers);
+	}
+
+	@Override
+	public String chooseEngineClientAlias(String[] keyTypes, Principal[] issuers, SSLEngine engine) {
+		return chooseClientAlias(keyTypes, issuers);
+	}
+
+	protected String chooseClientAlias(String[] keyTypes, Principal[] issuers) {
+
+		for (String keyType : keyTypes) {
+			if (clientAlias != null) {
+				if (keyStore.matches(clientAlias, keyType, issuers)) {
+					return clientAlias;
+				}
+				continue;
+			}
+			String alias = keyStore.chooseAlias(keyType, issuers);
+			if (alias != null) {
+				return alias;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String[] getServerAliases(String keyType, Principal[] issuers) {
+		return toArray(keyStore.getAliases(keyType, issuers));
+	}
+
+	@Override
+	public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+		return chooseServerAlias(keyType, issuers, socket instanceof SSLSocket ? ((SSLSocket) socket).getHandshakeSession() : null);
+	}
+
+	@Override
+	public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+		return chooseServerAlias(keyType, issuers, engine == null ? null : engine.getHandshakeSession());
+	}
+
+	protected String chooseServerAlias(String keyType, Principal[] issuers, SSLSession handshakeSession) {
+
+		if (handshakeSession instanceof ExtendedSSLSession) {
+			for (SNIServerName serverName : ((ExtendedSSLSession) handshakeSession).getRequestedServerNames()) {
+				if (!(serverName instanceof SNIHostName)) {
+					continue;
+				}
+				String alias = keyStore.getAliasForName(((SNIHostName) serverName).getAsciiName());
+				if (alias != null && keyStore.matches(alias, keyType, issuers)) {
+					return alias;
+				}
+			}
+		}
+		return keyStore.chooseAlias(keyType, issuers);
+	}
+
+	@Override
+	public X509Certificate[] getCertificateChain(String alias) {
+
+		try {
+			return keyStore.getCertificateChain(alias);
+		} catch (Exception e) {
+			log.error("Failed to decode certificate chain for [" + alias + "] from " + keyStore.getPackFile(), e);
+			return null;
+		}
+	}
+
+	@Override
+	public PrivateKey getPrivateKey(String alias) {
+
+		try {
+			return keyStore.getPrivateKey(alias);
+		} catch (Exception e) {
+			log.error("Failed to decode private key for [" + alias + "] from " + keyStore.getPackFile(), e);
+			return null;
+		}
+	}
+
+	static String[] toArray(List<String> aliases) {
+		return (aliases.isEmpty() ? null : aliases.toArray(new String[aliases.size()]));
+	}
+
+	public LazyKeyStore getKeyStore() { return keyStore; }
+	/** Null or the alias used for client authentication. */
+	public String getClientAlias() { return clientAlias; }
+
+}
@@ -0,0 +1,763 @@
+package com.descartes.restlet.clientcert;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.DigestInputStream;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.net.ssl.KeyManager;
+import javax.security.auth.x500.X500Principal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A key-store for very large amounts of keys (e.g. one key per tenant) that keeps only an index on the heap.
+ * <br>The key and certificate entries of a (PKCS12) key-store are converted once to a key pack file next to the key-store
+ * or in a configured directory (see {@link #open(URL, Path, char[], String, int)}), readable by the owner only. The key pack file is memory-mapped: the index of aliases and certificate
+ * metadata (key algorithm, issuers, subject names) is read at startup, certificate chains and private keys are decoded
+ * when used. Decoded keys are kept in a least recently used cache, so heap use depends on the amount of active keys
+ * instead of the total amount of keys and startup does not decode every key.
+ * <br>Private keys in the key pack are encrypted (AES-GCM with a key derived from the key-store password),
+ * certificates are not encrypted. Use with {@link LazyKeyManager}, see {@link #createKeyManagers(String)}.
+ * <br>Note that on Windows a memory-mapped file cannot be replaced while it is in use:
+ * a new key pack file is written when the key-store is modified and no key pack is open.
+ */
+public class LazyKeyStore {
+
+	private static final Logger log = LoggerFactory.getLogger(LazyKeyStore.class);
+
+	public static final int DEFAULT_CACHE_SIZE = 1000;
+	/** File name suffix for the key pack file that is created next to a key-store file. */
+	public static final String KEY_PACK_SUFFIX = ".keys";
+
+	/** "LKP2" */
+	static final int MAGIC = 0x4C4B5032;
+	static final String STORE_DIGEST_ALGORITHM = "SHA-256";
+	static final int KEY_DERIVATION_ITERATIONS = 65536;
+	static final String KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA256";
+	static final String CIPHER = "AES/GCM/NoPadding";
+	static final int IV_LENGTH = 12;
+	static final int TAG_BITS = 128;
+	static final byte[] CHECK_AAD = "key pack".getBytes(StandardCharsets.UTF_8);
+
+	private final Path packFile;
+	private final long storeLength;
+	private final ByteBuffer data;
+	private final int dataOffset;
+	private final SecretKey secretKey;
+	private final Map<String, Entry> entries;
+	/** Entries (in key-store order) by key type, e.g. {@code EC} and {@code EC_RSA}. */
+	private final Map<String, List<Entry>> entriesByKeyType;
+	private final Map<String, String> aliasByName;
+	private final Map<String, KeyStore.PrivateKeyEntry> cache;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Opens a key pack file written by {@link #write(KeyStore, char[], Path)}.
+	 * @param storePwd the password used to write the key pack.
+	 * @param cacheSize maximum amount of decoded private keys to keep.
+	 * @throws UnrecoverableKeyException if the password is wrong.
+	 */
+	public LazyKeyStore(Path packFile, char[] storePwd, final int cacheSize) throws Exception {
+		super();
+		this.packFile = packFile;
+		try (FileChannel channel = FileChannel.open(packFile, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Key pack file [" + packFile + "] is too large: " + channel.size() + " bytes.");
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+			data = mapped.asReadOnlyBuffer();
+		}
+		ByteBuffer indexBuffer = data.duplicate();
+		DataInputStream in = new DataInputStream(new ByteBufferInputStream(indexBuffer));
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a key pack file: [" + packFile + "]");
+		}
+		storeLength = in.readLong();
+		// The key-store digest is checked by open.
+		readBytes(in);
+		byte[] salt = readBytes(in);
+		int iterations = in.readInt();
+		secretKey = deriveKey(storePwd, salt, iterations);
+		try {
+			decrypt(readBytes(in), CHECK_AAD);
+		} catch (AEADBadTagException e) {
+			throw new UnrecoverableKeyException("Wrong password for key pack file [" + packFile + "]");
+		}
+		int count = in.readInt();
+		Map<String, Entry> entries = new LinkedHashMap<String, Entry>(count * 4 / 3 + 1);
+		Map<String, String> aliasByName = new HashMap<String, String>(count * 4 / 3 + 1);
+		// Issuers and algorithms are shared by many entries.
+		Map<String, String> shared = new HashMap<String, String>();
+		for (int i = 0; i < count; i++) {
+			String alias = in.readUTF();
+			String keyAlgorithm = share(shared, in.readUTF());
+			String signatureKeyAlgorithm = share(shared, in.readUTF());
+			String[] issuers = new String[in.readUnsignedByte()];
+			for (int j = 0; j < issuers.length; j++) {
+				issuers[j] = share(shared, in.readUTF());
+			}
+			int names = in.readUnsignedByte();
+			for (int j = 0; j < names; j++) {
+				String name = in.readUTF();
+				if (!aliasByName.containsKey(name)) {
+					aliasByName.put(name, alias);
+				}
+			}
+			entries.put(alias, new Entry(alias, keyAlgorithm, signatureKeyAlgorithm, issuers, in.readInt(), in.readInt(), in.readInt()));
+		}
+		dataOffset = indexBuffer.position();
+		this.entries = Collections.unmodifiableMap(entries);
+		// A handshake without a matching SNI host name uses the first entry for the key type, without scanning all entries.
+		entriesByKeyType = new HashMap<String, List<Entry>>();
+		for (Entry entry : entries.values()) {
+			addByKeyType(entry.keyAlgorithm, entry);
+			addByKeyType(entry.keyAlgorithm + "_" + entry.signatureKeyAlgorithm, entry);
+		}
+		this.aliasByName = aliasByName;
+		cache = new LinkedHashMap<String, KeyStore.PrivateKeyEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override protected boolean removeEldestEntry(Map.Entry<String, KeyStore.PrivateKeyEntry> eldest) {
+				return size() > cacheSize;
+			}
+		};
+		log.info("Opened key pack [" + packFile.getFileName() + "] with " + count + " keys.");
+	}
+
+	/**
+	 * Opens the key pack next to the key-store file, see {@link #open(URL, Path, char[], String, int)}.
+	 */
+	public static LazyKeyStore open(Path storeFile, char[] storePwd, String storeType, int cacheSize) throws Exception {
+		return open(storeFile.toUri().toURL(), getPackFile(storeFile, null), storePwd, storeType, cacheSize);
+	}
+
+	/**
+	 * Opens the key pack for the key-store, the key pack is (re)created when it does not exist,
+	 * was written for a key-store with another size or SHA-256 digest (file timestamps are not used)
+	 * or was written with another password. Creating the key pack decodes all keys once.
+	 * @param storeUrl the key-store, e.g. a file or a resource in a jar.
+	 * @param packFile the key pack file, must be in a writable directory.
+	 * @param storeType null for PKCS12.
+	 */
+	public static LazyKeyStore open(URL storeUrl, Path packFile, char[] storePwd, String storeType, int cacheSize) throws Exception {
+
+		MessageDigest md = MessageDigest.getInstance(STORE_DIGEST_ALGORITHM);
+		CountingOutputStream counter = new CountingOutputStream();
+		try (InputStream in = new DigestInputStream(storeUrl.openStream(), md)) {
+			IoUtils.copy(in, counter);
+		}
+		byte[] digest = md.digest();
+		if (Files.exists(packFile)) {
+			String stale = null;
+			LazyKeyStore keyStore = null;
+			try {
+				// Checked before the key pack is mapped, a mapped file cannot be replaced on Windows.
+				if (!isPackFor(packFile, counter.count, digest)) {
+					stale = "the key-store changed";
+				} else {
+					keyStore = new LazyKeyStore(packFile, storePwd, cacheSize);
+				}
+			} catch (UnrecoverableKeyException e) {
+				stale = "the password changed";
+			} catch (IOException e) {
+				stale = e.toString();
+			}
+			if (stale == null) {
+				return keyStore;
+			}
+			log.info("Replacing key pack [" + packFile + "]: " + stale + ".");
+		}
+		long start = System.currentTimeMillis();
+		KeyStore keyStore = null;
+		try (InputStream in = storeUrl.openStream()) {
+			keyStore = SslUtils.loadStore(in, storePwd, storeType == null ? "pkcs12" : storeType);
+		}
+		write(keyStore, storePwd, packFile, counter.count, digest);
+		log.info("Created key pack [" + packFile + "] with " + keyStore.size() + " entries from ["
+				+ storeUrl + "] in " + (System.currentTimeMillis() - start) + " ms.");
+		return new LazyKeyStore(packFile, storePwd, cacheSize);
+	}
+
+	/**
+	 * @return true if the key pack file was written for a key-store file with the size and digest.
+	 */
+	static boolean isPackFor(Path packFile, long storeLength, byte[] storeDigest) throws IOException {
+
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(packFile))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a key pack file: [" + packFile + "]");
+			}
+			return (in.readLong() == storeLength && MessageDigest.isEqual(readBytes(in), storeDigest));
+		}
+	}
+
+	/**
+	 * @param packDir null for the directory of the key-store file.
+	 * @return the key pack file for the key-store file.
+	 */
+	public static Path getPackFile(Path storeFile, Path packDir) {
+
+		String name = storeFile.getFileName() + KEY_PACK_SUFFIX;
+		return (packDir == null ? storeFile.resolveSibling(name) : packDir.resolve(name));
+	}
+
+	/**
+	 * Writes the private key entries of the key-store to a key pack file (replacing an existing file)
+	 * without the size and digest of the key-store file: {@link #open(URL, Path, char[], String, int)} replaces this key pack.
+	 */
+	public static void write(KeyStore keyStore, char[] storePwd, Path packFile) throws Exception {
+		write(keyStore, storePwd, packFile, -1L, new byte[0]);
+	}
+
+	/**
+	 * Writes the private key entries of the key-store to a key pack file (replacing an existing file).
+	 * Trusted certificate entries are not written.
+	 * @param storePwd the password for the private keys in the key-store, also used to encrypt the private keys in the key pack.
+	 * @param storeLength the size of the key-store file.
+	 * @param storeDigest the SHA-256 digest of the key-store file.
+	 */
+	public static void write(KeyStore keyStore, char[] storePwd, Path packFile, long storeLength, byte[] storeDigest) throws Exception {
+
+		SecureRandom random = new SecureRandom();
+		byte[] salt = new byte[16];
+		random.nextBytes(salt);
+		SecretKey secretKey = deriveKey(storePwd, salt, KEY_DERIVATION_ITERATIONS);
+		ByteArrayOutputStream index = new ByteArrayOutputStream();
+		DataOutputStream indexOut = new DataOutputStream(index);
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		DataOutputStream encodedOut = new DataOutputStream(encoded);
+		int count = 0;
+		Enumeration<String> aliases = keyStore.aliases();
+		while (aliases.hasMoreElements()) {
+			String alias = aliases.nextElement();
+			if (!keyStore.isKeyEntry(alias)) {
+				continue;
+			}
+			Key key = keyStore.getKey(alias, storePwd);
+			Certificate[] chain = keyStore.getCertificateChain(alias);
+			if (!(key instanceof PrivateKey) || chain == null || chain.length == 0 || !(chain[0] instanceof X509Certificate)) {
+				log.warn("Skipping key-store entry [" + alias + "]: not a private key with a X.509 certificate chain.");
+				continue;
+			}
+			X509Certificate cert = (X509Certificate) chain[0];
+			indexOut.writeUTF(alias);
+			indexOut.writeUTF(key.getAlgorithm());
+			indexOut.writeUTF(getSignatureKeyAlgorithm(cert));
+			indexOut.writeByte(chain.length);
+			for (Certificate c : chain) {
+				indexOut.writeUTF(((X509Certificate) c).getIssuerX500Principal().getName(X500Principal.CANONICAL));
+			}
+			List<String> names = getNames(cert);
+			indexOut.writeByte(names.size());
+			for (String name : names) {
+				indexOut.writeUTF(name);
+			}
+			int chainOffset = encodedOut.size();
+			encodedOut.writeByte(chain.length);
+			for (Certificate c : chain) {
+				byte[] certEncoded = c.getEncoded();
+				encodedOut.writeInt(certEncoded.length);
+				encodedOut.write(certEncoded);
+			}
+			int chainLength = encodedOut.size() - chainOffset;
+			byte[] keyEncoded = key.getEncoded();
+			byte[] keyEncrypted = encrypt(secretKey, random, keyEncoded, alias.getBytes(StandardCharsets.UTF_8));
+			Arrays.fill(keyEncoded, (byte) 0);
+			encodedOut.write(keyEncrypted);
+			indexOut.writeInt(chainOffset);
+			indexOut.writeInt(chainLength);
+			indexOut.writeInt(keyEncrypted.length);
+			count++;
+		}
+		Path tmpFile = packFile.resolveSibling(packFile.getFileName() + ".tmp");
+		Files.deleteIfExists(tmpFile);
+		// The certificates are not encrypted, only the owner can read the key pack.
+		if (tmpFile.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			Files.createFile(tmpFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} else {
+			Files.createFile(tmpFile);
+		}
+		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmpFile))) {
+			out.writeInt(MAGIC);
+			out.writeLong(storeLength);
+			writeBytes(out, storeDigest);
+			writeBytes(out, salt);
+			out.writeInt(KEY_DERIVATION_ITERATIONS);
+			writeBytes(out, encrypt(secretKey, random, new byte[0], CHECK_AAD));
+			out.writeInt(count);
+			index.writeTo(out);
+			encoded.writeTo(out);
+		}
+		Files.move(tmpFile, packFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return the last certificate (root CA) in the chain of the first entry with a chain of at least 2 certificates, or null.
+	 * Only the chain of that entry is decoded.
+	 */
+	public X509Certificate getRootCertificate() throws Exception {
+
+		for (Entry entry : entries.values()) {
+			if (entry.issuers.length > 1) {
+				X509Certificate[] chain = decodeChain(entry);
+				return chain[chain.length - 1];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return a key manager for the keys in this key-store.
+	 * @param clientAlias the alias to use for client authentication, null to use the first alias that matches the server's request.
+	 */
+	public KeyManager[] createKeyManagers(String clientAlias) {
+		return new KeyManager[] { new LazyKeyManager(this, clientAlias) };
+	}
+
+	/**
+	 * @return the private key (decoded or from cache) or null if there is no entry for the alias.
+	 */
+	public PrivateKey getPrivateKey(String alias) throws Exception {
+
+		KeyStore.PrivateKeyEntry keyEntry = getKeyEntry(alias);
+		return (keyEntry == null ? null : keyEntry.getPrivateKey());
+	}
+
+	/**
+	 * @return the certificate chain (from cache or decoded, not cached) or null if there is no entry for the alias.
+	 */
+	public X509Certificate[] getCertificateChain(String alias) throws Exception {
+
+		KeyStore.PrivateKeyEntry keyEntry = null;
+		synchronized (cache) {
+			keyEntry = cache.get(alias);
+		}
+		if (keyEntry != null) {
+			return (X509Certificate[]) keyEntry.getCertificateChain();
+		}
+		Entry entry = entries.get(alias);
+		return (entry == null ? null : decodeChain(entry));
+	}
+
+	/**
+	 * @return the decoded private key and certificate chain (from cache) or null if there is no entry for the alias.
+	 */
+	public KeyStore.PrivateKeyEntry getKeyEntry(String alias) throws Exception {
+
+		KeyStore.PrivateKeyEntry keyEntry = null;
+		synchronized (cache) {
+			keyEntry = cache.get(alias);
+		}
+		if (keyEntry != null) {
+			hits.incrementAndGet();
+			return keyEntry;
+		}
+		Entry entry = entries.get(alias);
+		if (entry == null) {
+			return null;
+		}
+		misses.incrementAndGet();
+		// Decoded outside the lock, at worst decoded twice.
+		keyEntry = new KeyStore.PrivateKeyEntry(decodeKey(entry), decodeChain(entry));
+		synchronized (cache) {
+			cache.put(alias, keyEntry);
+		}
+		return keyEntry;
+	}
+
+	/**
+	 * @param keyType a key type as used by {@link javax.net.ssl.X509KeyManager}, e.g. {@code EC} or {@code EC_RSA}
+	 * (EC key in a certificate signed with a RSA key).
+	 * @param issuers null or the accepted issuers of the certificate chain.
+	 * @return the aliases (in key-store order) of the entries that match.
+	 */
+	public List<String> getAliases(String keyType, Principal[] issuers) {
+
+		List<String> aliases = new ArrayList<String>();
+		Collection<String> issuerNames = getIssuerNames(issuers);
+		for (Entry entry : getEntries(keyType)) {
+			if (entry.matchesIssuer(issuerNames)) {
+				aliases.add(entry.alias);
+			}
+		}
+		return aliases;
+	}
+
+	/**
+	 * @return the first alias (in key-store order) that matches, or null.
+	 * Without issuers, this does not look at entries other than the first one for the key type.
+	 */
+	public String chooseAlias(String keyType, Principal[] issuers) {
+
+		Collection<String> issuerNames = getIssuerNames(issuers);
+		for (Entry entry : getEntries(keyType)) {
+			if (entry.matchesIssuer(issuerNames)) {
+				return entry.alias;
+			}
+		}
+		return null;
+	}
+
+	List<Entry> getEntries(String keyType) {
+
+		List<Entry> keyTypeEntries = entriesByKeyType.get(keyType);
+		return (keyTypeEntries == null ? Collections.<Entry>emptyList() : keyTypeEntries);
+	}
+
+	void addByKeyType(String keyType, Entry entry) {
+
+		List<Entry> keyTypeEntries = entriesByKeyType.get(keyType);
+		if (keyTypeEntries == null) {
+			keyTypeEntries = new ArrayList<Entry>();
+			entriesByKeyType.put(keyType, keyTypeEntries);
+		}
+		keyTypeEntries.add(entry);
+	}
+
+	/**
+	 * @return true if there is an entry for the alias that matches.
+	 */
+	public boolean matches(String alias, String keyType, Principal[] issuers) {
+
+		Entry entry = (alias == null ? null : entries.get(alias));
+		return (entry != null && entry.matches(keyType, getIssuerNames(issuers)));
+	}
+
+	/**
+	 * @param name a host name or email-address (case-insensitive) in a certificate subject or subject alternative names.
+	 * @return null or the alias of the first entry with a certificate for the name.
+	 */
+	public String getAliasForName(String name) {
+		return (name == null ? null : aliasByName.get(name.toLowerCase(Locale.ROOT)));
+	}
+
+	static Collection<String> getIssuerNames(Principal[] issuers) {
+
+		if (issuers == null || issuers.length == 0) {
+			return null;
+		}
+		List<String> names = new ArrayList<String>(issuers.length);
+		for (Principal issuer : issuers) {
+			if (issuer instanceof X500Principal) {
+				names.add(((X500Principal) issuer).getName(X500Principal.CANONICAL));
+			} else if (issuer != null) {
+				names.add(new X500Principal(issuer.getName()).getName(X500Principal.CANONICAL));
+			}
+		}
+		return names;
+	}
+
+	protected PrivateKey decodeKey(Entry entry) throws Exception {
+
+		byte[] encrypted = new byte[entry.keyLength];
+		read(entry.chainOffset + entry.chainLength, encrypted);
+		byte[] encoded = decrypt(encrypted, entry.alias.getBytes(StandardCharsets.UTF_8));
+		try {
+			return KeyFactory.getInstance(entry.keyAlgorithm).generatePrivate(new PKCS8EncodedKeySpec(encoded));
+		} finally {
+			Arrays.fill(encoded, (byte) 0);
+		}
+	}
+
+	protected X509Certificate[] decodeChain(Entry entry) throws Exception {
+
+		byte[] encoded = new byte[entry.chainLength];
+		read(entry.chainOffset, encoded);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+		CertificateFactory cf = CertificateFactory.getInstance("X.509");
+		X509Certificate[] chain = new X509Certificate[in.readUnsignedByte()];
+		for (int i = 0; i < chain.length; i++) {
+			byte[] certEncoded = new byte[in.readInt()];
+			in.readFully(certEncoded);
+			chain[i] = (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(certEncoded));
+		}
+		return chain;
+	}
+
+	void read(int offset, byte[] bytes) {
+
+		ByteBuffer buffer = data.duplicate();
+		buffer.position(dataOffset + offset);
+		buffer.get(bytes);
+	}
+
+	byte[] decrypt(byte[] encrypted, byte[] aad) throws Exception {
+
+		Cipher cipher = Cipher.getInstance(CIPHER);
+		cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(TAG_BITS, encrypted, 0, IV_LENGTH));
+		cipher.updateAAD(aad);
+		return cipher.doFinal(encrypted, IV_LENGTH, encrypted.length - IV_LENGTH);
+	}
+
+	static byte[] encrypt(SecretKey secretKey, SecureRandom random, byte[] plain, byte[] aad) throws Exception {
+
+		byte[] iv = new byte[IV_LENGTH];
+		random.nextBytes(iv);
+		Cipher cipher = Cipher.getInstance(CIPHER);
+		cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(TAG_BITS, iv));
+		cipher.updateAAD(aad);
+		byte[] encrypted = cipher.doFinal(plain);
+		byte[] ivEncrypted = Arrays.copyOf(iv, IV_LENGTH + encrypted.length);
+		System.arraycopy(encrypted, 0, ivEncrypted, IV_LENGTH, encrypted.length);
+		return ivEncrypted;
+	}
+
+	static SecretKey deriveKey(char[] storePwd, byte[] salt, int iterations) throws Exception {
+
+		PBEKeySpec spec = new PBEKeySpec(storePwd == null ? new char[0] : storePwd, salt, iterations, 256);
+		try {
+			byte[] key = SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM).generateSecret(spec).getEncoded();
+			return new SecretKeySpec(key, "AES");
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	/**
+	 * @return the key algorithm of the certificate's issuer (e.g. {@code RSA} for {@code SHA256withRSA}).
+	 */
+	static String getSignatureKeyAlgorithm(X509Certificate cert) {
+
+		String sigAlg = cert.getSigAlgName().toUpperCase(Locale.ROOT);
+		if (sigAlg.contains("WITHECDSA")) {
+			return "EC";
+		} else if (sigAlg.contains("WITHRSA") || sigAlg.equals("RSASSA-PSS")) {
+			return "RSA";
+		} else if (sigAlg.contains("WITHDSA")) {
+			return "DSA";
+		}
+		return sigAlg;
+	}
+
+	/**
+	 * @return the (lower-case) email-address and common name in the subject and the DNS names and email-addresses
+	 * in the subject alternative names of the certificate.
+	 */
+	static List<String> getNames(X509Certificate cert) throws Exception {
+
+		List<String> names = new ArrayList<String>();
+		String email = SslUtils.getClientEmailAddress(cert);
+		if (email != null) {
+			names.add(email.toLowerCase(Locale.ROOT));
+		}
+		String subject = cert.getSubjectX500Principal().getName(X500Principal.RFC2253);
+		int i = subject.indexOf("CN=");
+		if (i == 0 || (i > 0 && subject.charAt(i - 1) == ',')) {
+			int end = subject.indexOf(',', i);
+			names.add(subject.substring(i + 3, end < 0 ? subject.length() : end).toLowerCase(Locale.ROOT));
+		}
+		Collection<List<?>> altNames = cert.getSubjectAlternativeNames();
+		if (altNames != null) {
+			for (List<?> altName : altNames) {
+				// 1 = rfc822Name, 2 = dNSName
+				Object type = altName.get(0);
+				if ((Integer.valueOf(1).equals(type) || Integer.valueOf(2).equals(type)) && altName.get(1) instanceof String) {
+					String name = ((String) altName.get(1)).toLowerCase(Locale.ROOT);
+					if (!names.contains(name)) {
+						names.add(name);
+					}
+				}
+			}
+		}
+		return (names.size() > 255 ? names.subList(0, 255) : names);
+	}
+
+	static String share(Map<String, String> shared, String value) {
+
+		String existing = shared.get(value);
+		if (existing == null) {
+			shared.put(value, value);
+			existing = value;
+		}
+		return existing;
+	}
+
+	static byte[] readBytes(DataInputStream in) throws IOException {
+
+		byte[] bytes = new byte[in.readUnsignedShort()];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	public Path getPackFile() { return packFile; }
+	/** Size of the key-store file the key pack was written for, -1 if unknown. */
+	public long getStoreLength() { return storeLength; }
+	/** Amount of keys in the key pack. */
+	public int size() { return entries.size(); }
+	/** All aliases in key-store order. */
+	public Collection<String> getAliases() { return entries.keySet(); }
+	/** Amount of decoded keys in the cache. */
+	public int getCachedKeys() { synchronized (cache) { return cache.size(); } }
+	public long getCacheHits() { return hits.get(); }
+	public long getCacheMisses() { return misses.get(); }
+
+	@Override
+	public String toString() {
+		return "Key pack " + packFile.getFileName() + " with " + entries.size() + " keys, " + getCachedKeys() + " cached, "
+				+ hits.get() + " cache hits, " + misses.get() + " cache misses";
+	}
+
+	/**
+	 * Index entry: certificate metadata and the location of the encoded certificate chain and encrypted private key.
+	 */
+	static class Entry {
+
+		final String alias;
+		final String keyAlgorithm;
+		final String signatureKeyAlgorithm;
+		/** Canonical names of the issuers of all certificates in the chain. */
+		final String[] issuers;
+		final int chainOffset;
+		final int chainLength;
+		final int keyLength;
+
+		Entry(String alias, String keyAlgorithm, String signatureKeyAlgorithm, String[] issuers,
+				int chainOffset, int chainLength, int keyLength) {
+			super();
+			this.alias = alias;
+			this.keyAlgorithm = keyAlgorithm;
+			this.signatureKeyAlgorithm = signatureKeyAlgorithm;
+			this.issuers = issuers;
+			this.chainOffset = chainOffset;
+			this.chainLength = chainLength;
+			this.keyLength = keyLength;
+		}
+
+		/**
+		 * Same as the JSSE's SunX509 key manager: the key algorithm must match the key type
+		 * and one of the certificates in the chain must be issued by one of the issuers.
+		 * @param issuerNames null to accept any issuer.
+		 */
+		boolean matches(String keyType, Collection<String> issuerNames) {
+
+			int i = keyType.indexOf('_');
+			if (i < 0) {
+				if (!keyType.equals(keyAlgorithm)) {
+					return false;
+				}
+			} else if (!keyType.substring(0, i).equals(keyAlgorithm) || !keyType.substring(i + 1).equals(signatureKeyAlgorithm)) {
+				return false;
+			}
+			return matchesIssuer(issuerNames);
+		}
+
+		/**
+		 * @param issuerNames null to accept any issuer.
+		 */
+		boolean matchesIssuer(Collection<String> issuerNames) {
+
+			if (issuerNames == null) {
+				return true;
+			}
+			for (String issuer : issuers) {
+				if (issuerNames.contains(issuer)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Counts the bytes written and discards them.
+	 */
+	static class CountingOutputStream extends OutputStream {
+
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	/**
+	 * Reads from a byte buffer, moving the position of the buffer.
+	 */
+	static class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			super();
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return (buffer.hasRemaining() ? buffer.get() & 0xFF : -1);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int read = Math.min(len, buffer.remaining());
+			buffer.get(b, off, read);
+			return read;
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+package com.descartes.restlet.clientcert;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.KeyStore.LoadStoreParameter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.X509KeyManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares loading a key-store with many client keys (one per tenant) via a key manager factory
+ * with loading the same key-store as {@link LazyKeyStore}: load time, retained heap and the time to get keys
+ * for a smaller set of active tenants.
+ * <br>Configured with the system properties (defaults between brackets):
+ * <br>{@code lazy.keys} (2000) amount of client keys in the key-store
+ * <br>{@code lazy.keyType} (EC:secp256r1) key type of the client keys
+ * <br>{@code lazy.active} (100) amount of active tenants
+ * <br>{@code lazy.cacheSize} (active tenants) maximum amount of decoded keys in the lazy key-store
+ * <br>{@code lazy.requests} (100000) amount of (random) key lookups for active tenants
+ */
+public class LazyKeyStoreMain {
+
+	static {
+		Constants.configureLogging();
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(LazyKeyStoreMain.class);
+
+	public static void main(String[] args) {
+
+		try {
+			new LazyKeyStoreMain().run();
+		} catch (Exception e) {
+			log.error("Failed to compare key-stores.", e);
+		}
+	}
+
+	public void run() throws Exception {
+
+		int amount = Integer.getInteger("lazy.keys", 2000);
+		String keyType = System.getProperty("lazy.keyType", "EC:secp256r1");
+		int active = Math.min(amount, Integer.getInteger("lazy.active", 100));
+		int cacheSize = Integer.getInteger("lazy.cacheSize", active);
+		int requests = Integer.getInteger("lazy.requests", 100000);
+
+		Path dir = Files.createTempDirectory("lazy-key-store");
+		Path storeFile = dir.resolve("tenants.pfx");
+		try {
+			long start = System.currentTimeMillis();
+			List<String> aliases = createKeyStore(storeFile, amount, keyType);
+			log.info("Created key-store with " + amount + " " + keyType + " keys in " + (System.currentTimeMillis() - start)
+					+ " ms, file size " + Files.size(storeFile) / 1024L + " kB.");
+
+			long heap = usedHeap();
+			start = System.currentTimeMillis();
+			KeyManager[] kms = SslUtils.loadKeyStore(storeFile, Constants.CERT_TEST_PWD).getKeyManagers();
+			long duration = System.currentTimeMillis() - start;
+			log.info("Key manager factory: loaded in " + duration + " ms, retains " + (usedHeap() - heap) / 1024L + " kB heap.");
+			lookups((X509KeyManager) kms[0], aliases, active, requests);
+			kms = null;
+
+			start = System.currentTimeMillis();
+			LazyKeyStore.open(storeFile, Constants.CERT_TEST_PWD, null, cacheSize);
+			log.info("Lazy key-store: converted in " + (System.currentTimeMillis() - start) + " ms (once), key pack file size "
+					+ Files.size(storeFile.resolveSibling(storeFile.getFileName() + LazyKeyStore.KEY_PACK_SUFFIX)) / 1024L + " kB.");
+			heap = usedHeap();
+			start = System.currentTimeMillis();
+			LazyKeyStore keyStore = LazyKeyStore.open(storeFile, Constants.CERT_TEST_PWD, null, cacheSize);
+			duration = System.currentTimeMillis() - start;
+			log.info("Lazy key-store: opened in " + duration + " ms, retains " + (usedHeap() - heap) / 1024L + " kB heap.");
+			lookups((X509KeyManager) keyStore.createKeyManagers(null)[0], aliases, active, requests);
+			log.info("Lazy key-store: retains " + (usedHeap() - heap) / 1024L + " kB heap with " + active + " active tenants. " + keyStore);
+		} finally {
+			for (Path file : Files.newDirectoryStream(dir)) {
+				Files.delete(file);
+			}
+			Files.delete(dir);
+		}
+	}
+
+	/**
+	 * Gets the key and certificate chain for random active tenants, like a client or server does for each full handshake.
+	 */
+	void lookups(X509KeyManager km, List<String> aliases, int active, int requests) {
+
+		Random random = new Random(1L);
+		long start = System.nanoTime();
+		for (int i = 0; i < requests; i++) {
+			String alias = aliases.get(random.nextInt(active));
+			if (km.getPrivateKey(alias) == null || km.getCertificateChain(alias) == null) {
+				throw new IllegalStateException("No key for " + alias);
+			}
+		}
+		long duration = System.nanoTime() - start;
+		log.info(requests + " key lookups for " + active + " active tenants in " + duration / 1000000L + " ms"
+				+ (requests > 0 ? " (" + duration / 1000L / requests + " us per lookup)." : "."));
+	}
+
+	List<String> createKeyStore(Path storeFile, int amount, String keyType) throws Exception {
+
+		TestCertificateAuthority root = TestCertificateAuthority.createRoot("CN=Test Root CA, O=Restlet Client Cert", keyType);
+		List<TestCertificateAuthority.IssuedCertificate> clients = root.issueClients(amount, "example.com", keyType,
+				Runtime.getRuntime().availableProcessors());
+		KeyStore ks = KeyStore.getInstance("pkcs12");
+		ks.load((LoadStoreParameter) null);
+		List<String> aliases = new ArrayList<String>(amount);
+		for (TestCertificateAuthority.IssuedCertificate client : clients) {
+			ks.setKeyEntry(client.getAlias(), client.getKey(), Constants.CERT_TEST_PWD, client.getChain());
+			aliases.add(client.getAlias());
+		}
+		try (OutputStream out = Files.newOutputStream(storeFile)) {
+			ks.store(out, Constants.CERT_TEST_PWD);
+		}
+		return aliases;
+	}
+
+	static long usedHeap() throws InterruptedException {
+
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(50L);
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.descartes.restlet.clientcert;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A consistent hash ring: each key is mapped to a preferred node and a fixed order of fallback nodes.
+ * Adding or removing a node only moves the keys of that node, all other keys keep their preferred node.
+ * <br>Each node is placed on the ring a number of times (virtual nodes) to spread the keys evenly.
+ * <br>Instances are immutable and thread-safe.
+ */
+public class NodeRing<T> {
+
+	public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+	private final List<T> nodes;
+	private final TreeMap<Long, T> ring = new TreeMap<Long, T>();
+
+	/**
+	 * @param nodes nodes with a unique {@code toString()} value that is used to place the node on the ring.
+	 */
+	public NodeRing(List<T> nodes, int virtualNodes) {
+		super();
+		if (nodes.isEmpty()) {
+			throw new IllegalArgumentException("At least one node is required.");
+		}
+		this.nodes = Collections.unmodifiableList(new ArrayList<T>(nodes));
+		for (T node : nodes) {
+			for (int i = 0; i < virtualNodes; i++) {
+				ring.put(hash(node + "#" + i), node);
+			}
+		}
+	}
+
+	/**
+	 * @return all nodes in order of preference for the key.
+	 */
+	public List<T> getPreference(String key) {
+
+		List<T> preference = new ArrayList<T>(nodes.size());
+		long hash = hash(key);
+		addDistinct(preference, ring.tailMap(hash));
+		addDistinct(preference, ring.headMap(hash));
+		return preference;
+	}
+
+	/**
+	 * @return the preferred node for the key.
+	 */
+	public T get(String key) {
+
+		Map.Entry<Long, T> entry = ring.ceilingEntry(hash(key));
+		return (entry == null ? ring.firstEntry().getValue() : entry.getValue());
+	}
+
+	void addDistinct(List<T> preference, SortedMap<Long, T> part) {
+
+		for (T node : part.values()) {
+			if (preference.size() == nodes.size()) {
+				return;
+			}
+			if (!preference.contains(node)) {
+				preference.add(node);
+			}
+		}
+	}
+
+	/**
+	 * @return the first 8 bytes of the MD5 hash (used for distribution, not for security).
+	 */
+	static long hash(String key) {
+
+		byte[] digest = null;
+		try {
+			digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		long hash = 0L;
+		for (int i = 0; i < 8; i++) {
+			hash = (hash << 8) | (digest[i] & 0xFF);
+		}
+		return hash;
+	}
+
+	public List<T> getNodes() { return nodes; }
+
+}
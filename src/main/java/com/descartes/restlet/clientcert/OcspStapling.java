@@ -0,0 +1,473 @@
+package com.descartes.restlet.clientcert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.X509KeyManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * OCSP stapling for server certificates: the server sends the OCSP response for its certificate
+ * in the TLS handshake so that clients checking revocation do not have to contact the OCSP responder themselves.
+ * <br>OCSP responses are fetched in the background and kept in a cache keyed by certificate.
+ * The first response for a certificate is fetched right after {@link #register(SSLContext, KeyManager[])}
+ * and stapled once it is available, an unreachable responder does not delay the server start.
+ * A response is refreshed halfway between the time it was fetched and its nextUpdate time
+ * (but at least every {@link #getMaxRefreshMs()}), a failed fetch is retried after {@link #getRetryMs()}
+ * while the previous response is used until its nextUpdate time.
+ * <br>The SunJSSE has its own stapling support which fetches responses during the handshake.
+ * {@link #enableServerStapling()} turns this on with a response timeout of 0 so that handshakes never wait for a fetch,
+ * and {@link JsseOcspInstaller} puts the pre-fetched responses from this cache in the SunJSSE response cache.
+ * <br>The OCSP responder is the configured responder or, if none is configured,
+ * the responder in the authority information access extension of the certificate.
+ */
+public class OcspStapling {
+
+	private static final Logger log = LoggerFactory.getLogger(OcspStapling.class);
+
+	static final String OID_SHA1 = "1.3.14.3.2.26";
+	static final String OID_AUTHORITY_INFO_ACCESS = "1.3.6.1.5.5.7.1.1";
+	static final String OID_OCSP = "1.3.6.1.5.5.7.48.1";
+
+	private final URL responder;
+	private final Map<X509Certificate, Entry> responses = new ConcurrentHashMap<X509Certificate, Entry>();
+	private final List<SSLContext> contexts = new CopyOnWriteArrayList<SSLContext>();
+	private final Set<KeyManager> keyManagers = Collections.newSetFromMap(new ConcurrentHashMap<KeyManager, Boolean>());
+	private ScheduledExecutorService refresher;
+	private boolean started;
+	private int connectTimeoutMs = 5000;
+	private int readTimeoutMs = 10000;
+	private long retryMs = 30000L;
+	private long maxRefreshMs = 3600L * 1000L;
+	private long reinstallMs = 60000L;
+
+	/**
+	 * @param responder the URL of the OCSP responder, null to use the responder in the certificate.
+	 */
+	public OcspStapling(URL responder) {
+		super();
+		this.responder = responder;
+	}
+
+	/**
+	 * Enables stapling in the SunJSSE for server SSL contexts created after this call,
+	 * with a response timeout of 0 (the SunJSSE does not fetch responses) and no expiry of cached responses
+	 * other than the nextUpdate time of a response. System properties that are already set are not changed.
+	 */
+	public static void enableServerStapling() {
+
+		setPropertyIfAbsent("jdk.tls.server.enableStatusRequestExtension", "true");
+		setPropertyIfAbsent("jdk.tls.stapling.responseTimeout", "0");
+		setPropertyIfAbsent("jdk.tls.stapling.cacheLifetime", "0");
+	}
+
+	static void setPropertyIfAbsent(String name, String value) {
+
+		if (System.getProperty(name) == null) {
+			System.setProperty(name, value);
+		}
+	}
+
+	/**
+	 * Registers a server SSL context (must be initialized): responses already fetched are installed in the SSL context,
+	 * responses for new server certificates in the key-managers are fetched in the background
+	 * (this does not wait for the responder) and installed when available.
+	 * Key-managers that are already registered (e.g. shared by copies of a SSL context factory) are not enumerated again.
+	 * <br>For a {@link LazyKeyManager} only the certificates used without a matching SNI host name
+	 * (the first key per key type) are stapled, so that the chains of all tenant keys are not decoded
+	 * and no OCSP response is fetched per tenant.
+	 * @return false if responses cannot be installed (see {@link JsseOcspInstaller}).
+	 */
+	public boolean register(SSLContext serverContext, KeyManager[] kms) {
+
+		if (!JsseOcspInstaller.isAvailable(serverContext)) {
+			return false;
+		}
+		contexts.add(serverContext);
+
+		for (KeyManager km : kms) {
+			if (!(km instanceof X509KeyManager) || !keyManagers.add(km)) {
+				continue;
+			}
+			X509KeyManager xkm = (X509KeyManager) km;
+			for (String keyType : SslUtils.KEY_TYPES) {
+				String[] aliases = null;
+				if (km instanceof LazyKeyManager) {
+					String alias = ((LazyKeyManager) km).getKeyStore().chooseAlias(keyType, null);
+					aliases = (alias == null ? null : new String[] { alias });
+				} else {
+					aliases = xkm.getServerAliases(keyType, null);
+				}
+				if (aliases == null) {
+					continue;
+				}
+				for (String alias : aliases) {
+					X509Certificate[] chain = xkm.getCertificateChain(alias);
+					if (chain == null || chain.length < 2) {
+						log.warn("No issuer certificate for [" + alias + "], cannot staple OCSP responses for this certificate.");
+					} else if (!responses.containsKey(chain[0])) {
+						Entry entry = new Entry(chain[0], chain[1]);
+						responses.put(chain[0], entry);
+						fetchFirst(entry);
+					}
+				}
+			}
+		}
+		boolean installed = true;
+		for (Entry entry : responses.values()) {
+			installed &= install(serverContext, entry);
+		}
+		return installed;
+	}
+
+	/**
+	 * Stops installing responses in the SSL context, e.g. for a temporary SSL context that is no longer used.
+	 * Responses for the server certificates are still refreshed for the other SSL contexts.
+	 */
+	public void unregister(SSLContext serverContext) {
+		contexts.remove(serverContext);
+	}
+
+	/**
+	 * Fetches the first response for the entry in the background and installs it in all registered SSL contexts.
+	 * Further refreshes are scheduled after {@link #start()}.
+	 */
+	protected synchronized void fetchFirst(final Entry entry) {
+
+		getRefresher().execute(new Runnable() {
+			@Override public void run() {
+				refresh(entry);
+				for (SSLContext ctx : contexts) {
+					install(ctx, entry);
+				}
+				schedule(entry);
+			}
+		});
+	}
+
+	protected synchronized ScheduledExecutorService getRefresher() {
+
+		if (refresher == null) {
+			refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ocsp-stapling-refresher");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return refresher;
+	}
+
+	/**
+	 * Starts refreshing the OCSP responses in the background thread.
+	 */
+	public synchronized void start() {
+
+		if (started) {
+			return;
+		}
+		started = true;
+		for (Entry entry : responses.values()) {
+			if (entry.pending) {
+				entry.pending = false;
+				schedule(entry);
+			}
+		}
+		// The SunJSSE response cache holds soft references, responses may be removed when memory is low.
+		getRefresher().scheduleWithFixedDelay(new Runnable() {
+			@Override public void run() {
+				installAll();
+			}
+		}, reinstallMs, reinstallMs, TimeUnit.MILLISECONDS);
+		log.info("Refreshing OCSP responses for " + responses.size() + " certificate(s) from "
+				+ (responder == null ? "the responders in the certificates." : responder));
+	}
+
+	public synchronized void stop() {
+
+		if (refresher != null) {
+			refresher.shutdownNow();
+			refresher = null;
+		}
+		started = false;
+		// All scheduled refreshes are cancelled, a restart schedules them again.
+		for (Entry entry : responses.values()) {
+			entry.pending = true;
+		}
+	}
+
+	/**
+	 * Schedules the next refresh for the entry, or marks the entry as pending until {@link #start()}.
+	 */
+	protected synchronized void schedule(final Entry entry) {
+
+		if (!started) {
+			entry.pending = true;
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long delay = retryMs;
+		if (entry.isValid(now) && entry.fetched >= entry.lastAttempt) {
+			delay = (entry.nextUpdate > 0L ? Math.min(maxRefreshMs, (entry.nextUpdate - entry.fetched) / 2) : maxRefreshMs);
+		}
+		getRefresher().schedule(new Runnable() {
+			@Override public void run() {
+				refresh(entry);
+				for (SSLContext ctx : contexts) {
+					install(ctx, entry);
+				}
+				schedule(entry);
+			}
+		}, Math.max(1000L, delay), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Fetches the OCSP response for the certificate in the entry and updates the entry.
+	 * On failure the previous response is kept until it expires.
+	 */
+	protected void refresh(Entry entry) {
+
+		long now = System.currentTimeMillis();
+		entry.lastAttempt = now;
+		try {
+			URL url = (responder == null ? getResponderUrl(entry.cert) : responder);
+			if (url == null) {
+				throw new IOException("No OCSP responder configured or found in certificate.");
+			}
+			byte[] response = fetch(url, createRequest(entry.cert, entry.issuer));
+			long nextUpdate = getNextUpdate(response);
+			entry.update(response, now, nextUpdate);
+			if (log.isDebugEnabled()) {
+				log.debug("Fetched OCSP response for " + entry + " from " + url + ", next update "
+						+ (nextUpdate > 0L ? "in " + (nextUpdate - now) + " ms." : "not specified."));
+			}
+		} catch (Exception e) {
+			if (!entry.isValid(now)) {
+				entry.update(null, 0L, 0L);
+			}
+			log.warn("Failed to fetch OCSP response for " + entry + (entry.response == null ? ", no response to staple" : "") + " - " + e);
+		}
+	}
+
+	protected void installAll() {
+
+		for (SSLContext ctx : contexts) {
+			for (Entry entry : responses.values()) {
+				install(ctx, entry);
+			}
+		}
+	}
+
+	protected boolean install(SSLContext ctx, Entry entry) {
+
+		byte[] response = entry.response;
+		if (response == null || !entry.isValid(System.currentTimeMillis())) {
+			return true;
+		}
+		return JsseOcspInstaller.install(ctx, entry.cert, entry.issuer, response);
+	}
+
+	/**
+	 * @return the cached (encoded) OCSP response for the certificate, or null.
+	 */
+	public byte[] getResponse(X509Certificate cert) {
+
+		Entry entry = responses.get(cert);
+		return (entry == null || !entry.isValid(System.currentTimeMillis()) ? null : entry.response);
+	}
+
+	protected byte[] fetch(URL url, byte[] request) throws IOException {
+
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setConnectTimeout(connectTimeoutMs);
+		conn.setReadTimeout(readTimeoutMs);
+		conn.setUseCaches(false);
+		conn.setDoOutput(true);
+		conn.setRequestMethod("POST");
+		conn.setRequestProperty("Content-Type", "application/ocsp-request");
+		conn.setRequestProperty("Accept", "application/ocsp-response");
+		conn.setFixedLengthStreamingMode(request.length);
+		try (OutputStream out = conn.getOutputStream()) {
+			out.write(request);
+		}
+		if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+			throw new IOException("OCSP responder " + url + " returned HTTP status " + conn.getResponseCode());
+		}
+		try (InputStream in = conn.getInputStream()) {
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			IoUtils.copy(in, bout);
+			return bout.toByteArray();
+		}
+	}
+
+	/**
+	 * Creates an OCSP request (RFC 6960 section 4.1) for one certificate, without nonce so that the response can be cached.
+	 */
+	public static byte[] createRequest(X509Certificate cert, X509Certificate issuer) throws Exception {
+		return Der.sequence(Der.sequence(Der.sequence(Der.sequence(createCertId(issuer, cert.getSerialNumber())))));
+	}
+
+	/**
+	 * Creates the CertID (using SHA-1 hashes) that identifies a certificate in OCSP requests and responses.
+	 */
+	static byte[] createCertId(X509Certificate issuer, BigInteger serialNumber) throws Exception {
+
+		// Hash of the public key bit string (without tag, length and unused bits) in the SubjectPublicKeyInfo.
+		byte[] spki = issuer.getPublicKey().getEncoded();
+		int keyOffset = Der.next(spki, Der.contentOffset(spki, 0));
+		byte[] keyBits = Der.content(spki, keyOffset);
+		MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+		byte[] issuerNameHash = sha1.digest(issuer.getSubjectX500Principal().getEncoded());
+		byte[] issuerKeyHash = sha1.digest(Arrays.copyOfRange(keyBits, 1, keyBits.length));
+		return Der.sequence(Der.sequence(Der.oid(OID_SHA1), Der.NULL),
+				Der.octetString(issuerNameHash), Der.octetString(issuerKeyHash), Der.integer(serialNumber));
+	}
+
+	/**
+	 * @return null or the OCSP responder URL from the authority information access extension.
+	 */
+	public static URL getResponderUrl(X509Certificate cert) throws Exception {
+
+		byte[] ext = cert.getExtensionValue(OID_AUTHORITY_INFO_ACCESS);
+		if (ext == null) {
+			return null;
+		}
+		byte[] aia = Der.content(ext, 0);
+		byte[] ocspOid = Der.oid(OID_OCSP);
+		int end = Der.next(aia, 0);
+		for (int p = Der.contentOffset(aia, 0); p < end; p = Der.next(aia, p)) {
+			// AccessDescription: accessMethod OID, accessLocation GeneralName
+			int method = Der.contentOffset(aia, p);
+			int location = Der.next(aia, method);
+			if (Arrays.equals(ocspOid, Der.value(aia, method)) && Der.tag(aia, location) == 0x86) {
+				return new URL(new String(Der.content(aia, location), StandardCharsets.US_ASCII));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the nextUpdate time of the first single response in a successful OCSP response (RFC 6960 section 4.2.1).
+	 * @return the nextUpdate time or 0 when the response has no nextUpdate time.
+	 * @throws IOException if the response is not successful or cannot be parsed.
+	 */
+	public static long getNextUpdate(byte[] ocspResponse) throws IOException {
+
+		// OCSPResponse: responseStatus ENUMERATED, responseBytes [0] EXPLICIT
+		int p = Der.contentOffset(ocspResponse, 0);
+		int status = (Der.length(ocspResponse, p) == 1 ? ocspResponse[Der.contentOffset(ocspResponse, p)] : -1);
+		if (status != 0) {
+			throw new IOException("OCSP response status is not successful: " + status);
+		}
+		p = Der.next(ocspResponse, p);
+		// ResponseBytes: responseType OID, response OCTET STRING
+		p = Der.next(ocspResponse, Der.contentOffset(ocspResponse, Der.contentOffset(ocspResponse, p)));
+		byte[] basic = Der.content(ocspResponse, p);
+		// BasicOCSPResponse: tbsResponseData
+		p = Der.contentOffset(basic, Der.contentOffset(basic, 0));
+		if (Der.tag(basic, p) == 0xA0) {
+			p = Der.next(basic, p); // version
+		}
+		p = Der.next(basic, p); // responderID
+		p = Der.next(basic, p); // producedAt
+		// responses: SEQUENCE OF SingleResponse
+		int single = Der.contentOffset(basic, Der.contentOffset(basic, p));
+		int singleEnd = Der.next(basic, Der.contentOffset(basic, p));
+		p = Der.next(basic, single); // certID
+		p = Der.next(basic, p); // certStatus
+		p = Der.next(basic, p); // thisUpdate
+		if (p < singleEnd && Der.tag(basic, p) == 0xA0) {
+			return parseGeneralizedTime(Der.content(basic, Der.contentOffset(basic, p)));
+		}
+		return 0L;
+	}
+
+	static long parseGeneralizedTime(byte[] time) throws IOException {
+
+		String s = new String(time, StandardCharsets.US_ASCII);
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		try {
+			// Ignore fractional seconds.
+			return format.parse(s.substring(0, Math.min(14, s.length()))).getTime();
+		} catch (ParseException e) {
+			throw new IOException("Invalid GeneralizedTime " + s);
+		}
+	}
+
+	/**
+	 * A certificate with its last fetched OCSP response.
+	 */
+	static class Entry {
+
+		final X509Certificate cert;
+		final X509Certificate issuer;
+		volatile byte[] response;
+		volatile long fetched;
+		volatile long nextUpdate;
+		volatile long lastAttempt;
+		// True when no refresh is scheduled (guarded by the OcspStapling instance).
+		boolean pending;
+
+		Entry(X509Certificate cert, X509Certificate issuer) {
+			this.cert = cert;
+			this.issuer = issuer;
+		}
+
+		synchronized void update(byte[] response, long fetched, long nextUpdate) {
+
+			this.response = response;
+			this.fetched = fetched;
+			this.nextUpdate = nextUpdate;
+		}
+
+		boolean isValid(long now) {
+			return (response != null && (nextUpdate == 0L || nextUpdate > now));
+		}
+
+		@Override
+		public String toString() {
+			return cert.getSubjectX500Principal().getName() + " (serial " + cert.getSerialNumber().toString(16) + ")";
+		}
+	}
+
+	public URL getResponder() { return responder; }
+	public int getConnectTimeoutMs() { return connectTimeoutMs; }
+	public void setConnectTimeoutMs(int connectTimeoutMs) { this.connectTimeoutMs = connectTimeoutMs; }
+	public int getReadTimeoutMs() { return readTimeoutMs; }
+	public void setReadTimeoutMs(int readTimeoutMs) { this.readTimeoutMs = readTimeoutMs; }
+	public long getRetryMs() { return retryMs; }
+	public void setRetryMs(long retryMs) { this.retryMs = retryMs; }
+	public long getMaxRefreshMs() { return maxRefreshMs; }
+	public void setMaxRefreshMs(long maxRefreshMs) { this.maxRefreshMs = maxRefreshMs; }
+	public long getReinstallMs() { return reinstallMs; }
+	public void setReinstallMs(long reinstallMs) { this.reinstallMs = reinstallMs; }
+
+}
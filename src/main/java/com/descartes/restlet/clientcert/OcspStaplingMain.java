@@ -0,0 +1,127 @@
+package com.descartes.restlet.clientcert;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shows OCSP stapling with a local {@link OcspStubResponder}: a TLS server with a certificate from a {@link TestCertificateAuthority}
+ * staples OCSP responses refreshed in the background by {@link OcspStapling}, a client connects a number of times
+ * and logs the stapled response it received.
+ * <br>Requires Java 9 or later and the JVM options listed in {@link JsseOcspInstaller}.
+ * <br>Configured with the system properties (defaults between brackets):
+ * <br>{@code ocsp.validity} (20000) milliseconds between thisUpdate and nextUpdate in the OCSP responses
+ * <br>{@code ocsp.connections} (5) amount of client connections
+ * <br>{@code ocsp.interval} (5000) milliseconds between client connections
+ */
+public class OcspStaplingMain {
+
+	static {
+		Constants.configureLogging();
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(OcspStaplingMain.class);
+
+	public static void main(String[] args) {
+
+		try {
+			new OcspStaplingMain().run();
+		} catch (Exception e) {
+			log.error("OCSP stapling test failed.", e);
+		}
+	}
+
+	public void run() throws Exception {
+
+		long validityMs = Long.getLong("ocsp.validity", 20000L);
+		int connections = Integer.getInteger("ocsp.connections", 5);
+		long intervalMs = Long.getLong("ocsp.interval", 5000L);
+
+		TestCertificateAuthority ca = TestCertificateAuthority.createRoot("CN=Test OCSP CA", "EC:secp256r1");
+		TestCertificateAuthority.IssuedCertificate serverCert = ca.issueServer("localhost",
+				Arrays.asList("localhost"), Arrays.asList(InetAddress.getLoopbackAddress()), "EC:secp256r1");
+		TestCertificateAuthority.IssuedCertificate clientCert = ca.issueClient("client", "client@example.com", "EC:secp256r1");
+
+		OcspStubResponder responder = new OcspStubResponder(ca.getIssuedCertificate(), validityMs);
+		URL responderUrl = responder.start(0);
+		OcspStapling stapling = new OcspStapling(responderUrl);
+
+		OcspStapling.enableServerStapling();
+		SSLContext serverCtx = SSLContext.getInstance(SslUtils.DEFAULT_SSL_PROTOCOL);
+		KeyManager[] kms = serverCert.createKeyManagerFactory().getKeyManagers();
+		serverCtx.init(kms, ca.createTrustManagerFactory().getTrustManagers(), null);
+		if (!stapling.register(serverCtx, kms)) {
+			log.warn("OCSP responses could not be installed, no responses will be stapled.");
+		}
+		stapling.start();
+		// The first response is fetched in the background, wait for it so that the first connection gets a stapled response.
+		long deadline = System.currentTimeMillis() + stapling.getConnectTimeoutMs() + stapling.getReadTimeoutMs();
+		while (stapling.getResponse(serverCert.getCertificate()) == null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50L);
+		}
+
+		final SSLServerSocket serverSocket = (SSLServerSocket) serverCtx.getServerSocketFactory()
+				.createServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		serverSocket.setNeedClientAuth(true);
+		Thread acceptor = new Thread("ocsp-stapling-server") {
+			@Override public void run() {
+				while (!serverSocket.isClosed()) {
+					try (SSLSocket socket = (SSLSocket) serverSocket.accept()) {
+						socket.getOutputStream().write(1);
+					} catch (Exception e) {
+						if (!serverSocket.isClosed()) {
+							log.warn("Server connection failed - " + e);
+						}
+					}
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		SSLContext clientCtx = SSLContext.getInstance(SslUtils.DEFAULT_SSL_PROTOCOL);
+		clientCtx.init(clientCert.createKeyManagerFactory().getKeyManagers(), ca.createTrustManagerFactory().getTrustManagers(), null);
+		try {
+			for (int i = 0; i < connections; i++) {
+				if (i > 0) {
+					Thread.sleep(intervalMs);
+				}
+				long start = System.currentTimeMillis();
+				try (SSLSocket socket = (SSLSocket) clientCtx.getSocketFactory().createSocket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort())) {
+					socket.startHandshake();
+					long handshakeMs = System.currentTimeMillis() - start;
+					try (InputStream in = socket.getInputStream()) {
+						in.read();
+					}
+					List<byte[]> staples = ((ExtendedSSLSession) socket.getSession()).getStatusResponses();
+					if (staples.isEmpty()) {
+						log.info("Connection " + (i + 1) + ": handshake " + handshakeMs + " ms, no OCSP response stapled.");
+					} else {
+						long nextUpdate = OcspStapling.getNextUpdate(staples.get(0));
+						log.info("Connection " + (i + 1) + ": handshake " + handshakeMs + " ms, stapled OCSP response of "
+								+ staples.get(0).length + " bytes valid for " + (nextUpdate - System.currentTimeMillis())
+								+ " ms, OCSP requests answered by responder: " + responder.getRequests());
+					}
+					// Next connection does a full handshake (resumed handshakes do not staple).
+					socket.getSession().invalidate();
+				}
+			}
+		} finally {
+			serverSocket.close();
+			stapling.stop();
+			responder.stop();
+		}
+	}
+
+}
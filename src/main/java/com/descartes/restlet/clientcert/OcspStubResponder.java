@@ -0,0 +1,144 @@
+package com.descartes.restlet.clientcert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local OCSP responder for tests: answers OCSP requests (HTTP POST) for certificates issued by one CA
+ * with responses signed by the CA key. All certificates are reported as good, except revoked serial numbers.
+ * <br>Use with {@link TestCertificateAuthority} and {@link OcspStapling}.
+ */
+public class OcspStubResponder implements HttpHandler {
+
+	private static final Logger log = LoggerFactory.getLogger(OcspStubResponder.class);
+
+	static final String OID_OCSP_BASIC = "1.3.6.1.5.5.7.48.1.1";
+
+	private final TestCertificateAuthority.IssuedCertificate ca;
+	private final long validityMs;
+	private final Set<BigInteger> revoked = Collections.newSetFromMap(new ConcurrentHashMap<BigInteger, Boolean>());
+	private final AtomicInteger requests = new AtomicInteger();
+	private HttpServer server;
+
+	/**
+	 * @param ca the issuer of the certificates, signs the responses.
+	 * @param validityMs time between thisUpdate and nextUpdate in the responses.
+	 */
+	public OcspStubResponder(TestCertificateAuthority.IssuedCertificate ca, long validityMs) {
+		super();
+		this.ca = ca;
+		this.validityMs = validityMs;
+	}
+
+	/**
+	 * Starts the responder on the loopback address.
+	 * @param port 0 for any free port.
+	 * @return the URL of the responder.
+	 */
+	public synchronized URL start(int port) throws IOException {
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/", this);
+		server.start();
+		return getUrl();
+	}
+
+	public synchronized void stop() {
+
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+
+	public URL getUrl() throws IOException {
+		return new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), server.getAddress().getPort(), "/ocsp");
+	}
+
+	public void revoke(BigInteger serialNumber) {
+		revoked.add(serialNumber);
+	}
+
+	/** Amount of OCSP requests answered. */
+	public int getRequests() {
+		return requests.get();
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+
+		try {
+			ByteArrayOutputStream request = new ByteArrayOutputStream();
+			try (InputStream in = exchange.getRequestBody()) {
+				IoUtils.copy(in, request);
+			}
+			byte[] response = createResponse(request.toByteArray());
+			requests.incrementAndGet();
+			exchange.getResponseHeaders().set("Content-Type", "application/ocsp-response");
+			exchange.sendResponseHeaders(200, response.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(response);
+			}
+		} catch (Exception e) {
+			log.warn("Invalid OCSP request - " + e);
+			exchange.sendResponseHeaders(400, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Creates a signed response (RFC 6960 section 4.2.1) for the first certificate in the request.
+	 */
+	protected byte[] createResponse(byte[] request) throws Exception {
+
+		// OCSPRequest: tbsRequest
+		int p = Der.contentOffset(request, Der.contentOffset(request, 0));
+		// TBSRequest: skip optional version [0] and requestorName [1]
+		while (Der.tag(request, p) != Der.TAG_SEQUENCE) {
+			p = Der.next(request, p);
+		}
+		// requestList: first Request, reqCert
+		byte[] certId = Der.value(request, Der.contentOffset(request, Der.contentOffset(request, p)));
+		int serialOffset = Der.contentOffset(certId, 0);
+		for (int i = 0; i < 3; i++) {
+			serialOffset = Der.next(certId, serialOffset);
+		}
+		BigInteger serial = new BigInteger(Der.content(certId, serialOffset));
+
+		long now = System.currentTimeMillis();
+		byte[] certStatus = (revoked.contains(serial)
+				? Der.tagged(0xA1, Der.generalizedTime(new Date(now))) // revoked [1] with revocationTime
+				: new byte[] { (byte) 0x80, 0x00 }); // good [0] IMPLICIT NULL
+		byte[] singleResponse = Der.sequence(certId, certStatus, Der.generalizedTime(new Date(now)),
+				Der.tagged(0xA0, Der.generalizedTime(new Date(now + validityMs))));
+		byte[] responseData = Der.sequence(
+				Der.tagged(0xA1, ca.getCertificate().getSubjectX500Principal().getEncoded()), // responderID byName
+				Der.generalizedTime(new Date(now)),
+				Der.sequence(singleResponse));
+		byte[] basicResponse = Der.sequence(responseData, TestCertificateAuthority.signatureAlgorithm(ca.getKey()),
+				Der.bitString(TestCertificateAuthority.sign(ca.getKey(), responseData)));
+		return Der.sequence(
+				Der.encode(0x0A, new byte[] { 0 }), // responseStatus successful
+				Der.tagged(0xA0, Der.sequence(Der.oid(OID_OCSP_BASIC), Der.octetString(basicResponse))));
+	}
+
+}
@@ -0,0 +1,162 @@
+package com.descartes.restlet.clientcert;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.restlet.Context;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.data.Reference;
+import org.restlet.security.Authorizer;
+import org.restlet.security.Role;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Authorizes requests authenticated by the {@link ServerClientCertGuard} using the {@link AccessRules} from an ACL file.
+ * <br>The client identity (email-address, subject and fingerprint) is taken from the client certificate
+ * and cached per certificate (see {@link ClientIdentity.Cache}, the cache can be shared with the {@link ReverseProxy}). Roles assigned to the client by Restlet
+ * (e.g. by an enroler) are also checked against the rules.
+ * <br>The ACL file is checked for modifications every {@link #getReloadIntervalMs()} after {@link #start()}.
+ * A modified file is compiled in the background and the new rules replace the old rules in one step:
+ * requests always use either the old or the new rules. If the new file is invalid, the old rules are kept.
+ */
+public class PathAuthorizer extends Authorizer {
+
+	private static final Logger log = LoggerFactory.getLogger(PathAuthorizer.class);
+
+	private final Path aclFile;
+	private final ClientIdentity.Cache identities;
+	private volatile AccessRules rules;
+	private volatile long aclFileModified;
+	private long reloadIntervalMs = 10000L;
+	private ScheduledExecutorService reloader;
+
+	/**
+	 * Loads the ACL file.
+	 * @param identities the cache for client identities.
+	 */
+	public PathAuthorizer(Context context, Path aclFile, ClientIdentity.Cache identities) throws IOException {
+		super();
+		setContext(context);
+		this.aclFile = aclFile;
+		this.identities = identities;
+		reload();
+	}
+
+	@Override
+	protected boolean authorize(Request request, Response response) {
+
+		ClientIdentity identity = null;
+		try {
+			identity = identities.get(request.getClientInfo().getCertificates());
+		} catch (Exception e) {
+			log.warn("Unable to read client identity from certificate - " + e);
+		}
+		if (identity == null) {
+			return false;
+		}
+		String rawPath = request.getResourceRef().getPath();
+		if (rawPath == null) {
+			rawPath = "/";
+		}
+		// After decoding, an encoded ';' would be taken as the start of matrix parameters.
+		if (rawPath.indexOf('%') >= 0 && rawPath.toUpperCase(Locale.ROOT).contains("%3B")) {
+			if (log.isDebugEnabled()) {
+				log.debug("Access denied for " + identity + " to path with encoded ';' " + rawPath);
+			}
+			return false;
+		}
+		String path = Reference.decode(rawPath);
+		boolean allowed = rules.isAllowed(path, identity, getRoleNames(request.getClientInfo().getRoles()));
+		if (!allowed && log.isDebugEnabled()) {
+			log.debug("Access denied for " + identity + " to " + path);
+		}
+		return allowed;
+	}
+
+	static Collection<String> getRoleNames(List<Role> roles) {
+
+		if (roles == null || roles.isEmpty()) {
+			return null;
+		}
+		List<String> names = new ArrayList<String>(roles.size());
+		for (Role role : roles) {
+			names.add(role.getName());
+		}
+		return names;
+	}
+
+	/**
+	 * Compiles the ACL file if it was modified and replaces the current rules.
+	 * @return true if new rules were loaded.
+	 */
+	public boolean reload() throws IOException {
+
+		long modified = Files.getLastModifiedTime(aclFile).toMillis();
+		if (rules != null && modified == aclFileModified) {
+			return false;
+		}
+		long start = System.currentTimeMillis();
+		AccessRules newRules = AccessRules.load(aclFile);
+		rules = newRules;
+		aclFileModified = modified;
+		log.info("Loaded " + newRules.getRuleCount() + " access rules for " + newRules.getIdentityCount() + " identities and roles from ["
+				+ aclFile.getFileName() + "] in " + (System.currentTimeMillis() - start) + " ms.");
+		return true;
+	}
+
+	/**
+	 * Starts a background thread that reloads the ACL file when it is modified.
+	 */
+	@Override
+	public synchronized void start() throws Exception {
+
+		super.start();
+		if (reloader != null) {
+			return;
+		}
+		reloader = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "acl-reloader");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		reloader.scheduleWithFixedDelay(new Runnable() {
+			@Override public void run() {
+				try {
+					reload();
+				} catch (Exception e) {
+					log.error("Failed to reload access rules from [" + aclFile + "], keeping previously loaded rules.", e);
+				}
+			}
+		}, reloadIntervalMs, reloadIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public synchronized void stop() throws Exception {
+
+		if (reloader != null) {
+			reloader.shutdownNow();
+			reloader = null;
+		}
+		super.stop();
+	}
+
+	public Path getAclFile() { return aclFile; }
+	public AccessRules getRules() { return rules; }
+	public long getReloadIntervalMs() { return reloadIntervalMs; }
+	/** Must be set before {@link #start()}. */
+	public void setReloadIntervalMs(long reloadIntervalMs) { this.reloadIntervalMs = reloadIntervalMs; }
+
+}
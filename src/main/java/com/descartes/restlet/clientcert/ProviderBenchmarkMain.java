@@ -0,0 +1,379 @@
+package com.descartes.restlet.clientcert;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares security providers: full mutual-TLS handshakes per second, TLS bulk encryption (wrap and unwrap) speed
+ * and cipher encryption speed. Handshakes and records are exchanged between SSL engines in memory,
+ * so network and socket overhead are not measured. Certificates are created with the {@link TestCertificateAuthority}.
+ * <br>Use the provider with the best results via the system property {@link Constants#SSL_PROVIDER_PROPERTY}.
+ * <br>Configured with the system properties (defaults between brackets):
+ * <br>{@code bench.providers} (all installed providers with a SSL context for the protocol) comma-separated names
+ * or class names of providers on the class-path, see {@link SslUtils#getProvider(String)}
+ * <br>{@code bench.protocol} ({@link SslUtils#DEFAULT_SSL_PROTOCOL}) SSL context protocol
+ * <br>{@code bench.keyType} (EC:secp256r1) key type of the server and client certificates, e.g. RSA:2048
+ * <br>{@code bench.threads} (available processors) threads for handshakes and bulk encryption
+ * <br>{@code bench.seconds} (5) duration of each measurement
+ * <br>{@code bench.warmupSeconds} (1) duration of the warmup before each measurement
+ * <br>{@code bench.recordSize} (16384) plain-text bytes per TLS record and per encryption
+ * <br>{@code bench.cipher} (AES/GCM/NoPadding) cipher to measure for each provider that has the cipher
+ * (all installed providers or only the providers from {@code bench.providers})
+ * <br>{@code bench.keyBits} (key size of the cipher suite negotiated in the TLS measurement, else 128) cipher key size,
+ * so that the cipher and TLS results can be compared
+ */
+public class ProviderBenchmarkMain {
+
+	static {
+		Constants.configureLogging();
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(ProviderBenchmarkMain.class);
+
+	static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	/**
+	 * A task that runs in each thread for a duration.
+	 */
+	interface Task {
+
+		/** @return the amount of handshakes or bytes. */
+		long run(long durationMs) throws Exception;
+	}
+
+	public static void main(String[] args) {
+
+		try {
+			new ProviderBenchmarkMain().run();
+		} catch (Exception e) {
+			log.error("Provider benchmark failed.", e);
+		}
+	}
+
+	String protocol = System.getProperty("bench.protocol", SslUtils.DEFAULT_SSL_PROTOCOL);
+	String keyType = System.getProperty("bench.keyType", "EC:secp256r1");
+	int threads = Integer.getInteger("bench.threads", Runtime.getRuntime().availableProcessors());
+	long durationMs = Long.getLong("bench.seconds", 5L) * 1000L;
+	long warmupMs = Long.getLong("bench.warmupSeconds", 1L) * 1000L;
+	int recordSize = Integer.getInteger("bench.recordSize", 16384);
+	String cipher = System.getProperty("bench.cipher", "AES/GCM/NoPadding");
+	Integer keyBits = Integer.getInteger("bench.keyBits");
+	/** The cipher suite negotiated in the first TLS measurement. */
+	String negotiatedSuite;
+
+	TestCertificateAuthority.IssuedCertificate server;
+	TestCertificateAuthority.IssuedCertificate client;
+	TestCertificateAuthority ca;
+
+	public void run() throws Exception {
+
+		ca = TestCertificateAuthority.createRoot("CN=Benchmark CA, O=Restlet Client Cert", keyType);
+		server = ca.issueServer("localhost", null, null, keyType);
+		client = ca.issueClient("client1", "client1@example.com", keyType);
+		String providerNames = System.getProperty("bench.providers");
+		List<Provider> providers = getProviders(providerNames);
+		log.info("Benchmarking " + protocol + " with " + keyType + " certificates using " + threads + " threads for "
+				+ (durationMs / 1000L) + " seconds per measurement.");
+		List<String> results = new ArrayList<String>();
+		for (Provider provider : providers) {
+			try {
+				results.add(benchmarkTls(provider));
+			} catch (Exception e) {
+				log.warn("Cannot benchmark TLS with provider " + provider.getName() + " - " + e);
+			}
+		}
+		int cipherKeyBits = (keyBits != null ? keyBits : getKeyBits(negotiatedSuite));
+		// Without configured providers, all installed providers with the cipher are measured.
+		List<Provider> cipherProviders = (SslUtils.isEmpty(providerNames) ? Arrays.asList(Security.getProviders()) : providers);
+		for (Provider provider : cipherProviders) {
+			try {
+				Cipher.getInstance(cipher, provider);
+			} catch (GeneralSecurityException e) {
+				continue;
+			}
+			results.add(benchmarkCipher(provider, cipherKeyBits));
+		}
+		StringBuilder sb = new StringBuilder("Results:");
+		for (String result : results) {
+			sb.append('\n').append(result);
+		}
+		log.info(sb.toString());
+	}
+
+	/**
+	 * @param names null for all installed providers with a SSL context for the protocol.
+	 */
+	List<Provider> getProviders(String names) throws Exception {
+
+		Set<Provider> providers = new LinkedHashSet<Provider>();
+		if (SslUtils.isEmpty(names)) {
+			Provider[] installed = Security.getProviders("SSLContext." + protocol);
+			if (installed != null) {
+				for (Provider provider : installed) {
+					providers.add(provider);
+				}
+			}
+		} else {
+			for (String name : names.split("\\s*,\\s*")) {
+				providers.add(SslUtils.getProvider(name));
+			}
+		}
+		return new ArrayList<Provider>(providers);
+	}
+
+	String benchmarkTls(Provider provider) throws Exception {
+
+		final SSLContext serverCtx = SslUtils.getSslContext(protocol, provider);
+		serverCtx.init(SslUtils.createKeyStore("server", server.getKey(), server.getChain(), provider).getKeyManagers(),
+				SslUtils.createTrustStore(Constants.CERT_CA_ALIAS, ca.getCertificate(), provider).getTrustManagers(), null);
+		final SSLContext clientCtx = SslUtils.getSslContext(protocol, provider);
+		clientCtx.init(SslUtils.createKeyStore("client", client.getKey(), client.getChain(), provider).getKeyManagers(),
+				SslUtils.createTrustStore(Constants.CERT_CA_ALIAS, ca.getCertificate(), provider).getTrustManagers(), null);
+		SSLEngine[] pair = createPair(serverCtx, clientCtx);
+		handshake(pair[1], pair[0]);
+		String cipherSuite = pair[0].getSession().getCipherSuite();
+		if (negotiatedSuite == null) {
+			negotiatedSuite = cipherSuite;
+		}
+		log.info("Provider " + provider.getName() + " " + provider.getVersionStr() + " negotiated "
+				+ pair[0].getSession().getProtocol() + " " + cipherSuite);
+
+		Task handshakes = new Task() {
+			@Override public long run(long durationMs) throws Exception {
+				long count = 0L;
+				long end = System.currentTimeMillis() + durationMs;
+				while (System.currentTimeMillis() < end) {
+					// Engines without peer host and port never resume a session: all handshakes are full handshakes.
+					SSLEngine[] pair = createPair(serverCtx, clientCtx);
+					handshake(pair[1], pair[0]);
+					count++;
+				}
+				return count;
+			}
+		};
+		measure(handshakes, warmupMs);
+		double handshakesPerSecond = measure(handshakes, durationMs) * 1000.0 / durationMs;
+		log.info("Provider " + provider.getName() + ": " + format(handshakesPerSecond) + " handshakes per second.");
+
+		Task bulk = new Task() {
+			@Override public long run(long durationMs) throws Exception {
+				SSLEngine[] pair = createPair(serverCtx, clientCtx);
+				handshake(pair[1], pair[0]);
+				return transfer(pair[1], pair[0], durationMs);
+			}
+		};
+		measure(bulk, warmupMs);
+		double mbPerSecond = measure(bulk, durationMs) * 1000.0 / durationMs / (1024 * 1024);
+		log.info("Provider " + provider.getName() + ": " + format(mbPerSecond) + " MB per second TLS bulk encryption.");
+		return String.format(Locale.US, "TLS    %-20s %10.1f handshakes/s %10.1f MB/s   %s",
+				provider.getName(), handshakesPerSecond, mbPerSecond, cipherSuite);
+	}
+
+	/**
+	 * @return the key size of the bulk cipher in the cipher suite, 128 if unknown (or null).
+	 */
+	static int getKeyBits(String cipherSuite) {
+
+		if (cipherSuite == null) {
+			return 128;
+		}
+		if (cipherSuite.contains("_256_") || cipherSuite.contains("CHACHA20")) {
+			return 256;
+		}
+		if (cipherSuite.contains("_192_")) {
+			return 192;
+		}
+		return 128;
+	}
+
+	String benchmarkCipher(final Provider provider, final int keyBits) throws Exception {
+
+		Task encrypt = new Task() {
+			@Override public long run(long durationMs) throws Exception {
+				byte[] key = new byte[keyBits / 8];
+				byte[] iv = new byte[12];
+				SecureRandom random = new SecureRandom();
+				random.nextBytes(key);
+				random.nextBytes(iv);
+				SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+				Cipher c = Cipher.getInstance(cipher, provider);
+				boolean gcm = cipher.contains("/GCM/");
+				byte[] plain = new byte[recordSize];
+				byte[] encrypted = new byte[recordSize + 64];
+				long bytes = 0L;
+				long end = System.currentTimeMillis() + durationMs;
+				while (System.currentTimeMillis() < end) {
+					// GCM requires a new IV for each encryption with the same key.
+					iv[11]++;
+					if (iv[11] == 0) {
+						iv[10]++;
+					}
+					if (gcm) {
+						c.init(Cipher.ENCRYPT_MODE, keySpec, new GCMParameterSpec(128, iv));
+					} else {
+						c.init(Cipher.ENCRYPT_MODE, keySpec, random);
+					}
+					c.doFinal(plain, 0, plain.length, encrypted, 0);
+					bytes += plain.length;
+				}
+				return bytes;
+			}
+		};
+		measure(encrypt, warmupMs);
+		double mbPerSecond = measure(encrypt, durationMs) * 1000.0 / durationMs / (1024 * 1024);
+		log.info("Provider " + provider.getName() + ": " + format(mbPerSecond) + " MB per second " + cipher + " encryption with a " + keyBits + " bits key.");
+		return String.format(Locale.US, "Cipher %-20s %10.1f MB/s   %s %d bits key", provider.getName(), mbPerSecond, cipher, keyBits);
+	}
+
+	/**
+	 * Runs the task in all threads.
+	 * @return the sum of the results of the task.
+	 */
+	long measure(final Task task, final long durationMs) throws Exception {
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Long>> results = new ArrayList<Future<Long>>();
+			for (int i = 0; i < threads; i++) {
+				results.add(executor.submit(new Callable<Long>() {
+					@Override public Long call() throws Exception {
+						return task.run(durationMs);
+					}
+				}));
+			}
+			long total = 0L;
+			for (Future<Long> result : results) {
+				total += result.get();
+			}
+			return total;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return server engine (requiring a client certificate) and client engine.
+	 */
+	static SSLEngine[] createPair(SSLContext serverCtx, SSLContext clientCtx) {
+
+		SSLEngine serverEngine = serverCtx.createSSLEngine();
+		serverEngine.setUseClientMode(false);
+		serverEngine.setNeedClientAuth(true);
+		SSLEngine clientEngine = clientCtx.createSSLEngine();
+		clientEngine.setUseClientMode(true);
+		return new SSLEngine[] { serverEngine, clientEngine };
+	}
+
+	/**
+	 * Runs a handshake between two engines in memory.
+	 */
+	static void handshake(SSLEngine client, SSLEngine server) throws SSLException {
+
+		int packetSize = Math.max(client.getSession().getPacketBufferSize(), server.getSession().getPacketBufferSize());
+		int appSize = Math.max(client.getSession().getApplicationBufferSize(), server.getSession().getApplicationBufferSize());
+		ByteBuffer clientToServer = ByteBuffer.allocate(packetSize * 4);
+		ByteBuffer serverToClient = ByteBuffer.allocate(packetSize * 4);
+		ByteBuffer app = ByteBuffer.allocate(appSize);
+		client.beginHandshake();
+		server.beginHandshake();
+		for (int i = 0; i < 1000; i++) {
+			boolean clientDone = step(client, serverToClient, clientToServer, app);
+			boolean serverDone = step(server, clientToServer, serverToClient, app);
+			if (clientDone && serverDone) {
+				return;
+			}
+		}
+		throw new SSLException("Handshake did not complete, client " + client.getHandshakeStatus()
+				+ ", server " + server.getHandshakeStatus());
+	}
+
+	/**
+	 * Runs one handshake step of an engine.
+	 * @return true when the handshake of the engine is done.
+	 */
+	static boolean step(SSLEngine engine, ByteBuffer in, ByteBuffer out, ByteBuffer app) throws SSLException {
+
+		HandshakeStatus status = engine.getHandshakeStatus();
+		switch (status) {
+		case NOT_HANDSHAKING:
+		case FINISHED:
+			return true;
+		case NEED_TASK:
+			Runnable task = null;
+			while ((task = engine.getDelegatedTask()) != null) {
+				task.run();
+			}
+			break;
+		case NEED_WRAP:
+			engine.wrap(EMPTY, out);
+			break;
+		default:
+			in.flip();
+			engine.unwrap(in, app);
+			in.compact();
+			app.clear();
+		}
+		return false;
+	}
+
+	/**
+	 * Sends records from the sending engine to the receiving engine.
+	 * @return the amount of plain-text bytes sent.
+	 */
+	long transfer(SSLEngine sender, SSLEngine receiver, long durationMs) throws SSLException {
+
+		ByteBuffer plain = ByteBuffer.allocate(recordSize);
+		ByteBuffer net = ByteBuffer.allocate(sender.getSession().getPacketBufferSize() * 2);
+		ByteBuffer app = ByteBuffer.allocate(receiver.getSession().getApplicationBufferSize() * 2);
+		long bytes = 0L;
+		long end = System.currentTimeMillis() + durationMs;
+		while (System.currentTimeMillis() < end) {
+			plain.clear();
+			net.clear();
+			SSLEngineResult result = sender.wrap(plain, net);
+			if (result.getStatus() != SSLEngineResult.Status.OK) {
+				throw new SSLException("Unexpected wrap result " + result);
+			}
+			bytes += result.bytesConsumed();
+			net.flip();
+			while (net.hasRemaining()) {
+				app.clear();
+				result = receiver.unwrap(net, app);
+				if (result.getStatus() != SSLEngineResult.Status.OK) {
+					throw new SSLException("Unexpected unwrap result " + result);
+				}
+			}
+		}
+		return bytes;
+	}
+
+	static String format(double d) {
+		return String.format(Locale.US, "%.1f", d);
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.descartes.restlet.clientcert;
+
+import java.lang.reflect.Field;
+
+/**
+ * Access to private fields of JDK internals that have no public API
+ * (used by {@link JsseTicketKeyInstaller}, {@link JsseOcspInstaller} and {@link ConnectionReaper}).
+ * <br>On Java 9+ the package of the class must be opened with {@code --add-opens}, else an exception is thrown.
+ */
+public class ReflectionUtils {
+
+	private ReflectionUtils() {}
+
+	/**
+	 * @param c the class declaring the field.
+	 * @param o the object, null for a static field.
+	 */
+	public static Object getField(Class<?> c, Object o, String name) throws Exception {
+
+		Field f = c.getDeclaredField(name);
+		f.setAccessible(true);
+		return f.get(o);
+	}
+
+	/**
+	 * @param c the class declaring the field.
+	 * @param o the object, null for a static field.
+	 */
+	public static void setField(Class<?> c, Object o, String name, Object value) throws Exception {
+
+		Field f = c.getDeclaredField(name);
+		f.setAccessible(true);
+		f.set(o, value);
+	}
+
+}
@@ -0,0 +1,325 @@
+package com.descartes.restlet.clientcert;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.restlet.data.Parameter;
+import org.restlet.util.Series;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures where the time of a request goes in the HTTPS server: a sample of the requests is timed per {@link Stage}
+ * and the stage durations are recorded in histograms (see {@link #toString()}).
+ * <br>The stages are delimited by {@link Mark}s: monotonic timestamps ({@link System#nanoTime()}) set via {@link #mark(Mark)}
+ * by the connector ({@code HttpsServerHelper2}, {@code HttpsExchangeCall}) and the {@link ServerClientCertGuard}.
+ * The timestamps are stored in an array that is re-used by each worker thread: setting a mark does not allocate
+ * and does nothing for requests that are not sampled. A sampled request allocates one object to carry the time
+ * the request was handed to the executor.
+ * <br>When debug logging is enabled for this class, all requests are timed and the responses get
+ * a {@link #HEADER} header with the stage durations up to and including the resource.
+ * <br>Configured via the connector parameter {@link #PARAM_SAMPLE_RATE}.
+ */
+public class RequestTiming {
+
+	private static final Logger log = LoggerFactory.getLogger(RequestTiming.class);
+
+	/** Time one in this amount of requests, 0 (default) to time no requests (unless debug logging is enabled). */
+	public static final String PARAM_SAMPLE_RATE = "timingSampleRate";
+
+	/** Context attribute name under which the request timing is registered by {@code HttpsServerHelper2}. */
+	public static final String CONTEXT_ATTRIBUTE = RequestTiming.class.getName();
+
+	/** Response header with stage durations (in milliseconds) as defined by the W3C Server Timing specification. */
+	public static final String HEADER = "Server-Timing";
+
+	/**
+	 * The moments in the handling of a request.
+	 */
+	public enum Mark {
+		/** The JDK server's dispatcher thread handed the request (connection) to the executor. */
+		SUBMITTED,
+		/** A worker thread started the request. */
+		STARTED,
+		/** The request line and headers were read, the connector's handler is called. */
+		HANDLER,
+		CERTIFICATES_START,
+		CERTIFICATES_END,
+		AUTHENTICATION_START,
+		AUTHENTICATION_END,
+		/** The resource (and all filters) returned the response. */
+		RESOURCE_END,
+		/** The response was written. */
+		SENT
+	}
+
+	/**
+	 * The stages of a request, each stage is the time between two marks.
+	 */
+	public enum Stage {
+		/** Waiting for a worker thread. */
+		EXECUTOR_WAIT("executorWait", Mark.SUBMITTED, Mark.STARTED),
+		/** TLS handshake (on a new connection) and reading the request line and headers. */
+		READ_REQUEST("readRequest", Mark.STARTED, Mark.HANDLER),
+		/** Restlet request conversion (including certificate extraction) and routing to the guard. */
+		DISPATCH("dispatch", Mark.HANDLER, Mark.AUTHENTICATION_START),
+		/** Extracting the client certificates from the TLS session. */
+		CERTIFICATES("certificates", Mark.CERTIFICATES_START, Mark.CERTIFICATES_END),
+		/** Client certificate authentication. */
+		AUTHENTICATION("authentication", Mark.AUTHENTICATION_START, Mark.AUTHENTICATION_END),
+		/** Filters after the guard (e.g. authorization) and the resource. */
+		RESOURCE("resource", Mark.AUTHENTICATION_END, Mark.RESOURCE_END),
+		/** Writing the response. */
+		RESPONSE("response", Mark.RESOURCE_END, Mark.SENT),
+		TOTAL("total", Mark.SUBMITTED, Mark.SENT);
+
+		private final String label;
+		private final Mark start;
+		private final Mark end;
+
+		Stage(String label, Mark start, Mark end) {
+			this.label = label;
+			this.start = start;
+			this.end = end;
+		}
+
+		public String getLabel() { return label; }
+		public Mark getStart() { return start; }
+		public Mark getEnd() { return end; }
+	}
+
+	private static final Mark[] MARKS = Mark.values();
+	private static final Stage[] STAGES = Stage.values();
+
+	/**
+	 * The marks of the request handled by a worker thread.
+	 */
+	static class Current {
+
+		final long[] marks = new long[MARKS.length];
+		RequestTiming timing;
+	}
+
+	private static final ThreadLocal<Current> CURRENT = new ThreadLocal<Current>() {
+		@Override protected Current initialValue() {
+			return new Current();
+		}
+	};
+
+	private final int sampleRate;
+	private final AtomicLong requests = new AtomicLong();
+	private final Histogram[] histograms = new Histogram[STAGES.length];
+
+	/**
+	 * @param sampleRate time one in this amount of requests, 0 to time no requests (unless debug logging is enabled).
+	 */
+	public RequestTiming(int sampleRate) {
+		super();
+		this.sampleRate = Math.max(0, sampleRate);
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new Histogram();
+		}
+	}
+
+	/**
+	 * Creates request timing from connector parameters.
+	 * @return null when no requests are sampled and debug logging is not enabled.
+	 */
+	public static RequestTiming create(Series<Parameter> parameters) {
+
+		int sampleRate = Integer.parseInt(parameters.getFirstValue(PARAM_SAMPLE_RATE, "0"));
+		if (sampleRate < 1 && !log.isDebugEnabled()) {
+			return null;
+		}
+		return new RequestTiming(sampleRate);
+	}
+
+	/**
+	 * Sets the mark for the request handled by the current thread, if the request is timed.
+	 */
+	public static void mark(Mark mark) {
+
+		Current current = CURRENT.get();
+		if (current.timing != null) {
+			current.marks[mark.ordinal()] = System.nanoTime();
+		}
+	}
+
+	/**
+	 * @return null if the request handled by the current thread is not timed or debug logging is not enabled,
+	 * else the value for the {@link #HEADER} with the durations of the completed stages.
+	 */
+	public static String getHeaderValue() {
+
+		Current current = CURRENT.get();
+		if (current.timing == null || !log.isDebugEnabled()) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (Stage stage : STAGES) {
+			long duration = duration(current.marks, stage);
+			if (duration >= 0L) {
+				if (sb.length() > 0) {
+					sb.append(", ");
+				}
+				sb.append(stage.label).append(";dur=").append(String.format(Locale.US, "%.3f", duration / 1000000.0));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return an executor that times sampled requests handed to the given executor (by the JDK server's dispatcher).
+	 */
+	public Executor wrap(final Executor executor) {
+
+		return new Executor() {
+			@Override public void execute(Runnable command) {
+				long request = requests.incrementAndGet();
+				if ((sampleRate > 0 && request % sampleRate == 0L) || log.isDebugEnabled()) {
+					executor.execute(new TimedRequest(command, System.nanoTime()));
+				} else {
+					executor.execute(command);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Runs a request on a worker thread with marks enabled and records the stage durations afterwards.
+	 */
+	class TimedRequest implements Runnable {
+
+		private final Runnable request;
+		private final long submitted;
+
+		TimedRequest(Runnable request, long submitted) {
+			super();
+			this.request = request;
+			this.submitted = submitted;
+		}
+
+		@Override
+		public void run() {
+
+			Current current = CURRENT.get();
+			Arrays.fill(current.marks, 0L);
+			current.marks[Mark.SUBMITTED.ordinal()] = submitted;
+			current.marks[Mark.STARTED.ordinal()] = System.nanoTime();
+			current.timing = RequestTiming.this;
+			try {
+				request.run();
+			} finally {
+				current.timing = null;
+				record(current.marks);
+			}
+		}
+	}
+
+	/**
+	 * Records the durations of the stages for which both marks are set.
+	 */
+	void record(long[] marks) {
+
+		for (int i = 0; i < STAGES.length; i++) {
+			long duration = duration(marks, STAGES[i]);
+			if (duration >= 0L) {
+				histograms[i].record(duration);
+			}
+		}
+	}
+
+	/**
+	 * @return -1 if a mark of the stage is not set.
+	 */
+	static long duration(long[] marks, Stage stage) {
+
+		long start = marks[stage.start.ordinal()];
+		long end = marks[stage.end.ordinal()];
+		return (start == 0L || end == 0L ? -1L : Math.max(0L, end - start));
+	}
+
+	/**
+	 * Durations in buckets per power of two microseconds.
+	 */
+	public static class Histogram {
+
+		private final AtomicLongArray buckets = new AtomicLongArray(64);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		public void record(long nanos) {
+
+			long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+			buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(micros));
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			long max = maxNanos.get();
+			while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+				max = maxNanos.get();
+			}
+		}
+
+		/**
+		 * @param percentage e.g. 99.0
+		 * @return the upper bound (in microseconds) of the bucket containing the percentile, 0 if nothing was recorded.
+		 */
+		public long getPercentileMicros(double percentage) {
+
+			long total = count.get();
+			if (total == 0L) {
+				return 0L;
+			}
+			long rank = (long) Math.ceil(total * percentage / 100.0);
+			long seen = 0L;
+			for (int i = 0; i < buckets.length(); i++) {
+				seen += buckets.get(i);
+				if (seen >= rank) {
+					return (1L << i);
+				}
+			}
+			return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+		}
+
+		public long getCount() { return count.get(); }
+		public long getMaxNanos() { return maxNanos.get(); }
+
+		public double getAverageMs() {
+
+			long total = count.get();
+			return (total == 0L ? 0.0 : totalNanos.get() / 1000000.0 / total);
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%d, avg %.3f ms, p50 < %.3f ms, p90 < %.3f ms, p99 < %.3f ms, max %.3f ms",
+					count.get(), getAverageMs(), getPercentileMicros(50.0) / 1000.0, getPercentileMicros(90.0) / 1000.0,
+					getPercentileMicros(99.0) / 1000.0, maxNanos.get() / 1000000.0);
+		}
+	}
+
+	public int getSampleRate() { return sampleRate; }
+	/** Amount of requests handed to the executor (timed or not). */
+	public long getRequests() { return requests.get(); }
+	public Histogram getHistogram(Stage stage) { return histograms[stage.ordinal()]; }
+
+	/**
+	 * @return the durations per stage.
+	 */
+	@Override
+	public String toString() {
+
+		StringBuilder sb = new StringBuilder("Request timing for " + requests.get() + " requests"
+				+ (sampleRate > 0 ? ", sampled 1 in " + sampleRate : "") + ":");
+		for (Stage stage : STAGES) {
+			sb.append('\n').append(stage.label).append(": ").append(histograms[stage.ordinal()]);
+		}
+		return sb.toString();
+	}
+
+}
@@ -1,5 +1,6 @@
 package com.descartes.restlet.clientcert;
 
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentMap;
 
 import javax.net.ssl.HostnameVerifier;
@@ -48,15 +49,42 @@ public class RestletClientMain {
 		attribs.put("hostnameVerifier", new TrustAllHostnames());
 		
 		ClientSslContextFactory sslCtx = new ClientSslContextFactory();
+		sslCtx.setProvider(SslUtils.getProvider(System.getProperty(Constants.SSL_PROVIDER_PROPERTY)));
 		sslCtx.init(certFileName, certFilePwd);
 		attribs.put("sslContextFactory", sslCtx);
 		
+		String nodes = System.getProperty(Constants.CLIENT_NODES_PROPERTY);
+		if (!SslUtils.isEmpty(nodes)) {
+			startAffinityClient(nodes, sslCtx);
+			return;
+		}
 		ClientResource traceText = new ClientResource("https://localhost:" + Constants.PORT_TEST + "/trace");
 		traceText.setNext(client);
 		Representation result = traceText.get(MediaType.TEXT_PLAIN);
 		log.info("Trace text: " + System.lineSeparator() + result.getText());
 	}
 	
+	/**
+	 * Sends requests to the preferred server node for the client certificate and logs the statistics per node.
+	 */
+	public void startAffinityClient(String nodes, ClientSslContextFactory sslCtx) throws Exception {
+		
+		AffinityClient client = new AffinityClient(new Context(), Arrays.asList(nodes.trim().split("\\s*,\\s*")));
+		client.addIdentity(certFileName, sslCtx, new TrustAllHostnames());
+		int requests = Integer.parseInt(System.getProperty(Constants.CLIENT_REQUESTS_PROPERTY, "10"));
+		for (int i = 0; i < requests; i++) {
+			ClientResource traceText = new ClientResource(client.getNodes().get(0).getUrl() + "/trace");
+			traceText.setNext(client);
+			Representation result = traceText.get(MediaType.TEXT_PLAIN);
+			if (log.isDebugEnabled()) {
+				log.debug("Trace text: " + System.lineSeparator() + result.getText());
+			} else {
+				result.exhaust();
+			}
+		}
+		log.info(client.toString());
+	}
+	
 	static class TrustAllHostnames implements HostnameVerifier {
 
 		@Override public boolean verify(String hostname, SSLSession session) {
@@ -1,16 +1,24 @@
 package com.descartes.restlet.clientcert;
 
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.ConcurrentMap;
+import java.util.List;
+import java.util.Map;
 
 import org.restlet.Component;
 import org.restlet.Context;
 import org.restlet.Server;
+import org.restlet.data.Parameter;
 import org.restlet.data.Protocol;
 import org.restlet.engine.Engine;
 import org.restlet.engine.connector.HttpsServerHelper2;
 import org.restlet.resource.Get;
 import org.restlet.resource.ServerResource;
+import org.restlet.routing.Filter;
+import org.restlet.util.Series;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,27 +46,82 @@ public class RestletServerMain extends ServerResource {
 
 		Engine.getInstance().getRegisteredServers().add(new HttpsServerHelper2(null));
 		Component component = new Component();
-		Server server = new Server(
-				(Context) null, Arrays.asList(Protocol.HTTPS),
-				(String) null, Constants.PORT_TEST, component.getServers().getNext(), 
-				HttpsServerHelper2.class.getName()
-			);
-		component.getServers().add(server);
+		HttpsListener mainListener = new HttpsListener("main", Constants.PORT_TEST, null, null, null);
+		List<HttpsListener> listeners = HttpsListener.parse(System.getProperty(Constants.HTTPS_LISTENERS_PROPERTY));
 
 		ServerSslContextFactory sslCtx = new ServerSslContextFactory();
+		sslCtx.setSecureRandom(SslUtils.createSecureRandom(System.getProperty(Constants.SECURE_RANDOM_PROPERTY)));
+		sslCtx.setProvider(SslUtils.getProvider(System.getProperty(Constants.SSL_PROVIDER_PROPERTY)));
+		String ticketKeyFile = System.getProperty(Constants.SESSION_TICKET_KEYS_PROPERTY);
+		if (ticketKeyFile != null) {
+			SessionTicketKeys ticketKeys = new SessionTicketKeys(Paths.get(ticketKeyFile));
+			sslCtx.setSessionTicketKeys(ticketKeys);
+			ticketKeys.start();
+		}
+		String ocspResponder = System.getProperty(Constants.OCSP_STAPLING_PROPERTY);
+		OcspStapling ocspStapling = null;
+		if (ocspResponder != null) {
+			ocspStapling = new OcspStapling("certificate".equals(ocspResponder) ? null : new URL(ocspResponder));
+			sslCtx.setOcspStapling(ocspStapling);
+		}
+		sslCtx.setLazyKeyCacheSize(Integer.getInteger(Constants.LAZY_KEY_CACHE_SIZE_PROPERTY, 0));
+		String lazyKeyPackDir = System.getProperty(Constants.LAZY_KEY_PACK_DIR_PROPERTY);
+		if (lazyKeyPackDir != null) {
+			sslCtx.setLazyKeyPackDir(Paths.get(lazyKeyPackDir));
+		}
 		sslCtx.init(certFileName, certFilePwd);
-		ConcurrentMap<String, Object> attribs = server.getContext().getAttributes();
-		attribs.put("sslContextFactory", sslCtx);
+		if (ocspStapling != null) {
+			ocspStapling.start();
+		}
+		Server server = mainListener.createServer(component, sslCtx);
+		// One limit for the full handshakes on all listeners without their own limit.
+		List<HttpsListener> sharedListeners = new ArrayList<HttpsListener>();
+		sharedListeners.add(mainListener);
+		for (HttpsListener listener : listeners) {
+			if (!hasOwnHandshakeAdmission(listener)) {
+				sharedListeners.add(listener);
+			}
+		}
+		HandshakeAdmission admission = createHandshakeAdmission(sharedListeners);
+		if (admission != null) {
+			server.getContext().getAttributes().put(HandshakeAdmission.CONTEXT_ATTRIBUTE, admission);
+		}
 
-		ServerClientCertGuard guard = new ServerClientCertGuard(server.getContext());
-		guard.setNext(RestletServerMain.class);
-		component.getDefaultHost().attachDefault(guard);
+		// One cache of client identities for the authorizer and the proxy.
+		ClientIdentity.Cache identities = new ClientIdentity.Cache(10000);
+		PathAuthorizer authorizer = null;
+		String aclFile = System.getProperty(Constants.ACL_FILE_PROPERTY);
+		if (aclFile != null) {
+			authorizer = new PathAuthorizer(server.getContext(), Paths.get(aclFile), identities);
+			authorizer.start();
+		}
+		ReverseProxy proxy = null;
+		String proxyBackends = System.getProperty(Constants.PROXY_BACKENDS_PROPERTY);
+		if (proxyBackends != null) {
+			// Keep enough idle connections for all worker threads.
+			ReverseProxy.setMaxIdleConnections(64);
+			proxy = new ReverseProxy(server.getContext(), Arrays.asList(proxyBackends.split("\\s*,\\s*")), identities);
+			log.info("Forwarding requests to " + proxyBackends);
+		}
+		component.getDefaultHost().attachDefault(createGuardChain(server.getContext(), authorizer, proxy));
+		// Additional listeners share the key material, authorizer and proxy but have their own threads and guard.
+		// Listeners with their own handshake limit create their own admission controller in the connector.
+		for (HttpsListener listener : listeners) {
+			Server listenerServer = listener.createServer(component, sslCtx.copy());
+			if (admission != null && sharedListeners.contains(listener)) {
+				listenerServer.getContext().getAttributes().put(HandshakeAdmission.CONTEXT_ATTRIBUTE, admission);
+			}
+			listener.attach(component, createGuardChain(listenerServer.getContext(), authorizer, proxy));
+			log.info("Added " + listener);
+		}
 		
 		// component.getDefaultHost().attach("/trace", RestletServerMain.class);
 		ShutdownHook hook = new ShutdownHook(component);
 		Runtime.getRuntime().addShutdownHook(hook);
 		try {
+			warmup(sslCtx);
 			component.start();
+			log.info("Server ready.");
 		} catch (Exception e) {
 			log.error("Server start failed.", e);
 			Runtime.getRuntime().removeShutdownHook(hook);
@@ -66,6 +129,106 @@ public class RestletServerMain extends ServerResource {
 		}
 	}
 
+	/**
+	 * Limits CPU spent on full handshakes when all clients reconnect at once, configured via the system properties
+	 * {@link Constants#HANDSHAKE_MAX_FULL_PROPERTY} (e.g. 2 times the amount of CPUs),
+	 * {@link Constants#HANDSHAKE_MAX_QUEUED_PROPERTY} and {@link Constants#HANDSHAKE_QUEUE_TIMEOUT_PROPERTY}.
+	 * The controller is shared by the listeners so that the limit applies to the whole server.
+	 * The default queue size is based on the listener with the least worker threads.
+	 * @return null when admission control is not configured.
+	 */
+	protected HandshakeAdmission createHandshakeAdmission(List<HttpsListener> listeners) {
+
+		Series<Parameter> parameters = new Series<Parameter>(Parameter.class);
+		parameters.add(HandshakeAdmission.PARAM_MAX_FULL_HANDSHAKES, System.getProperty(Constants.HANDSHAKE_MAX_FULL_PROPERTY, "0"));
+		String maxQueued = System.getProperty(Constants.HANDSHAKE_MAX_QUEUED_PROPERTY);
+		if (maxQueued != null) {
+			parameters.add(HandshakeAdmission.PARAM_MAX_QUEUED_HANDSHAKES, maxQueued);
+		}
+		String queueTimeoutMs = System.getProperty(Constants.HANDSHAKE_QUEUE_TIMEOUT_PROPERTY);
+		if (queueTimeoutMs != null) {
+			parameters.add(HandshakeAdmission.PARAM_HANDSHAKE_QUEUE_TIMEOUT_MS, queueTimeoutMs);
+		}
+		int maxThreads = Integer.MAX_VALUE;
+		for (HttpsListener listener : listeners) {
+			maxThreads = Math.min(maxThreads, listener.getMaxThreads() == null ? HandshakeAdmission.DEFAULT_MAX_THREADS : listener.getMaxThreads());
+		}
+		parameters.add(HttpsListener.PARAM_MAX_THREADS, Integer.toString(maxThreads));
+		return HandshakeAdmission.create(parameters);
+	}
+
+	/**
+	 * A listener with the connector parameter {@link HandshakeAdmission#PARAM_MAX_FULL_HANDSHAKES} has its own limit
+	 * (0 disables admission control for the listener), other listeners share the limit of the server.
+	 * @throws IllegalArgumentException if the listener has queue parameters without its own limit.
+	 */
+	protected boolean hasOwnHandshakeAdmission(HttpsListener listener) {
+
+		Map<String, String> parameters = listener.getParameters();
+		if (parameters.containsKey(HandshakeAdmission.PARAM_MAX_FULL_HANDSHAKES)) {
+			return true;
+		}
+		if (parameters.containsKey(HandshakeAdmission.PARAM_MAX_QUEUED_HANDSHAKES) 
+				|| parameters.containsKey(HandshakeAdmission.PARAM_HANDSHAKE_QUEUE_TIMEOUT_MS)) {
+			throw new IllegalArgumentException("Handshake queue parameters require " + HandshakeAdmission.PARAM_MAX_FULL_HANDSHAKES + " for " + listener);
+		}
+		return false;
+	}
+
+	/**
+	 * Creates a client certificate guard followed by the (optional) authorizer,
+	 * followed by the proxy or (without proxy) this resource.
+	 */
+	protected Filter createGuardChain(Context context, PathAuthorizer authorizer, ReverseProxy proxy) {
+
+		ServerClientCertGuard guard = new ServerClientCertGuard(context);
+		Filter last = guard;
+		if (authorizer != null) {
+			guard.setNext(authorizer);
+			last = authorizer;
+		}
+		if (proxy == null) {
+			last.setNext(RestletServerMain.class);
+		} else {
+			last.setNext(proxy);
+		}
+		return guard;
+	}
+
+	/**
+	 * Runs the {@link ServerWarmup} when configured, before the listeners for real clients are started.
+	 * The warm-up uses a temporary listener on the loopback address (and a random port)
+	 * with the same key material and guard as the main listener.
+	 */
+	protected void warmup(ServerSslContextFactory sslCtx) throws Exception {
+
+		ServerWarmup warmup = ServerWarmup.fromSystemProperties("/trace");
+		if (!warmup.isEnabled()) {
+			return;
+		}
+		Component warmupComponent = new Component();
+		Server server = new Server(
+				(Context) null, Arrays.asList(Protocol.HTTPS),
+				InetAddress.getLoopbackAddress().getHostAddress(), 0, warmupComponent.getServers().getNext(),
+				HttpsServerHelper2.class.getName()
+			);
+		warmupComponent.getServers().add(server);
+		ServerSslContextFactory warmupSslCtx = sslCtx.copy();
+		server.getContext().getAttributes().put("sslContextFactory", warmupSslCtx);
+		warmupComponent.getDefaultHost().attachDefault(createGuardChain(server.getContext(), null, null));
+		ClientSslContextFactory clientSslCtx = new ClientSslContextFactory();
+		clientSslCtx.setProvider(SslUtils.getProvider(System.getProperty(Constants.SSL_PROVIDER_PROPERTY)));
+		clientSslCtx.init(certFileName, certFilePwd);
+		warmupComponent.start();
+		try {
+			warmup.run(clientSslCtx.createSslContext(), server.getActualPort());
+		} finally {
+			warmupComponent.stop();
+			// Stop updating the temporary SSL context with OCSP responses and session ticket keys.
+			warmupSslCtx.release();
+		}
+	}
+
 	@Get("txt")
 	public String toString() {
 		// Print the requested URI path
@@ -0,0 +1,345 @@
+package com.descartes.restlet.clientcert;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.restlet.Context;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.data.Header;
+import org.restlet.data.Reference;
+import org.restlet.data.Status;
+import org.restlet.engine.header.HeaderUtils;
+import org.restlet.representation.InputRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.util.Series;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Forwards requests, authenticated by the {@link ServerClientCertGuard} in front of this restlet,
+ * to plain-HTTP backend nodes. The TLS connection with the client ends here,
+ * the backend nodes receive the verified client identity in the headers
+ * {@link #HEADER_CLIENT_FINGERPRINT}, {@link #HEADER_CLIENT_SUBJECT} and {@link #HEADER_CLIENT_EMAIL}.
+ * Identity headers sent by the client are always removed.
+ * <br>Backends are used round-robin. A backend that refuses connections (or does not accept them in time) is skipped for {@link #getRetryBackendMs()}.
+ * <br>Connections to the backends are kept alive and re-used by the JDK {@link HttpURLConnection} connection pool,
+ * see {@link #setMaxIdleConnections(int)}.
+ * <br>Standard response headers of the backend are mapped to the response via the Restlet API (as a Restlet client connector does),
+ * e.g. cookies, cache directives, entity tag and modification date, challenge requests, allowed methods and dimensions (Vary).
+ * Non-standard headers are copied as they are, hop-by-hop headers and the backend's {@code Server} header are not returned.
+ * A (content-)location pointing to the backend is rewritten to the host the client used.
+ * <br>The {@link HttpURLConnection} only supports the methods in {@link #FORWARDED_METHODS},
+ * requests with other methods (e.g. PATCH or WebDAV methods) are answered with 501 (not implemented).
+ */
+public class ReverseProxy extends Restlet {
+
+	private static final Logger log = LoggerFactory.getLogger(ReverseProxy.class);
+
+	public static final String HEADER_CLIENT_FINGERPRINT = "X-Client-Cert-Fingerprint";
+	public static final String HEADER_CLIENT_SUBJECT = "X-Client-Cert-Subject";
+	public static final String HEADER_CLIENT_EMAIL = "X-Client-Cert-Email";
+	public static final String HEADER_FORWARDED_FOR = "X-Forwarded-For";
+	public static final String HEADER_FORWARDED_HOST = "X-Forwarded-Host";
+	public static final String HEADER_FORWARDED_PROTO = "X-Forwarded-Proto";
+
+	/** Request headers not forwarded: hop-by-hop headers and headers set by the {@link HttpURLConnection}. */
+	static final Set<String> SKIP_REQUEST_HEADERS = lowerCase(
+			"Connection", "Keep-Alive", "Proxy-Authenticate", "Proxy-Authorization", "TE", "Trailer", "Transfer-Encoding", "Upgrade",
+			"Host", "Content-Length", "Expect",
+			HEADER_CLIENT_FINGERPRINT, HEADER_CLIENT_SUBJECT, HEADER_CLIENT_EMAIL,
+			HEADER_FORWARDED_FOR, HEADER_FORWARDED_HOST, HEADER_FORWARDED_PROTO);
+
+	/** Response headers not returned: hop-by-hop headers and the backend's server agent. */
+	static final Set<String> SKIP_RESPONSE_HEADERS = lowerCase(
+			"Connection", "Keep-Alive", "Proxy-Authenticate", "Proxy-Authorization", "TE", "Trailer", "Transfer-Encoding", "Upgrade",
+			"Server");
+
+	/** Standard response headers that Restlet does not allow to be set directly, these are mapped via the Restlet API. */
+	static final Set<String> STANDARD_RESPONSE_HEADERS = lowerCase(
+			"Accept-Ranges", "Age", "Allow", "Authentication-Info", "Cache-Control", "Content-Disposition", "Content-Encoding",
+			"Content-Language", "Content-Length", "Content-Location", "Content-MD5", "Content-Range", "Content-Type", "Date",
+			"ETag", "Expires", "Last-Modified", "Location", "Pragma", "Retry-After", "Set-Cookie", "Set-Cookie2",
+			"Vary", "Via", "Warning", "WWW-Authenticate");
+
+	/** Request methods supported by the {@link HttpURLConnection} (it throws a {@code ProtocolException} for other methods). */
+	public static final Set<String> FORWARDED_METHODS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+			"GET", "POST", "HEAD", "OPTIONS", "PUT", "DELETE", "TRACE")));
+
+	/** Response headers with a URL that is rewritten when it points to the backend. */
+	static final Set<String> LOCATION_HEADERS = lowerCase("Location", "Content-Location");
+
+	private final List<Backend> backends;
+	private final AtomicInteger nextBackend = new AtomicInteger();
+	private final ClientIdentity.Cache identities;
+	private int connectTimeoutMs = 2000;
+	private int readTimeoutMs = 30000;
+	private long retryBackendMs = 5000L;
+
+	/**
+	 * @param backendUrls base URLs of the backend nodes, e.g. {@code http://10.0.0.1:8080}.
+	 * The path and query of a request are appended to the base URL.
+	 * @param identities the cache for client identities (can be shared with the {@link PathAuthorizer}).
+	 */
+	public ReverseProxy(Context context, List<String> backendUrls, ClientIdentity.Cache identities) {
+		super(context);
+		if (backendUrls.isEmpty()) {
+			throw new IllegalArgumentException("At least one backend is required.");
+		}
+		backends = new ArrayList<Backend>();
+		for (String url : backendUrls) {
+			backends.add(new Backend(url.endsWith("/") ? url.substring(0, url.length() - 1) : url));
+		}
+		this.identities = identities;
+	}
+
+	/**
+	 * Sets the maximum amount of idle keep-alive connections per backend (system property {@code http.maxConnections}, JDK default is 5).
+	 * Must be called before the first {@link HttpURLConnection} is used, else the JDK ignores the value.
+	 * Does nothing if the system property is already set.
+	 */
+	public static void setMaxIdleConnections(int maxIdle) {
+
+		if (System.getProperty("http.maxConnections") == null) {
+			System.setProperty("http.maxConnections", Integer.toString(maxIdle));
+		}
+	}
+
+	@Override
+	public void handle(Request request, Response response) {
+
+		super.handle(request, response);
+		ClientIdentity identity = null;
+		try {
+			identity = identities.get(request.getClientInfo().getCertificates());
+		} catch (Exception e) {
+			log.warn("Unable to read client identity from certificate - " + e);
+		}
+		if (identity == null) {
+			// The guard should have prevented this.
+			response.setStatus(Status.CLIENT_ERROR_FORBIDDEN);
+			return;
+		}
+		String pathAndQuery = getPathAndQuery(request.getResourceRef());
+		if (!FORWARDED_METHODS.contains(request.getMethod().getName())) {
+			log.debug("Method " + request.getMethod().getName() + " cannot be forwarded for " + pathAndQuery);
+			response.setStatus(Status.SERVER_ERROR_NOT_IMPLEMENTED);
+			return;
+		}
+		for (int tries = 0; tries < backends.size(); tries++) {
+			Backend backend = selectBackend();
+			try {
+				forward(backend, pathAndQuery, identity, request, response);
+				return;
+			} catch (ConnectException e) {
+				// Nothing was sent, safe to try another backend.
+				backend.markDown(retryBackendMs);
+				log.warn("Backend " + backend + " is down - " + e);
+			} catch (SocketTimeoutException e) {
+				log.warn("Backend " + backend + " timed out for " + request.getMethod().getName() + " " + pathAndQuery + " - " + e);
+				response.setStatus(Status.SERVER_ERROR_GATEWAY_TIMEOUT);
+				return;
+			} catch (Exception e) {
+				log.warn("Backend " + backend + " failed for " + request.getMethod().getName() + " " + pathAndQuery + " - " + e);
+				response.setStatus(Status.SERVER_ERROR_BAD_GATEWAY);
+				return;
+			}
+		}
+		response.setStatus(Status.SERVER_ERROR_BAD_GATEWAY);
+	}
+
+	/**
+	 * @return the next backend that is up or, if all backends are down, the next backend.
+	 */
+	protected Backend selectBackend() {
+
+		long now = System.currentTimeMillis();
+		int start = (nextBackend.getAndIncrement() & Integer.MAX_VALUE);
+		for (int i = 0; i < backends.size(); i++) {
+			Backend backend = backends.get((start + i) % backends.size());
+			if (backend.isUp(now)) {
+				return backend;
+			}
+		}
+		return backends.get(start % backends.size());
+	}
+
+	protected void forward(Backend backend, String pathAndQuery, ClientIdentity identity,
+			Request request, Response response) throws IOException {
+
+		HttpURLConnection conn = (HttpURLConnection) new URL(backend.getUrl() + pathAndQuery).openConnection();
+		conn.setConnectTimeout(connectTimeoutMs);
+		conn.setReadTimeout(readTimeoutMs);
+		conn.setInstanceFollowRedirects(false);
+		conn.setUseCaches(false);
+		conn.setRequestMethod(request.getMethod().getName());
+		String host = null;
+		if (request.getHeaders() != null) {
+			for (Header h : request.getHeaders()) {
+				if (!SKIP_REQUEST_HEADERS.contains(h.getName().toLowerCase(Locale.ROOT))) {
+					conn.addRequestProperty(h.getName(), h.getValue());
+				} else if ("host".equalsIgnoreCase(h.getName())) {
+					host = h.getValue();
+				}
+			}
+		}
+		conn.setRequestProperty(HEADER_CLIENT_FINGERPRINT, identity.getFingerprint());
+		conn.setRequestProperty(HEADER_CLIENT_SUBJECT, identity.getSubject());
+		if (identity.getEmailAddress() != null) {
+			conn.setRequestProperty(HEADER_CLIENT_EMAIL, identity.getEmailAddress());
+		}
+		if (request.getClientInfo().getAddress() != null) {
+			conn.setRequestProperty(HEADER_FORWARDED_FOR, request.getClientInfo().getAddress());
+		}
+		if (host != null) {
+			conn.setRequestProperty(HEADER_FORWARDED_HOST, host);
+		}
+		conn.setRequestProperty(HEADER_FORWARDED_PROTO, "https");
+		Representation requestEntity = (request.isEntityAvailable() ? request.getEntity() : null);
+		if (requestEntity != null) {
+			// Must be set before connecting.
+			conn.setDoOutput(true);
+			if (requestEntity.getSize() >= 0) {
+				conn.setFixedLengthStreamingMode(requestEntity.getSize());
+			} else {
+				conn.setChunkedStreamingMode(8192);
+			}
+		}
+		try {
+			conn.connect();
+		} catch (SocketTimeoutException e) {
+			// Treat as connection refused: nothing was sent yet.
+			throw new ConnectException("Connect timed out after " + connectTimeoutMs + " ms");
+		}
+		if (requestEntity != null) {
+			try (InputStream in = requestEntity.getStream(); OutputStream out = conn.getOutputStream()) {
+				IoUtils.copy(in, out);
+			}
+		}
+
+		int status = conn.getResponseCode();
+		response.setStatus(Status.valueOf(status));
+		Series<Header> standardHeaders = new Series<Header>(Header.class);
+		for (Map.Entry<String, List<String>> h : conn.getHeaderFields().entrySet()) {
+			// Status line has a null name.
+			if (h.getKey() == null) {
+				continue;
+			}
+			String name = h.getKey().toLowerCase(Locale.ROOT);
+			if (SKIP_RESPONSE_HEADERS.contains(name)) {
+				continue;
+			}
+			for (String value : h.getValue()) {
+				if (LOCATION_HEADERS.contains(name)) {
+					value = rewriteLocation(value, backend, request);
+				}
+				if (STANDARD_RESPONSE_HEADERS.contains(name)) {
+					standardHeaders.add(h.getKey(), value);
+				} else {
+					response.getHeaders().add(h.getKey(), value);
+				}
+			}
+		}
+		HeaderUtils.copyResponseTransportHeaders(standardHeaders, response);
+		InputStream body = (status >= 400 ? conn.getErrorStream() : conn.getInputStream());
+		if (body != null) {
+			// Restlet reads the stream to the end and closes it, which returns the connection to the pool.
+			Representation entity = new InputRepresentation(body, null);
+			response.setEntity(HeaderUtils.extractEntityHeaders(standardHeaders, entity));
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Forwarded " + request.getMethod().getName() + " " + pathAndQuery + " for " + identity.getSubject()
+					+ " to " + backend + ": " + status);
+		}
+	}
+
+	/**
+	 * @return the location with the backend URL replaced by the host the client used, or the location as-is
+	 * when it does not point to the backend (e.g. a relative location or another host).
+	 */
+	static String rewriteLocation(String location, Backend backend, Request request) {
+
+		String backendUrl = backend.getUrl();
+		if (request.getHostRef() == null || !location.regionMatches(true, 0, backendUrl, 0, backendUrl.length())) {
+			return location;
+		}
+		String rest = location.substring(backendUrl.length());
+		if (!rest.isEmpty() && rest.charAt(0) != '/' && rest.charAt(0) != '?' && rest.charAt(0) != '#') {
+			// e.g. backend http://host:80 and location http://host:8080/
+			return location;
+		}
+		return request.getHostRef().getHostIdentifier() + rest;
+	}
+
+	static String getPathAndQuery(Reference ref) {
+
+		String path = ref.getPath();
+		if (path == null || path.isEmpty()) {
+			path = "/";
+		}
+		String query = ref.getQuery();
+		return (query == null ? path : path + "?" + query);
+	}
+
+	static Set<String> lowerCase(String... names) {
+
+		Set<String> s = new HashSet<String>();
+		for (String name : Arrays.asList(names)) {
+			s.add(name.toLowerCase(Locale.ROOT));
+		}
+		return s;
+	}
+
+	/**
+	 * A backend node with the time until which it is considered down.
+	 */
+	static class Backend {
+
+		private final String url;
+		private final AtomicLong downUntil = new AtomicLong();
+
+		public Backend(String url) {
+			this.url = url;
+		}
+
+		public String getUrl() { return url; }
+
+		public boolean isUp(long now) {
+			return downUntil.get() <= now;
+		}
+
+		public void markDown(long durationMs) {
+			downUntil.set(System.currentTimeMillis() + durationMs);
+		}
+
+		@Override
+		public String toString() {
+			return url;
+		}
+	}
+
+	public ClientIdentity.Cache getIdentities() { return identities; }
+	public int getConnectTimeoutMs() { return connectTimeoutMs; }
+	public void setConnectTimeoutMs(int connectTimeoutMs) { this.connectTimeoutMs = connectTimeoutMs; }
+	public int getReadTimeoutMs() { return readTimeoutMs; }
+	public void setReadTimeoutMs(int readTimeoutMs) { this.readTimeoutMs = readTimeoutMs; }
+	public long getRetryBackendMs() { return retryBackendMs; }
+	public void setRetryBackendMs(long retryBackendMs) { this.retryBackendMs = retryBackendMs; }
+
+}
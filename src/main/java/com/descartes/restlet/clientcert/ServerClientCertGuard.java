@@ -23,7 +23,14 @@ public class ServerClientCertGuard extends CertificateAuthenticator {
 	@Override
     protected boolean authenticate(Request request, Response response) {
     	
+		RequestTiming.mark(RequestTiming.Mark.AUTHENTICATION_START);
+		Object event = TlsEvents.beginAuthentication();
 		boolean authenticated = super.authenticate(request, response);
+		RequestTiming.mark(RequestTiming.Mark.AUTHENTICATION_END);
+		if (event != null) {
+			TlsEvents.endAuthentication(event, authenticated, 
+					(request.getClientInfo().getUser() == null ? null : request.getClientInfo().getUser().getName()));
+		}
 		if (authenticated && log.isDebugEnabled()) {
 			if (request.getClientInfo().getUser() == null) {
 				log.debug("Client certificate authenticated but no user found.");
@@ -1,7 +1,10 @@
 package com.descartes.restlet.clientcert;
 
+import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.Provider;
+import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
 import java.util.List;
 
@@ -25,7 +28,85 @@ public class ServerSslContextFactory extends DefaultSslContextFactory {
 	
 	private static final Logger log = LoggerFactory.getLogger(ServerSslContextFactory.class);
 
+	protected SSLContext sslContext;
 	protected DefaultSslContext wrappedCtx;
+	protected SessionTicketKeys sessionTicketKeys;
+	protected SecureRandom secureRandom;
+	protected OcspStapling ocspStapling;
+	protected KeyManager[] keyManagers;
+	protected TrustManager[] trustManagers;
+	protected Provider provider;
+	protected int lazyKeyCacheSize;
+	protected Path lazyKeyPackDir;
+
+	/**
+	 * The provider for the SSL context, key and trust manager factories, must be set before calling {@link #init(String, char[])}.
+	 * <br>Null (default) uses the default providers, see also {@link SslUtils#getProvider(String)}.
+	 * <br>With a {@link #setLazyKeyCacheSize(int) lazy key cache}, the key managers are not created by a key manager factory
+	 * and the provider is only used for the SSL context and the trust manager factory.
+	 */
+	public void setProvider(Provider provider) {
+		this.provider = provider;
+	}
+
+	public Provider getProvider() {
+		return provider;
+	}
+
+	/**
+	 * The secure random used by the SSL context, must be set before calling {@link #init(String, char[])}.
+	 * <br>Null (default) uses the default secure random, see also {@link SslUtils#createSecureRandom(String)}.
+	 */
+	public void setSecureRandom(SecureRandom secureRandom) {
+		this.secureRandom = secureRandom;
+	}
+
+	/**
+	 * Session ticket keys shared by all nodes in a cluster, must be set before calling {@link #init(String, char[])}.
+	 */
+	public void setSessionTicketKeys(SessionTicketKeys sessionTicketKeys) {
+		this.sessionTicketKeys = sessionTicketKeys;
+	}
+
+	public SessionTicketKeys getSessionTicketKeys() {
+		return sessionTicketKeys;
+	}
+
+	/**
+	 * OCSP responses to staple for the server certificate, must be set before calling {@link #init(String, char[])}.
+	 * <br>With a {@link #setLazyKeyCacheSize(int) lazy key cache}, only the default (non-SNI) server certificates are stapled.
+	 */
+	public void setOcspStapling(OcspStapling ocspStapling) {
+		this.ocspStapling = ocspStapling;
+	}
+
+	public OcspStapling getOcspStapling() {
+		return ocspStapling;
+	}
+
+	/**
+	 * When more than 0, keys are loaded from a {@link LazyKeyStore} that keeps at most this amount of decoded keys,
+	 * must be set before calling {@link #init(String, char[])}. Default 0 loads all keys from the key-store.
+	 */
+	public void setLazyKeyCacheSize(int lazyKeyCacheSize) {
+		this.lazyKeyCacheSize = lazyKeyCacheSize;
+	}
+
+	public int getLazyKeyCacheSize() {
+		return lazyKeyCacheSize;
+	}
+
+	/**
+	 * The directory for the key pack file of the {@link LazyKeyStore}, must be set before calling {@link #init(String, char[])}.
+	 * <br>Null (default) uses the directory of the key-store file, which must then be a writable file (not a resource in a jar).
+	 */
+	public void setLazyKeyPackDir(Path lazyKeyPackDir) {
+		this.lazyKeyPackDir = lazyKeyPackDir;
+	}
+
+	public Path getLazyKeyPackDir() {
+		return lazyKeyPackDir;
+	}
 
 	public void init(String certFileName, char[] certFilePwd) throws Exception {
 		
@@ -33,18 +114,100 @@ public class ServerSslContextFactory extends DefaultSslContextFactory {
 			log.debug("Loading certificates from [" + certFileName + "] and using " 
 					+ (certFilePwd != null && certFilePwd.length > 0 ? "a" : "no") + " password.");
 		}
-		Path certFilePath = Paths.get(Thread.currentThread().getContextClassLoader().getResource(certFileName).toURI());
-		KeyManagerFactory kmf = SslUtils.loadKeyStore(certFilePath, certFilePwd);
-		KeyManager[] kms = kmf.getKeyManagers();
-		List<X509Certificate> certs = SslUtils.getClientCaCerts(kms);
-		TrustManagerFactory tmf = SslUtils.createTrustStore(Constants.CERT_CA_ALIAS, certs.get(0));
-		TrustManager[] tms = tmf.getTrustManagers();
-		
+		URL certFileUrl = Thread.currentThread().getContextClassLoader().getResource(certFileName);
+		KeyManager[] kms = null;
+		X509Certificate caCert = null;
+		if (lazyKeyCacheSize > 0) {
+			Path packFile = (lazyKeyPackDir == null 
+					? LazyKeyStore.getPackFile(Paths.get(certFileUrl.toURI()), null) 
+					: lazyKeyPackDir.resolve(Paths.get(certFileName).getFileName() + LazyKeyStore.KEY_PACK_SUFFIX));
+			LazyKeyStore keyStore = LazyKeyStore.open(certFileUrl, packFile, certFilePwd, null, lazyKeyCacheSize);
+			kms = keyStore.createKeyManagers(null);
+			// Only decodes the chain of the first entry, not the chain of every tenant.
+			caCert = keyStore.getRootCertificate();
+		} else {
+			KeyManagerFactory kmf = SslUtils.loadKeyStore(Paths.get(certFileUrl.toURI()), certFilePwd, null, null, provider);
+			kms = kmf.getKeyManagers();
+			List<X509Certificate> certs = SslUtils.getClientCaCerts(kms);
+			caCert = (certs.isEmpty() ? null : certs.get(0));
+		}
+		if (caCert == null) {
+			throw new Exception("Cannot find CA (root) certificate in key store " + certFileName);
+		}
+		TrustManagerFactory tmf = SslUtils.createTrustStore(Constants.CERT_CA_ALIAS, caCert, provider);
+		init(kms, tmf.getTrustManagers());
+	}
+
+	/**
+	 * Initializes with key material that is already loaded, e.g. the key and trust managers of another factory
+	 * (see {@link #copy()}) so that the certificate file is loaded once for several HTTPS listeners.
+	 */
+	public void init(KeyManager[] kms, TrustManager[] tms) throws Exception {
+
 		super.setNeedClientAuthentication(true);
 		
-		SSLContext ctx = SSLContext.getInstance(SslUtils.DEFAULT_SSL_PROTOCOL);
-		ctx.init(kms, tms, null);
+		if (ocspStapling != null) {
+			OcspStapling.enableServerStapling();
+		}
+		SSLContext ctx = SslUtils.getSslContext(SslUtils.DEFAULT_SSL_PROTOCOL, provider);
+		ctx.init(kms, tms, secureRandom);
+		if (provider != null) {
+			log.info("Using SSL context from provider " + ctx.getProvider().getName());
+		}
+		if (ocspStapling != null && ocspStapling.register(ctx, kms)) {
+			log.info("Stapling OCSP responses for server certificates.");
+		}
+		if (sessionTicketKeys != null && sessionTicketKeys.register(ctx)) {
+			log.info("Using shared session ticket keys from [" + sessionTicketKeys.getKeyFile() + "]");
+		}
+		sslContext = ctx;
 		wrappedCtx = (DefaultSslContext) createWrapper(ctx);
+		keyManagers = kms;
+		trustManagers = tms;
+	}
+
+	/**
+	 * Creates a new factory with its own SSL context that shares the key material, provider, secure random,
+	 * session ticket keys and OCSP stapling of this (initialized) factory.
+	 * Each SSL context has its own session cache.
+	 */
+	public ServerSslContextFactory copy() throws Exception {
+
+		if (keyManagers == null) {
+			throw new IllegalStateException("SSL context factory is not initialized.");
+		}
+		ServerSslContextFactory copy = new ServerSslContextFactory();
+		copy.setProvider(provider);
+		copy.setSecureRandom(secureRandom);
+		copy.setSessionTicketKeys(sessionTicketKeys);
+		copy.setOcspStapling(ocspStapling);
+		copy.init(keyManagers, trustManagers);
+		return copy;
+	}
+
+	/**
+	 * Unregisters the SSL context from the OCSP stapling and session ticket keys,
+	 * for a factory (e.g. a {@link #copy()} for a temporary listener) that is no longer used.
+	 */
+	public void release() {
+
+		if (sslContext == null) {
+			return;
+		}
+		if (ocspStapling != null) {
+			ocspStapling.unregister(sslContext);
+		}
+		if (sessionTicketKeys != null) {
+			sessionTicketKeys.unregister(sslContext);
+		}
+	}
+
+	public KeyManager[] getKeyManagers() {
+		return keyManagers;
+	}
+
+	public TrustManager[] getTrustManagers() {
+		return trustManagers;
 	}
 	
     @Override
@@ -0,0 +1,171 @@
+package com.descartes.restlet.clientcert;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warms up a server before it accepts real clients.
+ * <br>On a fresh JVM the TLS, certificate and authentication code paths are interpreted (not yet compiled)
+ * which makes the first handshakes and requests several times slower. The warm-up runs
+ * full mTLS handshakes and (resumed) requests over the loopback interface using the configured client certificate,
+ * so that the code paths in the {@code HttpsServerHelper2}, {@link ServerClientCertGuard} and the crypto providers
+ * are compiled before real clients connect. Run the warm-up against a listener on the loopback address
+ * that is started (and stopped) before the listeners for real clients are started.
+ * <br>The requests on resumed sessions are sent after all full handshakes are done and one session is established.
+ * <br>Configured with the system properties {@link #HANDSHAKES_PROPERTY}, {@link #REQUESTS_PROPERTY}
+ * and {@link #THREADS_PROPERTY}.
+ */
+public class ServerWarmup {
+
+	private static final Logger log = LoggerFactory.getLogger(ServerWarmup.class);
+
+	/** Amount of full handshakes (each followed by one request), 0 (default) for no warm-up. */
+	public static final String HANDSHAKES_PROPERTY = "warmup.handshakes";
+	/** Amount of requests on resumed sessions, defaults to 0. */
+	public static final String REQUESTS_PROPERTY = "warmup.requests";
+	/** Amount of threads sending handshakes and requests, defaults to the amount of processors. */
+	public static final String THREADS_PROPERTY = "warmup.threads";
+
+	private final String path;
+	private int handshakes;
+	private int requests;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * @param path the path to request (e.g. "/trace").
+	 */
+	public ServerWarmup(String path) {
+		super();
+		this.path = path;
+	}
+
+	/**
+	 * Creates a warm-up with settings from the system properties.
+	 */
+	public static ServerWarmup fromSystemProperties(String path) {
+
+		ServerWarmup warmup = new ServerWarmup(path);
+		warmup.setHandshakes(Integer.getInteger(HANDSHAKES_PROPERTY, 0));
+		warmup.setRequests(Integer.getInteger(REQUESTS_PROPERTY, 0));
+		warmup.setThreads(Integer.getInteger(THREADS_PROPERTY, warmup.getThreads()));
+		return warmup;
+	}
+
+	public boolean isEnabled() {
+		return (handshakes > 0 || requests > 0);
+	}
+
+	/**
+	 * Runs the warm-up, waits for all handshakes and requests to finish.
+	 * @param clientContext SSL context with the client certificate accepted by the server.
+	 * @param port the local port the server listens on (on the loopback address).
+	 * @return the duration of the warm-up in milliseconds.
+	 */
+	public long run(SSLContext clientContext, int port) throws Exception {
+
+		long start = System.currentTimeMillis();
+		SSLSocketFactory socketFactory = clientContext.getSocketFactory();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Callable<Boolean>> fullHandshakes = new ArrayList<Callable<Boolean>>();
+			for (int i = 0; i < handshakes; i++) {
+				fullHandshakes.add(new Request(socketFactory, port, true));
+			}
+			int failed = count(executor.invokeAll(fullHandshakes));
+			if (requests > 0) {
+				// Establish the session to resume, full handshakes invalidate their sessions.
+				failed += (new Request(socketFactory, port, false).call() ? 0 : 1);
+				List<Callable<Boolean>> resumed = new ArrayList<Callable<Boolean>>();
+				for (int i = 1; i < requests; i++) {
+					resumed.add(new Request(socketFactory, port, false));
+				}
+				failed += count(executor.invokeAll(resumed));
+			}
+			long duration = System.currentTimeMillis() - start;
+			log.info("Warm-up with " + handshakes + " full handshakes and " + requests + " resumed requests using " + threads
+					+ " threads took " + duration + " ms" + (failed > 0 ? " (" + failed + " failed)." : "."));
+			return duration;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return the amount of failed requests.
+	 */
+	static int count(List<Future<Boolean>> results) throws Exception {
+
+		int failed = 0;
+		for (Future<Boolean> result : results) {
+			if (!result.get()) {
+				failed++;
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Sends one HTTP request on a new connection and reads the response.
+	 */
+	class Request implements Callable<Boolean> {
+
+		private final SSLSocketFactory socketFactory;
+		private final int port;
+		private final boolean fullHandshake;
+
+		public Request(SSLSocketFactory socketFactory, int port, boolean fullHandshake) {
+			this.socketFactory = socketFactory;
+			this.port = port;
+			this.fullHandshake = fullHandshake;
+		}
+
+		@Override
+		public Boolean call() {
+
+			try (SSLSocket socket = (SSLSocket) socketFactory.createSocket(InetAddress.getLoopbackAddress(), port)) {
+				OutputStream out = socket.getOutputStream();
+				out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost:" + port
+						+ "\r\nAccept: text/plain\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+				out.flush();
+				InputStream in = socket.getInputStream();
+				byte[] buf = new byte[1024];
+				int read = in.read(buf);
+				boolean ok = (read > 12 && new String(buf, 0, 12, StandardCharsets.US_ASCII).endsWith(" 200"));
+				while (read != -1) {
+					read = in.read(buf);
+				}
+				if (fullHandshake) {
+					// Next connection cannot resume this session.
+					socket.getSession().invalidate();
+				}
+				return ok;
+			} catch (Exception e) {
+				log.debug("Warm-up request failed - " + e);
+				return false;
+			}
+		}
+	}
+
+	public int getHandshakes() { return handshakes; }
+	public void setHandshakes(int handshakes) { this.handshakes = handshakes; }
+	public int getRequests() { return requests; }
+	public void setRequests(int requests) { this.requests = requests; }
+	public int getThreads() { return threads; }
+	public void setThreads(int threads) { this.threads = Math.max(1, threads); }
+
+}
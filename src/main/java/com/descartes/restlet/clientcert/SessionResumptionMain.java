@@ -0,0 +1,234 @@
+package com.descartes.restlet.clientcert;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+
+import org.restlet.Component;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.data.MediaType;
+import org.restlet.engine.Engine;
+import org.restlet.engine.connector.HttpsServerHelper2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shows the cross-node session resumption rate for a cluster of server nodes on the loopback interface.
+ * <br>Each node is a Restlet component with a {@link HttpsServerHelper2} and its own SSL context from a
+ * {@link ServerSslContextFactory} (as if running in a separate JVM) and reads the same session ticket key file.
+ * A client connects to a round-robin load-balancer in front of the nodes,
+ * so that the client offers the session ticket received from one node to the next node.
+ * <br>Arguments (all optional): amount of nodes (default 3), amount of connections (default 100)
+ * and {@code noshare} to let each node use its own ticket keys.
+ * <br>Run with the JVM options mentioned in {@link JsseTicketKeyInstaller}.
+ */
+public class SessionResumptionMain {
+
+	static {
+		Constants.configureLogging();
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(SessionResumptionMain.class);
+
+	public static void main(String[] args) {
+
+		try {
+			int nodes = (args.length > 0 ? Integer.parseInt(args[0]) : 3);
+			int connections = (args.length > 1 ? Integer.parseInt(args[1]) : 100);
+			boolean shareKeys = !(args.length > 2 && "noshare".equalsIgnoreCase(args[2]));
+			new SessionResumptionMain().run(nodes, connections, shareKeys);
+		} catch (Exception e) {
+			log.error("Session resumption test failed.", e);
+		}
+	}
+
+	final String certFileName = Constants.CERT_TEST_FILE_NAME;
+	final char[] certFilePwd =  Constants.CERT_TEST_PWD;
+
+	public void run(int nodeCount, int connections, boolean shareKeys) throws Exception {
+
+		// Load the key-store as resource stream so that this also works from a jar.
+		KeyManager[] kms = null;
+		try (InputStream storeIn = Thread.currentThread().getContextClassLoader().getResourceAsStream(certFileName)) {
+			if (storeIn == null) {
+				throw new IOException("Cannot find key-store resource " + certFileName);
+			}
+			kms = SslUtils.loadKeyStore(storeIn, certFilePwd, null, null).getKeyManagers();
+		}
+		TrustManager[] tms = SslUtils.createTrustStore(Constants.CERT_CA_ALIAS, SslUtils.getClientCaCerts(kms).get(0)).getTrustManagers();
+
+		Engine.getInstance().getRegisteredServers().add(new HttpsServerHelper2(null));
+		Path keyFile = Files.createTempFile("session-ticket-keys", ".txt");
+		List<Component> nodes = new ArrayList<Component>();
+		List<Integer> ports = new ArrayList<Integer>();
+		Balancer balancer = null;
+		try {
+			SessionTicketKeys.writeKeyFile(keyFile, 4);
+			for (int i = 0; i < nodeCount; i++) {
+				ServerSslContextFactory sslCtx = new ServerSslContextFactory();
+				if (shareKeys) {
+					sslCtx.setSessionTicketKeys(new SessionTicketKeys(keyFile));
+				}
+				sslCtx.init(kms, tms);
+				int port = getFreePort();
+				Component node = new Component();
+				new HttpsListener("node" + i, port, null, null, null).createServer(node, sslCtx);
+				node.getDefaultHost().attachDefault(new Restlet() {
+					@Override public void handle(Request request, Response response) {
+						response.setEntity("OK", MediaType.TEXT_PLAIN);
+					}
+				});
+				node.start();
+				nodes.add(node);
+				ports.add(port);
+			}
+			balancer = new Balancer(ports);
+			balancer.start();
+			SSLContext clientCtx = SslUtils.getSslContext(SslUtils.DEFAULT_SSL_PROTOCOL, null);
+			clientCtx.init(kms, tms, null);
+			int resumed = 0;
+			for (int i = 0; i < connections; i++) {
+				long connecting = System.currentTimeMillis();
+				try (SSLSocket socket = (SSLSocket) clientCtx.getSocketFactory().createSocket(InetAddress.getLoopbackAddress(), balancer.getPort())) {
+					get(socket);
+					// A resumed session was created before the connection was made.
+					if (socket.getSession().getCreationTime() < connecting) {
+						resumed++;
+					}
+				}
+			}
+			// The first connection can never be resumed, all other connections go to another node than the previous connection.
+			log.info(String.format("Shared keys: %s, nodes: %d, connections: %d, resumed on another node: %d (%.1f%%)",
+					shareKeys, nodeCount, connections, resumed, (connections > 1 ? resumed * 100.0 / (connections - 1) : 0.0)));
+		} finally {
+			if (balancer != null) {
+				balancer.close();
+			}
+			for (Component node : nodes) {
+				node.stop();
+			}
+			Files.deleteIfExists(keyFile);
+		}
+	}
+
+	/**
+	 * Sends a request and reads the response until the server closes the connection.
+	 * Reading the response also receives the session ticket (TLS 1.3 sends tickets after the handshake).
+	 */
+	static void get(SSLSocket socket) throws IOException {
+
+		OutputStream out = socket.getOutputStream();
+		out.write("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+		InputStream in = socket.getInputStream();
+		byte[] buf = new byte[1024];
+		while (in.read(buf) != -1) {
+			// wait for close
+		}
+	}
+
+	static int getFreePort() throws IOException {
+
+		try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			return socket.getLocalPort();
+		}
+	}
+
+	/**
+	 * Forwards each connection to the next node.
+	 */
+	static class Balancer extends Thread {
+
+		private final List<Integer> ports;
+		private final ServerSocket serverSocket;
+
+		public Balancer(List<Integer> ports) throws IOException {
+			super("balancer");
+			setDaemon(true);
+			this.ports = ports;
+			serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		}
+
+		public int getPort() {
+			return serverSocket.getLocalPort();
+		}
+
+		@Override
+		public void run() {
+
+			int next = 0;
+			while (!serverSocket.isClosed()) {
+				try {
+					Socket client = serverSocket.accept();
+					Socket node = new Socket(InetAddress.getLoopbackAddress(), ports.get(next++ % ports.size()));
+					new Pipe(client, node).start();
+					new Pipe(node, client).start();
+				} catch (Exception e) {
+					if (!serverSocket.isClosed()) {
+						log.debug("Forwarding failed - " + e);
+					}
+				}
+			}
+		}
+
+		public void close() {
+			try {
+				serverSocket.close();
+			} catch (Exception ignored) {
+				// closing
+			}
+		}
+	}
+
+	static class Pipe extends Thread {
+
+		private final Socket from;
+		private final Socket to;
+
+		public Pipe(Socket from, Socket to) {
+			super("pipe");
+			setDaemon(true);
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public void run() {
+
+			byte[] buf = new byte[8192];
+			try {
+				InputStream in = from.getInputStream();
+				OutputStream out = to.getOutputStream();
+				int read = 0;
+				while ((read = in.read(buf)) != -1) {
+					out.write(buf, 0, read);
+				}
+			} catch (IOException ignored) {
+				// connection closed
+			} finally {
+				try {
+					from.close();
+					to.close();
+				} catch (IOException ignored) {
+					// closing
+				}
+			}
+		}
+	}
+
+}
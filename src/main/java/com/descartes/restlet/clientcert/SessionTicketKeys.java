@@ -0,0 +1,269 @@
+package com.descartes.restlet.clientcert;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Session ticket encryption keys shared by all nodes in a cluster, so that a session ticket issued
+ * by one node can be used to resume the session on any other node.
+ * <br>The keys are loaded from a local key file that is the same on all nodes. Each line in the file has the format
+ * <br>{@code <key-id>=<key in hex>}
+ * <br>where the key-id is an integer and the key is 16 or 32 random bytes (see {@link #writeKeyFile(Path, int)}).
+ * Empty lines and lines starting with {@code #} are ignored.
+ * <br>Time is divided in rotation periods: in each period the next key (ordered by key-id) is used to issue tickets.
+ * Since all nodes use the same file and (roughly) the same clock, all nodes issue tickets with the same key.
+ * The key of the previous period is still accepted. The key of the next period is also accepted so that
+ * small clock differences between nodes do not matter. The key file is re-read at the start of each period
+ * so it can be replaced (with new keys) without a restart.
+ * <br>The JSSE has no public API to set ticket keys, {@link JsseTicketKeyInstaller} is used to install the keys
+ * in the registered SSL contexts. When installing fails, each SSL context keeps using its own keys.
+ * <br>The JSSE keeps the current key-id in a JVM-global variable: all server SSL contexts in the JVM that issue
+ * session tickets should be registered with the same instance (e.g. via {@link ServerSslContextFactory#copy()}).
+ */
+public class SessionTicketKeys {
+
+	private static final Logger log = LoggerFactory.getLogger(SessionTicketKeys.class);
+
+	/** Default rotation period of one hour. */
+	public static final long DEFAULT_ROTATION_PERIOD_MS = 3600L * 1000L;
+
+	private final Path keyFile;
+	private final long rotationPeriodMs;
+	private final List<SSLContext> contexts = new CopyOnWriteArrayList<SSLContext>();
+	private volatile TreeMap<Integer, byte[]> keys;
+	private volatile long keyFileModified;
+	private ScheduledExecutorService rotator;
+
+	public SessionTicketKeys(Path keyFile) throws IOException {
+		this(keyFile, DEFAULT_ROTATION_PERIOD_MS);
+	}
+
+	public SessionTicketKeys(Path keyFile, long rotationPeriodMs) throws IOException {
+		super();
+		if (rotationPeriodMs < 1000L) {
+			throw new IllegalArgumentException("Rotation period must be at least 1 second, not " + rotationPeriodMs + " ms.");
+		}
+		this.keyFile = keyFile;
+		this.rotationPeriodMs = rotationPeriodMs;
+		reload();
+	}
+
+	/**
+	 * Registers a server SSL context (must be initialized) and installs the current keys in the context.
+	 * <br>Note that the JSSE keeps track of the current key-id in a global variable: installing keys changes
+	 * the current key-id for all server SSL contexts in the JVM, these should all use the same keys.
+	 * @return false if keys could not be installed (see {@link JsseTicketKeyInstaller}).
+	 */
+	public boolean register(SSLContext serverContext) {
+
+		boolean installed = install(serverContext, System.currentTimeMillis());
+		if (installed) {
+			contexts.add(serverContext);
+		}
+		return installed;
+	}
+
+	/**
+	 * Stops installing keys in the SSL context, e.g. for a temporary SSL context that is no longer used.
+	 */
+	public void unregister(SSLContext serverContext) {
+		contexts.remove(serverContext);
+	}
+
+	/**
+	 * Starts a background thread that rotates the keys at the start of each rotation period.
+	 */
+	public synchronized void start() {
+
+		if (rotator != null) {
+			return;
+		}
+		rotator = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "session-ticket-key-rotator");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long now = System.currentTimeMillis();
+		long initialDelay = rotationPeriodMs - (now % rotationPeriodMs);
+		rotator.scheduleAtFixedRate(new Runnable() {
+			@Override public void run() {
+				rotate();
+			}
+		}, initialDelay, rotationPeriodMs, TimeUnit.MILLISECONDS);
+		log.info("Rotating " + keys.size() + " session ticket keys from [" + keyFile.getFileName() + "] every " + rotationPeriodMs + " ms.");
+	}
+
+	public synchronized void stop() {
+
+		if (rotator != null) {
+			rotator.shutdownNow();
+			rotator = null;
+		}
+	}
+
+	/**
+	 * Re-reads the key file (when modified) and installs the keys for the current period in all registered contexts.
+	 */
+	public void rotate() {
+
+		try {
+			reload();
+		} catch (Exception e) {
+			log.error("Failed to reload session ticket keys from [" + keyFile + "], keeping previously loaded keys.", e);
+		}
+		long now = System.currentTimeMillis();
+		for (SSLContext ctx : contexts) {
+			install(ctx, now);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Session ticket key " + getKeyId(now, 0) + " active for " + contexts.size() + " SSL context(s).");
+		}
+	}
+
+	protected boolean install(SSLContext ctx, long now) {
+
+		long expires = (now - (now % rotationPeriodMs)) + 2 * rotationPeriodMs;
+		int previous = getKeyId(now, -1);
+		int next = getKeyId(now, 1);
+		int current = getKeyId(now, 0);
+		return JsseTicketKeyInstaller.install(ctx, new int[] { previous, current, next },
+				new byte[][] { keys.get(previous), keys.get(current), keys.get(next) },
+				new long[] { expires - rotationPeriodMs, expires, expires + rotationPeriodMs }, current);
+	}
+
+	/**
+	 * @param periodOffset -1 for the previous period, 0 for the current period, 1 for the next period.
+	 * @return the key-id to use in the given period.
+	 */
+	public int getKeyId(long timeMs, int periodOffset) {
+
+		Integer[] ids = keys.keySet().toArray(new Integer[0]);
+		long period = (timeMs / rotationPeriodMs) + periodOffset;
+		return ids[(int) (period % ids.length)];
+	}
+
+	public Path getKeyFile() { return keyFile; }
+	public long getRotationPeriodMs() { return rotationPeriodMs; }
+
+	protected void reload() throws IOException {
+
+		long modified = Files.getLastModifiedTime(keyFile).toMillis();
+		if (keys != null && modified == keyFileModified) {
+			return;
+		}
+		keys = readKeyFile(keyFile);
+		keyFileModified = modified;
+		log.info("Loaded " + keys.size() + " session ticket keys from [" + keyFile.getFileName() + "]");
+	}
+
+	/**
+	 * Reads a key file, see {@link SessionTicketKeys} for the format.
+	 * @return key-ids (sorted) with keys.
+	 */
+	public static TreeMap<Integer, byte[]> readKeyFile(Path keyFile) throws IOException {
+
+		TreeMap<Integer, byte[]> keys = new TreeMap<Integer, byte[]>();
+		try (BufferedReader in = Files.newBufferedReader(keyFile, StandardCharsets.UTF_8)) {
+			String line = null;
+			int lineNumber = 0;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				int i = line.indexOf('=');
+				byte[] key = (i < 1 ? null : fromHex(line.substring(i + 1).trim()));
+				if (key == null || (key.length != 16 && key.length != 32)) {
+					throw new IOException("Invalid session ticket key on line " + lineNumber + " in " + keyFile);
+				}
+				try {
+					keys.put(Integer.valueOf(line.substring(0, i).trim()), key);
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid session ticket key-id on line " + lineNumber + " in " + keyFile);
+				}
+			}
+		}
+		if (keys.isEmpty()) {
+			throw new IOException("No session ticket keys found in " + keyFile);
+		}
+		return keys;
+	}
+
+	/**
+	 * Writes a new key file with random 32 byte keys. The file can be copied to all nodes in a cluster.
+	 */
+	public static void writeKeyFile(Path keyFile, int amount) throws IOException {
+
+		SecureRandom random = new SecureRandom();
+		int firstId = random.nextInt(Integer.MAX_VALUE - amount);
+		try (BufferedWriter out = Files.newBufferedWriter(keyFile, StandardCharsets.UTF_8)) {
+			out.write("# Session ticket keys, see " + SessionTicketKeys.class.getName());
+			out.newLine();
+			for (int i = 0; i < amount; i++) {
+				byte[] key = new byte[32];
+				random.nextBytes(key);
+				out.write(Integer.toString(firstId + i) + "=" + toHex(key));
+				out.newLine();
+			}
+		}
+	}
+
+	static String toHex(byte[] b) {
+
+		StringBuilder sb = new StringBuilder(b.length * 2);
+		for (int i = 0; i < b.length; i++) {
+			sb.append(Character.forDigit((b[i] >> 4) & 0xF, 16)).append(Character.forDigit(b[i] & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return null if the string is not valid hex.
+	 */
+	static byte[] fromHex(String s) {
+
+		if (s.length() % 2 != 0) {
+			return null;
+		}
+		byte[] b = new byte[s.length() / 2];
+		for (int i = 0; i < b.length; i++) {
+			int high = Character.digit(s.charAt(i * 2), 16);
+			int low = Character.digit(s.charAt(i * 2 + 1), 16);
+			if (high < 0 || low < 0) {
+				return null;
+			}
+			b[i] = (byte) ((high << 4) | low);
+		}
+		return b;
+	}
+
+	/** Used for logging, does not show key material. */
+	@Override
+	public String toString() {
+
+		Map<Integer, byte[]> k = keys;
+		return "Session ticket keys from [" + keyFile + "]: " + k.keySet() + ", rotation period " + rotationPeriodMs + " ms";
+	}
+
+}
@@ -7,6 +7,12 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.KeyStore;
 import java.security.KeyStore.LoadStoreParameter;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.Security;
 import java.security.cert.X509Certificate;
 import java.util.Collections;
 import java.util.HashMap;
@@ -41,11 +47,126 @@ public class SslUtils {
 	 */
 	public static final String DEFAULT_SSL_PROTOCOL = "TLSv1.2";
 
+	/**
+	 * Secure random algorithm that never blocks while seeding (reads {@code /dev/urandom}).
+	 * Available on Linux/Unix with Java 8 and later, see {@link #createSecureRandom(String)}.
+	 */
+	public static final String NON_BLOCKING_SECURE_RANDOM = "NativePRNGNonBlocking";
+
+	/**
+	 * Creates a secure random to use with {@link SSLContext#init(KeyManager[], javax.net.ssl.TrustManager[], SecureRandom)}.
+	 * <br>The default secure random can block while gathering entropy for the seed, 
+	 * which can make the first handshakes on a fresh JVM slow. 
+	 * @param algorithm null for the default or an algorithm name like {@link #NON_BLOCKING_SECURE_RANDOM} or "SHA1PRNG".
+	 * @return the secure random for the algorithm, or null (use default) when the algorithm is null or not available.
+	 */
+	public static SecureRandom createSecureRandom(String algorithm) {
+		
+		if (isEmpty(algorithm)) {
+			return null;
+		}
+		SecureRandom random = null;
+		try {
+			random = SecureRandom.getInstance(algorithm);
+			log.debug("Using secure random " + algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			log.warn("Secure random algorithm " + algorithm + " not available, using default.");
+		}
+		return random;
+	}
+
+	/**
+	 * Finds a security provider to use with the methods in this class that have a provider parameter.
+	 * @param nameOrClass the name of an installed provider (e.g. "SunJSSE") or the class name of a provider 
+	 * on the class-path (e.g. "org.bouncycastle.jsse.provider.BouncyCastleJsseProvider"). 
+	 * A provider loaded by class name is installed with the lowest preference, 
+	 * so that the algorithms it depends on can be found.
+	 * @return null (use the default providers) when nameOrClass is empty.
+	 * @throws NoSuchProviderException when the provider is not installed and cannot be loaded.
+	 */
+	public static Provider getProvider(String nameOrClass) throws NoSuchProviderException {
+
+		if (isEmpty(nameOrClass)) {
+			return null;
+		}
+		nameOrClass = nameOrClass.trim();
+		Provider provider = Security.getProvider(nameOrClass);
+		if (provider != null) {
+			return provider;
+		}
+		try {
+			provider = (Provider) Class.forName(nameOrClass).getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			NoSuchProviderException npe = new NoSuchProviderException("Security provider " + nameOrClass + " is not installed and cannot be loaded - " + e);
+			npe.initCause(e);
+			throw npe;
+		}
+		Provider installed = Security.getProvider(provider.getName());
+		if (installed == null) {
+			Security.addProvider(provider);
+			log.info("Installed security provider " + provider.getName() + " " + provider.getVersionStr());
+		} else {
+			provider = installed;
+		}
+		return provider;
+	}
+
+	/**
+	 * @param provider null for the default providers.
+	 */
+	public static SSLContext getSslContext(String sslProtocol, Provider provider) throws NoSuchAlgorithmException {
+		return (provider == null ? SSLContext.getInstance(sslProtocol) : SSLContext.getInstance(sslProtocol, provider));
+	}
+
+	/**
+	 * @param provider null for the default providers. 
+	 * If the provider does not support the algorithm, the first key manager factory algorithm of the provider is used
+	 * and a warning is logged (e.g. the default "SunX509" is not available from other JSSE providers).
+	 * @throws NoSuchAlgorithmException if the provider has no key manager factory at all.
+	 */
+	public static KeyManagerFactory getKeyManagerFactory(String algorithm, Provider provider) throws NoSuchAlgorithmException {
+		return (provider == null ? KeyManagerFactory.getInstance(algorithm) 
+				: KeyManagerFactory.getInstance(getServiceAlgorithm(provider, "KeyManagerFactory", algorithm), provider));
+	}
+
+	/**
+	 * @param provider null for the default providers.
+	 * If the provider does not support the algorithm, the first trust manager factory algorithm of the provider is used
+	 * and a warning is logged.
+	 * @throws NoSuchAlgorithmException if the provider has no trust manager factory at all.
+	 */
+	public static TrustManagerFactory getTrustManagerFactory(String algorithm, Provider provider) throws NoSuchAlgorithmException {
+		return (provider == null ? TrustManagerFactory.getInstance(algorithm) 
+				: TrustManagerFactory.getInstance(getServiceAlgorithm(provider, "TrustManagerFactory", algorithm), provider));
+	}
+
+	static String getServiceAlgorithm(Provider provider, String type, String algorithm) throws NoSuchAlgorithmException {
+
+		if (provider.getService(type, algorithm) != null) {
+			return algorithm;
+		}
+		for (Provider.Service service : provider.getServices()) {
+			if (type.equals(service.getType())) {
+				log.warn("Provider " + provider.getName() + " has no " + type + " " + algorithm + ", using " + service.getAlgorithm() + " instead.");
+				return service.getAlgorithm();
+			}
+		}
+		throw new NoSuchAlgorithmException("Provider " + provider.getName() + " has no " + type);
+	}
+
 	/**
 	 * Creates a default SSL context with an empty key-store and the default JRE trust-store.
 	 */
 	public static SSLContext createDefaultSslContext() throws Exception {
-		return createSslContext(null, null, null, null);
+		return createDefaultSslContext(null);
+	}
+
+	/**
+	 * See {@link #createDefaultSslContext()}.
+	 * @param provider the provider for the SSL context, key and trust manager factories, null for the default providers.
+	 */
+	public static SSLContext createDefaultSslContext(Provider provider) throws Exception {
+		return createSslContext(null, null, null, null, DEFAULT_SSL_PROTOCOL, provider);
 	}
 	/**
 	 * Creates a default SSL socket factory.
@@ -78,11 +199,21 @@ public class SslUtils {
 	 */
 	public static SSLContext createSslContext(Path keyStoreFile, String keyStorePwd, 
 			Path trustStoreFile, String trustStorePwd, String sslProtocol) throws Exception {
+		return createSslContext(keyStoreFile, keyStorePwd, trustStoreFile, trustStorePwd, sslProtocol, null);
+	}
+
+	/**
+	 * See {@link #createSslContext(Path, String, Path, String)}.
+	 * @param sslProtocol a value from {@link #SSL_PROTOCOLS}.
+	 * @param provider the provider for the SSL context, key and trust manager factories, null for the default providers.
+	 */
+	public static SSLContext createSslContext(Path keyStoreFile, String keyStorePwd, 
+			Path trustStoreFile, String trustStorePwd, String sslProtocol, Provider provider) throws Exception {
 		
-        KeyManagerFactory kmf = loadKeyStore(keyStoreFile, keyStorePwd == null ? null : keyStorePwd.toCharArray());
-		TrustManagerFactory tmf = loadTrustStore(trustStoreFile, trustStorePwd == null ? null : trustStorePwd.toCharArray());
+        KeyManagerFactory kmf = loadKeyStore(keyStoreFile, keyStorePwd == null ? null : keyStorePwd.toCharArray(), null, null, provider);
+		TrustManagerFactory tmf = loadTrustStore(trustStoreFile, trustStorePwd == null ? null : trustStorePwd.toCharArray(), null, null, provider);
         //set an Authenticator to generate username and password
-        SSLContext ctx = SSLContext.getInstance(sslProtocol);
+        SSLContext ctx = getSslContext(sslProtocol, provider);
         ctx.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
         return ctx;
 	}
@@ -105,14 +236,23 @@ public class SslUtils {
 	 */
 	public static SSLContext createSslContextFromClientKeyStore(Path keyStoreFile, String keyStorePwd, 
 			String caAlias, String sslProtocol) throws Exception {
+		return createSslContextFromClientKeyStore(keyStoreFile, keyStorePwd, caAlias, sslProtocol, null);
+	}
+
+	/**
+	 * See {@link #createSslContextFromClientKeyStore(Path, String, String, String)}.
+	 * @param provider the provider for the SSL context, key and trust manager factories, null for the default providers.
+	 */
+	public static SSLContext createSslContextFromClientKeyStore(Path keyStoreFile, String keyStorePwd, 
+			String caAlias, String sslProtocol, Provider provider) throws Exception {
 	
-        KeyManagerFactory kmf = loadKeyStore(keyStoreFile, keyStorePwd == null ? null : keyStorePwd.toCharArray());
+        KeyManagerFactory kmf = loadKeyStore(keyStoreFile, keyStorePwd == null ? null : keyStorePwd.toCharArray(), null, null, provider);
         List<X509Certificate> certs = getClientCaCerts(kmf.getKeyManagers());
         if (certs.size() < 1) {
         	throw new Exception("Cannot find CA (root) certificate in key-managers from key store "  + keyStoreFile.getFileName());
         }
-        TrustManagerFactory tmf = createTrustStore(caAlias, certs.get(0));
-        SSLContext ctx = SSLContext.getInstance(sslProtocol);
+        TrustManagerFactory tmf = createTrustStore(caAlias, certs.get(0), provider);
+        SSLContext ctx = getSslContext(sslProtocol, provider);
         ctx.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
         return ctx;
 	}
@@ -127,13 +267,21 @@ public class SslUtils {
 
 	public static KeyManagerFactory loadKeyStore(Path storeFile, char[] storePwd, 
 			String storeType, String algorithm) throws Exception {
+		return loadKeyStore(storeFile, storePwd, storeType, algorithm, null);
+	}
+
+	/**
+	 * @param provider the provider for the key manager factory, null for the default providers.
+	 */
+	public static KeyManagerFactory loadKeyStore(Path storeFile, char[] storePwd, 
+			String storeType, String algorithm, Provider provider) throws Exception {
 		
 		KeyManagerFactory kmf = null;
 		if (storeFile == null) {
-			kmf = loadKeyStore((InputStream)null, storePwd, storeType, algorithm);
+			kmf = loadKeyStore((InputStream)null, storePwd, storeType, algorithm, provider);
 		} else {
 			try (InputStream storeIn = Files.newInputStream(storeFile)) {
-				kmf = loadKeyStore(storeIn, storePwd, storeType, algorithm);
+				kmf = loadKeyStore(storeIn, storePwd, storeType, algorithm, provider);
 				log.info("Initialized certificate key-store from ["  + storeFile.getFileName() + "]");
 			}
 		}
@@ -142,6 +290,14 @@ public class SslUtils {
 	
 	public static KeyManagerFactory loadKeyStore(InputStream storeIn, char[] storePwd, 
 			String storeType, String algorithm) throws Exception {
+		return loadKeyStore(storeIn, storePwd, storeType, algorithm, null);
+	}
+
+	/**
+	 * @param provider the provider for the key manager factory, null for the default providers.
+	 */
+	public static KeyManagerFactory loadKeyStore(InputStream storeIn, char[] storePwd, 
+			String storeType, String algorithm, Provider provider) throws Exception {
 		
 		if (storePwd == null && storeIn != null) {
 			storePwd = "changeit".toCharArray();
@@ -156,9 +312,11 @@ public class SslUtils {
 			log.debug("Using default key store algorithm " + algorithm);
 		}
 		KeyManagerFactory kmf = null;
+		Object event = TlsEvents.beginStoreLoad();
        	KeyStore keyStore = loadStore(storeIn, storePwd, storeType);
-		kmf = KeyManagerFactory.getInstance(algorithm);
+		kmf = getKeyManagerFactory(algorithm, provider);
 		kmf.init(keyStore, storePwd);
+		TlsEvents.endStoreLoad(event, false, storeType, algorithm, keyStore);
 		if (storeIn == null) {
 			log.info("Initialized a default certificate key-store");
 		}
@@ -172,15 +330,49 @@ public class SslUtils {
 	 * @return an initialized trust manager factory.
 	 */
 	public static TrustManagerFactory createTrustStore(String certAlias, X509Certificate caCert) throws Exception {
+		return createTrustStore(certAlias, caCert, null);
+	}
+
+	/**
+	 * See {@link #createTrustStore(String, X509Certificate)}.
+	 * @param provider the provider for the trust manager factory, null for the default providers.
+	 */
+	public static TrustManagerFactory createTrustStore(String certAlias, X509Certificate caCert, Provider provider) throws Exception {
 		
 		KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
 		ks.load((LoadStoreParameter)null); // must initialize the key-store
 		ks.setCertificateEntry(certAlias, caCert);
-		TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		TrustManagerFactory tmf = getTrustManagerFactory(TrustManagerFactory.getDefaultAlgorithm(), provider);
 		tmf.init(ks);
 		return tmf;
 	}
 
+	/**
+	 * Creates a key-store with one private key and its certificate chain (e.g. from {@link TestCertificateAuthority}).
+	 * @param keyAlias the alias for the key (e.g. "client1")
+	 * @param key the private key
+	 * @param chain the certificate chain for the key, starting with the certificate for the key.
+	 * @return an initialized key manager factory.
+	 */
+	public static KeyManagerFactory createKeyStore(String keyAlias, PrivateKey key, X509Certificate[] chain) throws Exception {
+		return createKeyStore(keyAlias, key, chain, null);
+	}
+
+	/**
+	 * See {@link #createKeyStore(String, PrivateKey, X509Certificate[])}.
+	 * @param provider the provider for the key manager factory, null for the default providers.
+	 */
+	public static KeyManagerFactory createKeyStore(String keyAlias, PrivateKey key, X509Certificate[] chain, Provider provider) throws Exception {
+		
+		char[] keyPwd = "changeit".toCharArray();
+		KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
+		ks.load((LoadStoreParameter)null);
+		ks.setKeyEntry(keyAlias, key, keyPwd, chain);
+		KeyManagerFactory kmf = getKeyManagerFactory(KeyManagerFactory.getDefaultAlgorithm(), provider);
+		kmf.init(ks, keyPwd);
+		return kmf;
+	}
+
 	public static TrustManagerFactory loadTrustStore(Path storeFile) throws Exception {
 		return loadTrustStore(storeFile, null);
 	}
@@ -191,13 +383,21 @@ public class SslUtils {
 
 	public static TrustManagerFactory loadTrustStore(Path storeFile, char[] storePwd, 
 			String storeType, String algorithm) throws Exception {
+		return loadTrustStore(storeFile, storePwd, storeType, algorithm, null);
+	}
+
+	/**
+	 * @param provider the provider for the trust manager factory, null for the default providers.
+	 */
+	public static TrustManagerFactory loadTrustStore(Path storeFile, char[] storePwd, 
+			String storeType, String algorithm, Provider provider) throws Exception {
 		
 		TrustManagerFactory tmf = null;
 		if (storeFile == null) {
-			tmf = loadTrustStore((InputStream)null, storePwd, storeType, algorithm);
+			tmf = loadTrustStore((InputStream)null, storePwd, storeType, algorithm, provider);
 		} else {
 			try (InputStream storeIn = Files.newInputStream(storeFile)) {
-				tmf = loadTrustStore(storeIn, storePwd, storeType, algorithm);
+				tmf = loadTrustStore(storeIn, storePwd, storeType, algorithm, provider);
 			}
 			log.info("Initialized certificate trust-store from ["  + storeFile.getFileName() + "]");
 		}
@@ -206,6 +406,14 @@ public class SslUtils {
 
 	public static TrustManagerFactory loadTrustStore(InputStream storeIn, char[] storePwd, 
 			String storeType, String algorithm) throws Exception {
+		return loadTrustStore(storeIn, storePwd, storeType, algorithm, null);
+	}
+
+	/**
+	 * @param provider the provider for the trust manager factory, null for the default providers.
+	 */
+	public static TrustManagerFactory loadTrustStore(InputStream storeIn, char[] storePwd, 
+			String storeType, String algorithm, Provider provider) throws Exception {
 		
 		if (storePwd == null && storeIn != null) {
 			storePwd = "changeit".toCharArray();
@@ -220,9 +428,11 @@ public class SslUtils {
 			log.debug("Using default trust store algorithm " + algorithm);
 		}
 		TrustManagerFactory tmf = null;
+		Object event = TlsEvents.beginStoreLoad();
 		KeyStore trustStore = loadStore(storeIn, storePwd, storeType);
-		tmf = TrustManagerFactory.getInstance(algorithm);
+		tmf = getTrustManagerFactory(algorithm, provider);
 		tmf.init(trustStore);
+		TlsEvents.endStoreLoad(event, true, storeType, algorithm, trustStore);
   		if (storeIn == null) {
    			log.info("Initialized a default certificate trust-store");
    		}
@@ -236,8 +446,16 @@ public class SslUtils {
 	 * <br>before calling this method.
 	 */
 	public static TrustManagerFactory createDefaultTrustStore() throws Exception {
+		return createDefaultTrustStore(null);
+	}
+
+	/**
+	 * See {@link #createDefaultTrustStore()}.
+	 * @param provider the provider for the trust manager factory, null for the default providers.
+	 */
+	public static TrustManagerFactory createDefaultTrustStore(Provider provider) throws Exception {
 		
-		TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		TrustManagerFactory tmf = getTrustManagerFactory(TrustManagerFactory.getDefaultAlgorithm(), provider);
 		tmf.init((KeyStore)null);
 		return tmf;
 	}
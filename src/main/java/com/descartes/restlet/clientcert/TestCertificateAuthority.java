@@ -0,0 +1,334 @@
+package com.descartes.restlet.clientcert;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.KeyStore.LoadStoreParameter;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.TrustManagerFactory;
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * An in-process certificate authority for tests and benchmarks: mints root and intermediate CA certificates
+ * and (many) client and server certificates without external tools or network access.
+ * <br>Certificates are X.509 v3, encoded by this class (the JDK has no public API to create certificates)
+ * and parsed by the standard {@link CertificateFactory}.
+ * <br>Key types are specified as {@code <algorithm>:<size or curve>}, e.g. {@code RSA:2048}, {@code RSA:4096},
+ * {@code EC:secp256r1} or {@code EC:secp384r1}. Certificates are signed with SHA-256.
+ * <br>Use {@link IssuedCertificate#createKeyManagerFactory()} and {@link #createTrustManagerFactory()}
+ * to get key- and trust-stores ready for use in an SSL context.
+ */
+public class TestCertificateAuthority {
+
+	public static final String DEFAULT_KEY_TYPE = "RSA:2048";
+	/** Default validity period in days, starting one day in the past (allows for clock differences). */
+	public static final long DEFAULT_VALID_DAYS = 365L;
+
+	static final String OID_RSA_SHA256 = "1.2.840.113549.1.1.11";
+	static final String OID_ECDSA_SHA256 = "1.2.840.10045.4.3.2";
+	static final String OID_SUBJECT_KEY_ID = "2.5.29.14";
+	static final String OID_KEY_USAGE = "2.5.29.15";
+	static final String OID_SUBJECT_ALT_NAME = "2.5.29.17";
+	static final String OID_BASIC_CONSTRAINTS = "2.5.29.19";
+	static final String OID_AUTHORITY_KEY_ID = "2.5.29.35";
+	static final String OID_EXT_KEY_USAGE = "2.5.29.37";
+	static final String OID_SERVER_AUTH = "1.3.6.1.5.5.7.3.1";
+	static final String OID_CLIENT_AUTH = "1.3.6.1.5.5.7.3.2";
+
+	static final Map<String, String> EMAIL_KEYWORD_MAP =
+			Collections.singletonMap(SslUtils.X509_EMAIL_ADDRESS_ATTR_NAME, SslUtils.X509_EMAIL_ADDRESS_OID);
+
+	private static final SecureRandom random = new SecureRandom();
+	private static final AtomicLong serials = new AtomicLong(random.nextInt(Integer.MAX_VALUE));
+
+	private final IssuedCertificate ca;
+	private final long validDays;
+
+	protected TestCertificateAuthority(IssuedCertificate ca, long validDays) {
+		super();
+		this.ca = ca;
+		this.validDays = validDays;
+	}
+
+	/**
+	 * Creates a self-signed root CA.
+	 * @param subject the subject, e.g. {@code CN=Test Root CA, O=Test}.
+	 * @param keyType see {@link TestCertificateAuthority}.
+	 */
+	public static TestCertificateAuthority createRoot(String subject, String keyType) throws Exception {
+		return createRoot(subject, keyType, DEFAULT_VALID_DAYS);
+	}
+
+	public static TestCertificateAuthority createRoot(String subject, String keyType, long validDays) throws Exception {
+
+		KeyPair keyPair = generateKeyPair(keyType);
+		X500Principal name = toPrincipal(subject);
+		byte[] keyId = keyId(keyPair);
+		List<byte[]> extensions = new ArrayList<byte[]>();
+		extensions.add(Der.extension(OID_BASIC_CONSTRAINTS, true, Der.sequence(Der.bool(true))));
+		extensions.add(Der.extension(OID_KEY_USAGE, true, Der.keyUsage(false, true)));
+		extensions.add(Der.extension(OID_SUBJECT_KEY_ID, false, Der.octetString(keyId)));
+		X509Certificate cert = sign(name, keyPair, name, keyPair.getPrivate(), validDays, extensions);
+		return new TestCertificateAuthority(new IssuedCertificate(keyPair.getPrivate(), new X509Certificate[] { cert }), validDays);
+	}
+
+	/**
+	 * Creates an intermediate CA signed by this CA.
+	 */
+	public TestCertificateAuthority createIntermediate(String subject, String keyType) throws Exception {
+
+		KeyPair keyPair = generateKeyPair(keyType);
+		List<byte[]> extensions = new ArrayList<byte[]>();
+		extensions.add(Der.extension(OID_BASIC_CONSTRAINTS, true, Der.sequence(Der.bool(true))));
+		extensions.add(Der.extension(OID_KEY_USAGE, true, Der.keyUsage(false, true)));
+		extensions.add(Der.extension(OID_SUBJECT_KEY_ID, false, Der.octetString(keyId(keyPair))));
+		extensions.add(authorityKeyId());
+		X509Certificate cert = sign(toPrincipal(subject), keyPair, getCertificate().getSubjectX500Principal(), ca.getKey(), validDays, extensions);
+		return new TestCertificateAuthority(new IssuedCertificate(keyPair.getPrivate(), chain(cert)), validDays);
+	}
+
+	/**
+	 * Issues a client certificate (extended key usage "client authentication").
+	 * @param emailAddress null or the email-address to add to the subject (see {@link SslUtils#getClientEmailAddress(X509Certificate)}).
+	 */
+	public IssuedCertificate issueClient(String commonName, String emailAddress, String keyType) throws Exception {
+
+		String subject = (emailAddress == null ? "" : SslUtils.X509_SUBJECT_EMAIL_ATTR + emailAddress + ", ") + "CN=" + commonName;
+		return issue(subject, keyType, OID_CLIENT_AUTH, null);
+	}
+
+	/**
+	 * Issues a server certificate (extended key usage "server authentication") for the given host names and IP addresses.
+	 */
+	public IssuedCertificate issueServer(String commonName, List<String> hostNames, List<InetAddress> addresses, String keyType) throws Exception {
+		return issue("CN=" + commonName, keyType, OID_SERVER_AUTH, Der.subjectAltNames(hostNames, addresses));
+	}
+
+	protected IssuedCertificate issue(String subject, String keyType, String extKeyUsage, byte[] subjectAltNames) throws Exception {
+
+		KeyPair keyPair = generateKeyPair(keyType);
+		List<byte[]> extensions = new ArrayList<byte[]>();
+		extensions.add(Der.extension(OID_BASIC_CONSTRAINTS, true, Der.sequence()));
+		extensions.add(Der.extension(OID_KEY_USAGE, true, Der.keyUsage("RSA".equals(keyPair.getPublic().getAlgorithm()), false)));
+		extensions.add(Der.extension(OID_EXT_KEY_USAGE, false, Der.sequence(Der.oid(extKeyUsage))));
+		extensions.add(Der.extension(OID_SUBJECT_KEY_ID, false, Der.octetString(keyId(keyPair))));
+		extensions.add(authorityKeyId());
+		if (subjectAltNames != null) {
+			extensions.add(Der.extension(OID_SUBJECT_ALT_NAME, false, subjectAltNames));
+		}
+		X509Certificate cert = sign(toPrincipal(subject), keyPair, getCertificate().getSubjectX500Principal(), ca.getKey(), validDays, extensions);
+		return new IssuedCertificate(keyPair.getPrivate(), chain(cert));
+	}
+
+	/**
+	 * Issues client certificates in parallel, with common name {@code client<n>} and email-address {@code client<n>@<emailDomain>}.
+	 * @param threads amount of threads generating keys and signing certificates.
+	 * @return the client certificates in order of number.
+	 */
+	public List<IssuedCertificate> issueClients(int amount, final String emailDomain, final String keyType, int threads) throws Exception {
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			List<Future<IssuedCertificate>> futures = new ArrayList<Future<IssuedCertificate>>(amount);
+			for (int i = 0; i < amount; i++) {
+				final String cn = "client" + i;
+				futures.add(executor.submit(new Callable<IssuedCertificate>() {
+					@Override public IssuedCertificate call() throws Exception {
+						return issueClient(cn, cn + "@" + emailDomain, keyType);
+					}
+				}));
+			}
+			List<IssuedCertificate> clients = new ArrayList<IssuedCertificate>(amount);
+			for (Future<IssuedCertificate> f : futures) {
+				clients.add(f.get());
+			}
+			return clients;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return a trust-store containing the root certificate of this CA.
+	 */
+	public TrustManagerFactory createTrustManagerFactory() throws Exception {
+		return SslUtils.createTrustStore(Constants.CERT_CA_ALIAS, getRootCertificate());
+	}
+
+	/** The certificate of this CA. */
+	public X509Certificate getCertificate() { return ca.getCertificate(); }
+	/** The root certificate (last certificate in the chain of this CA). */
+	public X509Certificate getRootCertificate() { return ca.getChain()[ca.getChain().length - 1]; }
+	/** Key and certificate chain of this CA. */
+	public IssuedCertificate getIssuedCertificate() { return ca; }
+
+	/** Certificate chain with the given certificate followed by the chain of this CA. */
+	protected X509Certificate[] chain(X509Certificate cert) {
+
+		X509Certificate[] caChain = ca.getChain();
+		X509Certificate[] chain = new X509Certificate[caChain.length + 1];
+		chain[0] = cert;
+		System.arraycopy(caChain, 0, chain, 1, caChain.length);
+		return chain;
+	}
+
+	protected byte[] authorityKeyId() throws Exception {
+		// KeyIdentifier [0] IMPLICIT OCTET STRING
+		return Der.extension(OID_AUTHORITY_KEY_ID, false, Der.sequence(Der.tagged(0x80, keyId(getCertificate().getPublicKey().getEncoded()))));
+	}
+
+	/**
+	 * @param keyType see {@link TestCertificateAuthority}, null for {@link #DEFAULT_KEY_TYPE}.
+	 */
+	public static KeyPair generateKeyPair(String keyType) throws Exception {
+
+		if (keyType == null) {
+			keyType = DEFAULT_KEY_TYPE;
+		}
+		int i = keyType.indexOf(':');
+		String algorithm = (i < 0 ? keyType : keyType.substring(0, i)).toUpperCase();
+		String param = (i < 0 ? null : keyType.substring(i + 1));
+		KeyPairGenerator kpg = KeyPairGenerator.getInstance(algorithm);
+		if ("EC".equals(algorithm)) {
+			kpg.initialize(new ECGenParameterSpec(param == null ? "secp256r1" : param), random);
+		} else if ("RSA".equals(algorithm)) {
+			kpg.initialize(param == null ? 2048 : Integer.parseInt(param), random);
+		} else {
+			throw new IllegalArgumentException("Unsupported key type " + keyType);
+		}
+		return kpg.generateKeyPair();
+	}
+
+	static X500Principal toPrincipal(String subject) {
+		return new X500Principal(subject, EMAIL_KEYWORD_MAP);
+	}
+
+	static byte[] keyId(KeyPair keyPair) throws Exception {
+		return keyId(keyPair.getPublic().getEncoded());
+	}
+
+	/** SHA-1 hash of the encoded public key, see RFC 5280 section 4.2.1.2. */
+	static byte[] keyId(byte[] encodedPublicKey) throws Exception {
+		return MessageDigest.getInstance("SHA-1").digest(encodedPublicKey);
+	}
+
+	static X509Certificate sign(X500Principal subject, KeyPair subjectKeys, X500Principal issuer, PrivateKey issuerKey,
+			long validDays, List<byte[]> extensions) throws Exception {
+
+		byte[] signatureAlgorithm = signatureAlgorithm(issuerKey);
+		long now = System.currentTimeMillis();
+		long day = 24L * 3600L * 1000L;
+		byte[] tbs = Der.sequence(
+				Der.tagged(0xA0, Der.integer(BigInteger.valueOf(2))), // version 3
+				Der.integer(BigInteger.valueOf(serials.incrementAndGet()).shiftLeft(32).or(BigInteger.valueOf(random.nextInt() & 0x7FFFFFFF))),
+				signatureAlgorithm,
+				issuer.getEncoded(),
+				Der.sequence(Der.time(new Date(now - day)), Der.time(new Date(now + validDays * day))),
+				subject.getEncoded(),
+				subjectKeys.getPublic().getEncoded(),
+				Der.tagged(0xA3, Der.sequence(extensions.toArray(new byte[extensions.size()][]))));
+		byte[] cert = Der.sequence(tbs, signatureAlgorithm, Der.bitString(sign(issuerKey, tbs)));
+		return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(cert));
+	}
+
+	/**
+	 * @return the encoded algorithm identifier for signatures created with {@link #sign(PrivateKey, byte[])}.
+	 */
+	static byte[] signatureAlgorithm(PrivateKey key) {
+		return ("RSA".equals(key.getAlgorithm()) ? Der.sequence(Der.oid(OID_RSA_SHA256), Der.NULL) : Der.sequence(Der.oid(OID_ECDSA_SHA256)));
+	}
+
+	/**
+	 * Signs data with SHA-256 and the (RSA or EC) key.
+	 */
+	static byte[] sign(PrivateKey key, byte[] data) throws Exception {
+
+		Signature signer = Signature.getInstance("RSA".equals(key.getAlgorithm()) ? "SHA256withRSA" : "SHA256withECDSA");
+		signer.initSign(key);
+		signer.update(data);
+		return signer.sign();
+	}
+
+	/**
+	 * A private key with its certificate chain (first certificate is the issued certificate, last is the root certificate).
+	 */
+	public static class IssuedCertificate {
+
+		private final PrivateKey key;
+		private final X509Certificate[] chain;
+
+		public IssuedCertificate(PrivateKey key, X509Certificate[] chain) {
+			super();
+			this.key = key;
+			this.chain = chain;
+		}
+
+		public PrivateKey getKey() { return key; }
+		public X509Certificate[] getChain() { return chain; }
+		public X509Certificate getCertificate() { return chain[0]; }
+
+		/**
+		 * @return a key-store containing only this key and certificate chain.
+		 */
+		public KeyManagerFactory createKeyManagerFactory() throws Exception {
+			return SslUtils.createKeyStore(getAlias(), key, chain);
+		}
+
+		/**
+		 * Saves the key, certificate chain and the root certificate as trusted CA certificate (alias {@link Constants#CERT_CA_ALIAS})
+		 * in a PKCS12 key-store file, usable like {@link Constants#CERT_TEST_FILE_NAME}.
+		 */
+		public void save(Path storeFile, char[] storePwd) throws Exception {
+
+			KeyStore ks = KeyStore.getInstance("pkcs12");
+			ks.load((LoadStoreParameter) null);
+			ks.setKeyEntry(getAlias(), key, storePwd, chain);
+			ks.setCertificateEntry(Constants.CERT_CA_ALIAS, chain[chain.length - 1]);
+			try (OutputStream out = Files.newOutputStream(storeFile)) {
+				ks.store(out, storePwd);
+			}
+		}
+
+		/** Alias derived from the subject common name. */
+		public String getAlias() {
+
+			String subject = getCertificate().getSubjectX500Principal().getName(X500Principal.RFC2253);
+			int i = subject.indexOf("CN=");
+			if (i < 0) {
+				return "cert";
+			}
+			int end = subject.indexOf(',', i);
+			return subject.substring(i + 3, end < 0 ? subject.length() : end).toLowerCase();
+		}
+
+		@Override
+		public String toString() {
+			return getCertificate().getSubjectX500Principal().getName(X500Principal.RFC2253, SslUtils.X509_EMAIL_ATTR_MAP);
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.descartes.restlet.clientcert;
+
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Mints a root CA, an intermediate CA, a server certificate and many client certificates
+ * with the {@link TestCertificateAuthority} and verifies the client certificate chains against the root CA.
+ * <br>Configured with the system properties (defaults between brackets):
+ * <br>{@code certs.amount} (1000) amount of client certificates
+ * <br>{@code certs.keyType} (RSA:2048) key type of the client certificates, e.g. EC:secp256r1
+ * <br>{@code certs.caKeyType} (RSA:2048) key type of the CA certificates
+ * <br>{@code certs.threads} (available processors) threads used to mint client certificates
+ * <br>{@code certs.dir} (none) directory to save the server and first client certificate as PKCS12 key-store,
+ * the password is {@link Constants#CERT_TEST_PWD}.
+ */
+public class TestCertificatesMain {
+
+	static {
+		Constants.configureLogging();
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(TestCertificatesMain.class);
+
+	public static void main(String[] args) {
+
+		try {
+			new TestCertificatesMain().run();
+		} catch (Exception e) {
+			log.error("Failed to create test certificates.", e);
+		}
+	}
+
+	public void run() throws Exception {
+
+		int amount = Integer.getInteger("certs.amount", 1000);
+		String keyType = System.getProperty("certs.keyType", TestCertificateAuthority.DEFAULT_KEY_TYPE);
+		String caKeyType = System.getProperty("certs.caKeyType", TestCertificateAuthority.DEFAULT_KEY_TYPE);
+		int threads = Integer.getInteger("certs.threads", Runtime.getRuntime().availableProcessors());
+
+		long start = System.currentTimeMillis();
+		TestCertificateAuthority root = TestCertificateAuthority.createRoot("CN=Test Root CA, O=Restlet Client Cert", caKeyType);
+		TestCertificateAuthority intermediate = root.createIntermediate("CN=Test Client CA, O=Restlet Client Cert", caKeyType);
+		TestCertificateAuthority.IssuedCertificate server = intermediate.issueServer("localhost",
+				Arrays.asList("localhost"), Arrays.asList(InetAddress.getLoopbackAddress()), caKeyType);
+		log.info("Created CA and server certificates in " + (System.currentTimeMillis() - start) + " ms.");
+
+		start = System.currentTimeMillis();
+		List<TestCertificateAuthority.IssuedCertificate> clients = intermediate.issueClients(amount, "example.com", keyType, threads);
+		long duration = System.currentTimeMillis() - start;
+		log.info("Created " + amount + " " + keyType + " client certificates using " + threads + " threads in " + duration + " ms"
+				+ (amount > 0 ? " (" + (duration * 1000L / amount) + " us per certificate)." : "."));
+
+		start = System.currentTimeMillis();
+		X509TrustManager tm = null;
+		for (TrustManager t : root.createTrustManagerFactory().getTrustManagers()) {
+			if (t instanceof X509TrustManager) {
+				tm = (X509TrustManager) t;
+			}
+		}
+		for (TestCertificateAuthority.IssuedCertificate client : clients) {
+			// For client certificates the JSSE uses the key algorithm (RSA or EC) as authentication type.
+			tm.checkClientTrusted(client.getChain(), client.getKey().getAlgorithm());
+		}
+		tm.checkServerTrusted(server.getChain(), getServerAuthType(server));
+		log.info("Verified " + amount + " client certificate chains in " + (System.currentTimeMillis() - start) + " ms.");
+		if (amount > 0) {
+			String email = SslUtils.getClientEmailAddress(clients.get(0).getCertificate());
+			log.info("First client certificate: " + clients.get(0) + ", email-address: " + email);
+		}
+
+		String dir = System.getProperty("certs.dir");
+		if (dir != null) {
+			Path certDir = Files.createDirectories(Paths.get(dir));
+			server.save(certDir.resolve("server.pfx"), Constants.CERT_TEST_PWD);
+			if (amount > 0) {
+				clients.get(0).save(certDir.resolve("client.pfx"), Constants.CERT_TEST_PWD);
+			}
+			log.info("Saved key-stores in " + certDir);
+		}
+	}
+
+	/**
+	 * @return the key exchange the server certificate is checked for (the trust manager checks the key usage for it).
+	 */
+	static String getServerAuthType(TestCertificateAuthority.IssuedCertificate server) {
+		return ("EC".equals(server.getKey().getAlgorithm()) ? "ECDHE_ECDSA" : "RSA");
+	}
+
+}
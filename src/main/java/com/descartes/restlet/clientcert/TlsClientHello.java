@@ -0,0 +1,110 @@
+package com.descartes.restlet.clientcert;
+
+import java.nio.ByteBuffer;
+
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * Peeks at the first TLS record received on a connection to find out if the client
+ * tries to resume a session (an abbreviated handshake) or needs a full handshake.
+ * <br>The buffer position is never changed: the record is still consumed by the SSL engine.
+ * <br>Record layout is documented in RFC 5246 section 7.4.1.2 (ClientHello).
+ * See {@link TlsClientHelloMain} for a check with ClientHello messages from the JDK.
+ */
+public class TlsClientHello {
+
+	/** Not enough bytes received yet to classify the handshake. */
+	public static final int INCOMPLETE = 0;
+	/** Full handshake, or not a (recognized) ClientHello. */
+	public static final int FULL = 1;
+	/** Client offers a session-ID known to this server. */
+	public static final int RESUME = 2;
+	/**
+	 * Client offers a session-ticket or a pre-shared key. The ticket is not checked: it can be unknown
+	 * (e.g. issued before a restart) or invalid, in which case the server falls back to a full handshake.
+	 */
+	public static final int TICKET = 3;
+
+	static final int CONTENT_TYPE_HANDSHAKE = 22;
+	static final int HANDSHAKE_TYPE_CLIENT_HELLO = 1;
+	static final int EXT_SESSION_TICKET = 35;
+	static final int EXT_PRE_SHARED_KEY = 41;
+
+	/** Record header (5) + handshake header (4) + client version (2) + random (32). */
+	static final int SESSION_ID_OFFSET = 43;
+
+	private TlsClientHello() {}
+
+	/**
+	 * Classifies the ClientHello at the current position of the given buffer.
+	 * @param src buffer with received network data, position and limit are not changed.
+	 * @param sessions the server session context used to check if a session-ID is (still) known, can be null.
+	 * @return {@link #INCOMPLETE}, {@link #FULL}, {@link #RESUME} or {@link #TICKET}.
+	 */
+	public static int classify(ByteBuffer src, SSLSessionContext sessions) {
+
+		int start = src.position();
+		int available = src.remaining();
+		if (available < 5) {
+			return INCOMPLETE;
+		}
+		if ((src.get(start) & 0xFF) != CONTENT_TYPE_HANDSHAKE) {
+			// Also covers the SSLv2 compatible hello (high bit set).
+			return FULL;
+		}
+		int recordLength = getUnsignedShort(src, start + 3);
+		if (available < 5 + recordLength) {
+			return INCOMPLETE;
+		}
+		int end = start + 5 + recordLength;
+		if (recordLength < SESSION_ID_OFFSET - 4 || (src.get(start + 5) & 0xFF) != HANDSHAKE_TYPE_CLIENT_HELLO) {
+			return FULL;
+		}
+		int p = start + SESSION_ID_OFFSET;
+		int sessionIdLength = src.get(p) & 0xFF;
+		p++;
+		if (p + sessionIdLength > end) {
+			return FULL;
+		}
+		if (sessionIdLength > 0 && sessions != null) {
+			byte[] sessionId = new byte[sessionIdLength];
+			for (int i = 0; i < sessionIdLength; i++) {
+				sessionId[i] = src.get(p + i);
+			}
+			if (sessions.getSession(sessionId) != null) {
+				return RESUME;
+			}
+		}
+		p += sessionIdLength;
+		// cipher suites
+		if (p + 2 > end) {
+			return FULL;
+		}
+		p += 2 + getUnsignedShort(src, p);
+		// compression methods
+		if (p + 1 > end) {
+			return FULL;
+		}
+		p += 1 + (src.get(p) & 0xFF);
+		// extensions
+		if (p + 2 > end) {
+			return FULL;
+		}
+		int extensionsEnd = Math.min(end, p + 2 + getUnsignedShort(src, p));
+		p += 2;
+		while (p + 4 <= extensionsEnd) {
+			int type = getUnsignedShort(src, p);
+			int length = getUnsignedShort(src, p + 2);
+			if (type == EXT_PRE_SHARED_KEY || (type == EXT_SESSION_TICKET && length > 0)) {
+				return TICKET;
+			}
+			p += 4 + length;
+		}
+		return FULL;
+	}
+
+	static int getUnsignedShort(ByteBuffer b, int index) {
+		return ((b.get(index) & 0xFF) << 8) | (b.get(index + 1) & 0xFF);
+	}
+
+}
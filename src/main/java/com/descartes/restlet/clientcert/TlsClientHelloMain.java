@@ -0,0 +1,251 @@
+package com.descartes.restlet.clientcert;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSessionContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks the classification of {@link TlsClientHello} with ClientHello messages from the JDK's {@link SSLEngine}:
+ * a fresh ClientHello (full handshake), a TLS 1.2 ClientHello with a session-ID from the server session cache (resume),
+ * a TLS 1.3 ClientHello with a pre-shared key (ticket), every truncation of these messages (incomplete),
+ * a SSLv2 compatible ClientHello, and randomly corrupted messages (must not throw).
+ * <br>Handshakes run in memory between a client and a server engine with certificates from a {@link TestCertificateAuthority}.
+ * Stateless session tickets are turned off so that the server caches TLS 1.2 sessions by session-ID
+ * (TLS 1.3 always resumes with a pre-shared key).
+ * <br>Logs each check and fails when a message is classified differently than expected.
+ */
+public class TlsClientHelloMain {
+
+	static {
+		Constants.configureLogging();
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(TlsClientHelloMain.class);
+
+	public static void main(String[] args) {
+
+		try {
+			new TlsClientHelloMain().run();
+		} catch (Exception e) {
+			log.error("TLS ClientHello check failed.", e);
+		}
+	}
+
+	static final String[] NAMES = new String[] { "INCOMPLETE", "FULL", "RESUME", "TICKET" };
+
+	private int failures;
+
+	public void run() throws Exception {
+
+		// Must be set before the JSSE is initialized.
+		System.setProperty("jdk.tls.server.enableSessionTicketExtension", "false");
+		TestCertificateAuthority ca = TestCertificateAuthority.createRoot("CN=Test ClientHello CA", "EC:secp256r1");
+		TestCertificateAuthority.IssuedCertificate serverCert = ca.issueServer("localhost", null, null, "EC:secp256r1");
+		TestCertificateAuthority.IssuedCertificate clientCert = ca.issueClient("client", "client@example.com", "EC:secp256r1");
+		SSLContext serverCtx = SSLContext.getInstance("TLS");
+		serverCtx.init(serverCert.createKeyManagerFactory().getKeyManagers(), ca.createTrustManagerFactory().getTrustManagers(), null);
+		SSLSessionContext sessions = serverCtx.getServerSessionContext();
+
+		for (String protocol : new String[] { "TLSv1.2", "TLSv1.3" }) {
+			// A new client context per protocol starts with an empty client session cache.
+			SSLContext clientCtx = SSLContext.getInstance("TLS");
+			clientCtx.init(clientCert.createKeyManagerFactory().getKeyManagers(), ca.createTrustManagerFactory().getTrustManagers(), null);
+
+			SSLEngine client = createClientEngine(clientCtx, protocol);
+			ByteBuffer hello = getClientHello(client);
+			check(protocol + " fresh", hello, sessions, TlsClientHello.FULL);
+			checkTruncated(protocol + " fresh", hello, sessions);
+			handshake(client, hello, createServerEngine(serverCtx));
+
+			client = createClientEngine(clientCtx, protocol);
+			hello = getClientHello(client);
+			int expected = ("TLSv1.2".equals(protocol) ? TlsClientHello.RESUME : TlsClientHello.TICKET);
+			check(protocol + " resumption", hello, sessions, expected);
+			check(protocol + " resumption without session cache", hello, null,
+					expected == TlsClientHello.RESUME ? TlsClientHello.FULL : expected);
+			checkTruncated(protocol + " resumption", hello, sessions);
+			checkCorrupted(protocol + " resumption", hello, sessions);
+			handshake(client, hello, createServerEngine(serverCtx));
+		}
+		check("SSLv2 compatible", getSslV2ClientHello(), sessions, TlsClientHello.FULL);
+		if (failures > 0) {
+			throw new IllegalStateException(failures + " check(s) failed.");
+		}
+		log.info("All checks passed.");
+	}
+
+	SSLEngine createClientEngine(SSLContext clientCtx, String protocol) {
+
+		// The client session cache is keyed by host and port.
+		SSLEngine engine = clientCtx.createSSLEngine("localhost", 8443);
+		engine.setUseClientMode(true);
+		engine.setEnabledProtocols(new String[] { protocol });
+		return engine;
+	}
+
+	SSLEngine createServerEngine(SSLContext serverCtx) {
+
+		SSLEngine engine = serverCtx.createSSLEngine();
+		engine.setUseClientMode(false);
+		engine.setNeedClientAuth(true);
+		return engine;
+	}
+
+	/**
+	 * @return the first record from the client engine (flipped for reading).
+	 */
+	ByteBuffer getClientHello(SSLEngine client) throws SSLException {
+
+		ByteBuffer hello = ByteBuffer.allocate(client.getSession().getPacketBufferSize());
+		client.beginHandshake();
+		client.wrap(ByteBuffer.allocate(0), hello);
+		hello.flip();
+		return hello;
+	}
+
+	/**
+	 * A SSLv2 compatible ClientHello (RFC 5246 appendix E.2) as sent by old clients.
+	 */
+	ByteBuffer getSslV2ClientHello() {
+
+		byte[] cipherSpecs = new byte[] { 0x00, 0x00, 0x2F, 0x00, 0x00, 0x35 };
+		byte[] challenge = new byte[16];
+		new Random().nextBytes(challenge);
+		int length = 9 + cipherSpecs.length + challenge.length;
+		ByteBuffer hello = ByteBuffer.allocate(2 + length);
+		hello.put((byte) (0x80 | (length >> 8))).put((byte) length);
+		// CLIENT-HELLO, version TLS 1.0, cipher specs length, session-ID length, challenge length
+		hello.put((byte) 1).putShort((short) 0x0301).putShort((short) cipherSpecs.length).putShort((short) 0).putShort((short) challenge.length);
+		hello.put(cipherSpecs).put(challenge);
+		hello.flip();
+		return hello;
+	}
+
+	void check(String name, ByteBuffer hello, SSLSessionContext sessions, int expected) {
+
+		// Classify at a non-zero position to verify that position and limit are not changed.
+		ByteBuffer src = ByteBuffer.allocate(hello.remaining() + 3);
+		src.put(new byte[3]).put(hello.duplicate()).flip();
+		src.position(3);
+		int classified = TlsClientHello.classify(src, sessions);
+		boolean unchanged = (src.position() == 3 && src.limit() == hello.remaining() + 3);
+		if (classified == expected && unchanged) {
+			log.info(name + " ClientHello (" + hello.remaining() + " bytes): " + NAMES[classified]);
+		} else {
+			failures++;
+			log.error(name + " ClientHello (" + hello.remaining() + " bytes): " + NAMES[classified] + ", expected " + NAMES[expected]
+					+ (unchanged ? "" : ", buffer position or limit changed"));
+		}
+	}
+
+	void checkTruncated(String name, ByteBuffer hello, SSLSessionContext sessions) {
+
+		int failed = 0;
+		for (int length = 0; length < hello.remaining(); length++) {
+			ByteBuffer truncated = hello.duplicate();
+			truncated.limit(truncated.position() + length);
+			if (TlsClientHello.classify(truncated, sessions) != TlsClientHello.INCOMPLETE) {
+				failed++;
+			}
+		}
+		if (failed == 0) {
+			log.info(name + " ClientHello truncated at " + hello.remaining() + " lengths: INCOMPLETE");
+		} else {
+			failures++;
+			log.error(name + " ClientHello truncated: " + failed + " of " + hello.remaining() + " lengths not INCOMPLETE");
+		}
+	}
+
+	/**
+	 * Changes random bytes after the record header (a ClientHello with invalid lengths) and classifies the result.
+	 */
+	void checkCorrupted(String name, ByteBuffer hello, SSLSessionContext sessions) {
+
+		Random random = new Random(hello.remaining());
+		int failed = 0;
+		int tries = 10000;
+		for (int i = 0; i < tries; i++) {
+			ByteBuffer corrupted = ByteBuffer.allocate(hello.remaining());
+			corrupted.put(hello.duplicate()).flip();
+			for (int j = 0; j < 3; j++) {
+				corrupted.put(5 + random.nextInt(corrupted.limit() - 5), (byte) random.nextInt(256));
+			}
+			try {
+				TlsClientHello.classify(corrupted, sessions);
+			} catch (RuntimeException e) {
+				failed++;
+			}
+		}
+		if (failed == 0) {
+			log.info(name + " ClientHello corrupted " + tries + " times: no exceptions");
+		} else {
+			failures++;
+			log.error(name + " ClientHello corrupted: " + failed + " of " + tries + " classifications threw an exception");
+		}
+	}
+
+	/**
+	 * Completes the handshake started with the ClientHello and delivers post-handshake messages
+	 * (the TLS 1.3 NewSessionTicket) so that the client can resume the session.
+	 */
+	void handshake(SSLEngine client, ByteBuffer hello, SSLEngine server) throws SSLException {
+
+		int packetSize = client.getSession().getPacketBufferSize();
+		ByteBuffer toServer = ByteBuffer.allocate(packetSize * 4);
+		ByteBuffer toClient = ByteBuffer.allocate(packetSize * 4);
+		ByteBuffer app = ByteBuffer.allocate(client.getSession().getApplicationBufferSize());
+		toServer.put(hello.duplicate());
+		server.beginHandshake();
+		for (int i = 0; i < 100; i++) {
+			boolean serverDone = step(server, toServer, toClient, app);
+			boolean clientDone = step(client, toClient, toServer, app);
+			if (serverDone && clientDone && toServer.position() == 0 && toClient.position() == 0) {
+				return;
+			}
+		}
+		throw new SSLException("Handshake did not complete with " + client.getHandshakeStatus() + " / " + server.getHandshakeStatus());
+	}
+
+	/**
+	 * Lets the engine consume the received data and produce data for the peer.
+	 * @param in received data (in write mode).
+	 * @param out data for the peer (in write mode).
+	 * @return true if the engine is not handshaking.
+	 */
+	boolean step(SSLEngine engine, ByteBuffer in, ByteBuffer out, ByteBuffer app) throws SSLException {
+
+		in.flip();
+		while (in.hasRemaining()) {
+			SSLEngineResult result = engine.unwrap(in, app);
+			app.clear();
+			runTasks(engine);
+			if (result.getStatus() != SSLEngineResult.Status.OK || result.bytesConsumed() == 0) {
+				break;
+			}
+		}
+		in.compact();
+		while (engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+			engine.wrap(ByteBuffer.allocate(0), out);
+			runTasks(engine);
+		}
+		return (engine.getHandshakeStatus() == HandshakeStatus.NOT_HANDSHAKING);
+	}
+
+	void runTasks(SSLEngine engine) {
+
+		Runnable task = null;
+		while ((task = engine.getDelegatedTask()) != null) {
+			task.run();
+		}
+	}
+
+}
@@ -0,0 +1,237 @@
+package com.descartes.restlet.clientcert;
+
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Emits JDK Flight Recorder events for TLS handshakes, peer certificate extraction,
+ * key/trust store loading and client certificate authentication (see {@link TlsJfrEvents} for the event types).
+ * <br>Each {@code begin} method returns null when JFR is not available or the event is not enabled in a
+ * running recording, in which case the matching {@code end} method does nothing. No event object is created
+ * when the event is not enabled. The event (if any) is only committed when it exceeds the configured threshold,
+ * event fields are only filled in when the event is committed.
+ * <br>JFR is part of Java 11 and later but can be absent from a custom runtime image (without the {@code jdk.jfr} module),
+ * in which case no events are recorded.
+ * <br>Usage:
+ * <pre>
+ * Object event = TlsEvents.beginAuthentication();
+ * ...
+ * TlsEvents.endAuthentication(event, authenticated, userName);
+ * </pre>
+ */
+public class TlsEvents {
+
+	private static final Logger log = LoggerFactory.getLogger(TlsEvents.class);
+
+	/** True if JDK Flight Recorder is available (the {@code jdk.jfr} module is present). */
+	public static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+	private TlsEvents() {}
+
+	static boolean isJfrAvailable() {
+
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (Throwable t) {
+			log.debug("JDK Flight Recorder not available, no TLS events are recorded.");
+			return false;
+		}
+	}
+
+	/**
+	 * @return null when JFR is not available, else an engine wrapper that records a handshake event for each connection
+	 * created while the handshake event is enabled in a running recording (other engines are not wrapped).
+	 */
+	public static WrappedSslContext.EngineWrapper getHandshakeEngineWrapper() {
+
+		if (!JFR_AVAILABLE) {
+			return null;
+		}
+		return new WrappedSslContext.EngineWrapper() {
+			@Override public SSLEngine wrap(SSLEngine engine) {
+				return (Jfr.isHandshakeEnabled() ? new HandshakeEventSslEngine(engine) : engine);
+			}
+		};
+	}
+
+	public static Object beginCertificateExtraction() {
+		return (JFR_AVAILABLE ? Jfr.beginCertificateExtraction() : null);
+	}
+
+	public static void endCertificateExtraction(Object event, int certificates) {
+
+		if (event != null) {
+			Jfr.endCertificateExtraction(event, certificates);
+		}
+	}
+
+	public static Object beginStoreLoad() {
+		return (JFR_AVAILABLE ? Jfr.beginStoreLoad() : null);
+	}
+
+	/**
+	 * @param store the loaded store, can be null.
+	 */
+	public static void endStoreLoad(Object event, boolean trustStore, String storeType, String algorithm, KeyStore store) {
+
+		if (event != null) {
+			Jfr.endStoreLoad(event, trustStore, storeType, algorithm, store);
+		}
+	}
+
+	public static Object beginAuthentication() {
+		return (JFR_AVAILABLE ? Jfr.beginAuthentication() : null);
+	}
+
+	public static void endAuthentication(Object event, boolean authenticated, String user) {
+
+		if (event != null) {
+			Jfr.endAuthentication(event, authenticated, user);
+		}
+	}
+
+	/**
+	 * All code referencing JFR classes, only used when {@link TlsEvents#JFR_AVAILABLE}
+	 * (the JVM loads this class and the event classes on first use).
+	 */
+	static class Jfr {
+
+		// The event type reflects the settings of all running recordings, checking it does not create an event.
+		static final EventType CERTIFICATE_EXTRACTION = EventType.getEventType(TlsJfrEvents.CertificateExtractionEvent.class);
+		static final EventType STORE_LOAD = EventType.getEventType(TlsJfrEvents.StoreLoadEvent.class);
+		static final EventType AUTHENTICATION = EventType.getEventType(TlsJfrEvents.AuthenticationEvent.class);
+		static final EventType HANDSHAKE = EventType.getEventType(TlsJfrEvents.HandshakeEvent.class);
+
+		static boolean isHandshakeEnabled() {
+			return HANDSHAKE.isEnabled();
+		}
+
+		static Object beginCertificateExtraction() {
+			return (CERTIFICATE_EXTRACTION.isEnabled() ? begin(new TlsJfrEvents.CertificateExtractionEvent()) : null);
+		}
+
+		static Object beginStoreLoad() {
+			return (STORE_LOAD.isEnabled() ? begin(new TlsJfrEvents.StoreLoadEvent()) : null);
+		}
+
+		static Object beginAuthentication() {
+			return (AUTHENTICATION.isEnabled() ? begin(new TlsJfrEvents.AuthenticationEvent()) : null);
+		}
+
+		static Object beginHandshake() {
+			return (HANDSHAKE.isEnabled() ? begin(new TlsJfrEvents.HandshakeEvent()) : null);
+		}
+
+		static Object begin(Event event) {
+
+			event.begin();
+			return event;
+		}
+
+		static void endCertificateExtraction(Object o, int certificates) {
+
+			TlsJfrEvents.CertificateExtractionEvent event = (TlsJfrEvents.CertificateExtractionEvent) o;
+			event.end();
+			if (event.shouldCommit()) {
+				event.certificates = certificates;
+				event.commit();
+			}
+		}
+
+		static void endStoreLoad(Object o, boolean trustStore, String storeType, String algorithm, KeyStore store) {
+
+			TlsJfrEvents.StoreLoadEvent event = (TlsJfrEvents.StoreLoadEvent) o;
+			event.end();
+			if (event.shouldCommit()) {
+				event.trustStore = trustStore;
+				event.storeType = storeType;
+				event.algorithm = algorithm;
+				try {
+					event.entries = (store == null ? 0 : store.size());
+				} catch (Exception e) {
+					event.entries = -1;
+				}
+				event.commit();
+			}
+		}
+
+		static void endAuthentication(Object o, boolean authenticated, String user) {
+
+			TlsJfrEvents.AuthenticationEvent event = (TlsJfrEvents.AuthenticationEvent) o;
+			event.end();
+			if (event.shouldCommit()) {
+				event.authenticated = authenticated;
+				event.user = user;
+				event.commit();
+			}
+		}
+
+		static void endHandshake(Object o, SSLEngine engine, long startMillis) {
+
+			TlsJfrEvents.HandshakeEvent event = (TlsJfrEvents.HandshakeEvent) o;
+			event.end();
+			if (event.shouldCommit()) {
+				SSLSession session = engine.getSession();
+				event.peerHost = engine.getPeerHost();
+				event.protocol = session.getProtocol();
+				event.cipherSuite = session.getCipherSuite();
+				// A resumed session was created before this handshake started.
+				event.resumed = (session.getCreationTime() < startMillis);
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * Starts a handshake event on the first received data and ends it when the handshake is finished.
+	 */
+	static class HandshakeEventSslEngine extends DelegatingSslEngine {
+
+		private boolean started;
+		private Object event;
+		private long startMillis;
+
+		public HandshakeEventSslEngine(SSLEngine engine) {
+			super(engine);
+		}
+
+		@Override
+		public SSLEngineResult unwrap(ByteBuffer src, ByteBuffer[] dsts, int offset, int length) throws SSLException {
+
+			if (!started) {
+				started = true;
+				startMillis = System.currentTimeMillis();
+				event = Jfr.beginHandshake();
+			}
+			return finished(super.unwrap(src, dsts, offset, length));
+		}
+
+		@Override
+		public SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length, ByteBuffer dst) throws SSLException {
+			return finished(super.wrap(srcs, offset, length, dst));
+		}
+
+		private SSLEngineResult finished(SSLEngineResult result) {
+
+			if (event != null && result.getHandshakeStatus() == HandshakeStatus.FINISHED) {
+				Jfr.endHandshake(event, this, startMillis);
+				event = null;
+			}
+			return result;
+		}
+	}
+
+}
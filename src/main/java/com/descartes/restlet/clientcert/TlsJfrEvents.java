@@ -0,0 +1,99 @@
+package com.descartes.restlet.clientcert;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JDK Flight Recorder event types.
+ * <br>Only used via {@link TlsEvents} which checks if JFR is available,
+ * so that this project still runs on a Java runtime without the {@code jdk.jfr} module.
+ * <br>The thresholds are defaults, they can be changed in the JFR settings (.jfc file) using the event names.
+ */
+class TlsJfrEvents {
+
+	static final String CATEGORY = "Restlet Client Certificate";
+
+	private TlsJfrEvents() {}
+
+	/**
+	 * The JDK (12 and later) has a {@code jdk.TLSHandshake} event but that event has no duration (it is committed when
+	 * the handshake is done), does not tell if the session was resumed and is disabled in the default JFR settings.
+	 * This event covers the handshake from the first received record to the finished handshake so that slow
+	 * (full) handshakes can be found with a threshold, and is correlated with the {@code HttpsServerHelper2} worker thread.
+	 */
+	@Name("com.descartes.restlet.TlsHandshake")
+	@Label("TLS Handshake")
+	@Description("A completed server-side TLS handshake")
+	@Category({ CATEGORY, "TLS" })
+	@Threshold("20 ms")
+	@StackTrace(false)
+	static class HandshakeEvent extends Event {
+
+		@Label("Peer Host")
+		String peerHost;
+
+		@Label("Protocol")
+		String protocol;
+
+		@Label("Cipher Suite")
+		String cipherSuite;
+
+		@Label("Resumed")
+		@Description("True if an existing session was resumed (abbreviated handshake)")
+		boolean resumed;
+	}
+
+	@Name("com.descartes.restlet.CertificateExtraction")
+	@Label("Peer Certificate Extraction")
+	@Description("Extraction of the peer certificates from a HTTPS exchange")
+	@Category({ CATEGORY, "TLS" })
+	@Threshold("1 ms")
+	@StackTrace(false)
+	static class CertificateExtractionEvent extends Event {
+
+		@Label("Certificates")
+		int certificates;
+	}
+
+	@Name("com.descartes.restlet.StoreLoad")
+	@Label("Key/Trust Store Load")
+	@Description("Loading of a key-store or trust-store by SslUtils")
+	@Category({ CATEGORY, "Key Stores" })
+	@Threshold("0 ms")
+	static class StoreLoadEvent extends Event {
+
+		@Label("Trust Store")
+		@Description("True for a trust-store, false for a key-store")
+		boolean trustStore;
+
+		@Label("Store Type")
+		String storeType;
+
+		@Label("Algorithm")
+		String algorithm;
+
+		@Label("Entries")
+		int entries;
+	}
+
+	@Name("com.descartes.restlet.Authentication")
+	@Label("Client Certificate Authentication")
+	@Description("Outcome of ServerClientCertGuard.authenticate")
+	@Category({ CATEGORY, "Authentication" })
+	@Threshold("5 ms")
+	@StackTrace(false)
+	static class AuthenticationEvent extends Event {
+
+		@Label("Authenticated")
+		boolean authenticated;
+
+		@Label("User")
+		String user;
+	}
+
+}
@@ -0,0 +1,122 @@
+package com.descartes.restlet.clientcert;
+
+import java.security.KeyManagementException;
+import java.security.SecureRandom;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * A SSL context that forwards all calls to a wrapped (initialized) SSL context
+ * but lets an {@link EngineWrapper} wrap each {@link SSLEngine} that is created.
+ * <br>The {@code HttpsServer} used by {@code HttpsServerHelper2} creates one engine per connection,
+ * so this is the place to hook into the TLS handshake of a connection.
+ * <br>Clients use sockets instead of engines: a {@link SocketFactoryWrapper} wraps the socket factory once
+ * and the same wrapped socket factory is returned for each call to {@link #getSocketFactory()}.
+ */
+public class WrappedSslContext extends SSLContext {
+
+	/**
+	 * Wraps an engine created by the wrapped SSL context.
+	 */
+	public interface EngineWrapper {
+
+		SSLEngine wrap(SSLEngine engine);
+	}
+
+	/**
+	 * Wraps the socket factory of the wrapped SSL context.
+	 */
+	public interface SocketFactoryWrapper {
+
+		SSLSocketFactory wrap(SSLSocketFactory socketFactory);
+	}
+
+	private final SSLContext wrapped;
+
+	public WrappedSslContext(SSLContext wrapped, EngineWrapper engineWrapper) {
+		super(new WrappedSslContextSpi(wrapped, engineWrapper, null), wrapped.getProvider(), wrapped.getProtocol());
+		this.wrapped = wrapped;
+	}
+
+	public WrappedSslContext(SSLContext wrapped, SocketFactoryWrapper socketFactoryWrapper) {
+		super(new WrappedSslContextSpi(wrapped, null, socketFactoryWrapper.wrap(wrapped.getSocketFactory())), 
+				wrapped.getProvider(), wrapped.getProtocol());
+		this.wrapped = wrapped;
+	}
+
+	public SSLContext getWrappedContext() {
+		return wrapped;
+	}
+
+	static class WrappedSslContextSpi extends SSLContextSpi {
+
+		private final SSLContext wrapped;
+		private final EngineWrapper engineWrapper;
+		private final SSLSocketFactory socketFactory;
+
+		/**
+		 * @param engineWrapper null to not wrap engines.
+		 * @param socketFactory null to use the socket factories of the wrapped SSL context.
+		 */
+		public WrappedSslContextSpi(SSLContext wrapped, EngineWrapper engineWrapper, SSLSocketFactory socketFactory) {
+			super();
+			this.wrapped = wrapped;
+			this.engineWrapper = engineWrapper;
+			this.socketFactory = socketFactory;
+		}
+
+		@Override
+		protected void engineInit(KeyManager[] km, TrustManager[] tm, SecureRandom sr) throws KeyManagementException {
+			wrapped.init(km, tm, sr);
+		}
+
+		@Override
+		protected SSLSocketFactory engineGetSocketFactory() {
+			return (socketFactory == null ? wrapped.getSocketFactory() : socketFactory);
+		}
+
+		@Override
+		protected SSLServerSocketFactory engineGetServerSocketFactory() {
+			return wrapped.getServerSocketFactory();
+		}
+
+		@Override
+		protected SSLEngine engineCreateSSLEngine() {
+			return (engineWrapper == null ? wrapped.createSSLEngine() : engineWrapper.wrap(wrapped.createSSLEngine()));
+		}
+
+		@Override
+		protected SSLEngine engineCreateSSLEngine(String host, int port) {
+			return (engineWrapper == null ? wrapped.createSSLEngine(host, port) : engineWrapper.wrap(wrapped.createSSLEngine(host, port)));
+		}
+
+		@Override
+		protected SSLSessionContext engineGetServerSessionContext() {
+			return wrapped.getServerSessionContext();
+		}
+
+		@Override
+		protected SSLSessionContext engineGetClientSessionContext() {
+			return wrapped.getClientSessionContext();
+		}
+
+		@Override
+		protected SSLParameters engineGetDefaultSSLParameters() {
+			return wrapped.getDefaultSSLParameters();
+		}
+
+		@Override
+		protected SSLParameters engineGetSupportedSSLParameters() {
+			return wrapped.getSupportedSSLParameters();
+		}
+	}
+
+}
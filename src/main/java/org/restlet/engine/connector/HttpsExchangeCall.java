@@ -8,6 +8,8 @@ import org.restlet.Server;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.descartes.restlet.clientcert.RequestTiming;
+import com.descartes.restlet.clientcert.TlsEvents;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpsExchange;
 
@@ -42,6 +44,8 @@ public class HttpsExchangeCall extends HttpExchangeCall {
 			log.debug("Cannot extract peer certificates from unsecure connection.");
 			return null;
 		}
+		RequestTiming.mark(RequestTiming.Mark.CERTIFICATES_START);
+		Object event = TlsEvents.beginCertificateExtraction();
 		Certificate[] certs = null;
 		try {
 			certs = sexchange.getSSLSession().getPeerCertificates();
@@ -58,6 +62,8 @@ public class HttpsExchangeCall extends HttpExchangeCall {
 				lcerts.add(certs[i]);
 			}
 		}
+		TlsEvents.endCertificateExtraction(event, (certs == null ? 0 : certs.length));
+		RequestTiming.mark(RequestTiming.Mark.CERTIFICATES_END);
         return lcerts;
     }
 
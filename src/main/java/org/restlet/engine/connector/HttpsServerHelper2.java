@@ -7,11 +7,20 @@ import java.net.InetSocketAddress;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLParameters;
 
+import org.restlet.Request;
+import org.restlet.Response;
 import org.restlet.Server;
 import org.restlet.data.Protocol;
 import org.restlet.engine.ssl.SslContextFactory;
 import org.restlet.engine.ssl.SslUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.descartes.restlet.clientcert.ConnectionReaper;
+import com.descartes.restlet.clientcert.HandshakeAdmission;
+import com.descartes.restlet.clientcert.RequestTiming;
+import com.descartes.restlet.clientcert.TlsEvents;
+import com.descartes.restlet.clientcert.WrappedSslContext;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpsConfigurator;
@@ -21,12 +30,28 @@ import com.sun.net.httpserver.HttpsServer;
 /**
  * Updated copy from
  * <br>https://github.com/restlet/restlet-framework-java/blob/2.3/modules/org.restlet/src/org/restlet/engine/connector/HttpsServerHelper.java
- * <br>Only 1 line (number 68 in this source file) is updated to use a reference to this class and {@link HttpsExchangeCall}.
+ * <br>Updated to use a reference to this class and {@link HttpsExchangeCall}.
+ * <br>Optionally limits concurrent full TLS handshakes, see {@link HandshakeAdmission} for the connector parameters.
+ * <br>Records JDK Flight Recorder events for handshakes when available, see {@link TlsEvents}.
+ * <br>Binds to the connector parameter {@link #PARAM_BIND_ADDRESS} or the server address (all addresses if neither is set),
+ * with the accept backlog from {@link #PARAM_BACKLOG}.
+ * <br>Closes idle, slow and excess connections when configured, see {@link ConnectionReaper} for the connector parameters.
+ * <br>Optionally times the stages of (sampled) requests, see {@link RequestTiming} for the connector parameters.
  */
 @SuppressWarnings("restriction")
 public class HttpsServerHelper2 extends NetServerHelper {
 
+	private static final Logger log = LoggerFactory.getLogger(HttpsServerHelper2.class);
+
 	private volatile HttpsServer server;
+	/** Address (host name or IP address) to bind to, defaults to the address of the server. */
+	public static final String PARAM_BIND_ADDRESS = "bindAddress";
+	/** Maximum amount of pending connections not yet accepted, defaults to 0 (the system default). */
+	public static final String PARAM_BACKLOG = "backlog";
+
+	private volatile HandshakeAdmission handshakeAdmission;
+	private volatile ConnectionReaper connectionReaper;
+	private volatile RequestTiming requestTiming;
 
     public HttpsServerHelper2(Server server) {
         super(server);
@@ -39,20 +64,39 @@ public class HttpsServerHelper2 extends NetServerHelper {
     	SslContextFactory sslContextFactory = SslUtils
                 .getSslContextFactory(this);
         SSLContext sslContext = sslContextFactory.createSslContext();
-        String addr = getHelped().getAddress();
-
+        // A controller shared by several listeners is put in the context before the server starts.
+        handshakeAdmission = (HandshakeAdmission) getHelped().getContext().getAttributes().get(HandshakeAdmission.CONTEXT_ATTRIBUTE);
+        boolean sharedAdmission = (handshakeAdmission != null);
+        if (!sharedAdmission) {
+            handshakeAdmission = HandshakeAdmission.create(getHelpedParameters());
+        }
+        if (handshakeAdmission != null) {
+            sslContext = new WrappedSslContext(sslContext, handshakeAdmission.getEngineWrapper(sslContext.getServerSessionContext()));
+            getHelped().getContext().getAttributes().put(HandshakeAdmission.CONTEXT_ATTRIBUTE, handshakeAdmission);
+            log.info("Limiting concurrent full handshakes to " + handshakeAdmission.getMaxFullHandshakes() 
+            		+ (sharedAdmission ? " (shared)" : "") + " with " + handshakeAdmission.getMaxQueuedHandshakes() 
+            		+ " queued for at most " + handshakeAdmission.getQueueTimeoutMs() + " ms.");
+        }
+        WrappedSslContext.EngineWrapper handshakeEvents = TlsEvents.getHandshakeEngineWrapper();
+        if (handshakeEvents != null) {
+            sslContext = new WrappedSslContext(sslContext, handshakeEvents);
+        }
+        String addr = getHelpedParameters().getFirstValue(PARAM_BIND_ADDRESS, getHelped().getAddress());
+        InetSocketAddress bindAddress = null;
         if (addr != null) {
             InetAddress iaddr = InetAddress.getByName(addr);
-            setAddress(new InetSocketAddress(iaddr, getHelped().getPort()));
+            bindAddress = new InetSocketAddress(iaddr, getHelped().getPort());
+            setAddress(bindAddress);
         } else {
+            bindAddress = new InetSocketAddress(getHelped().getPort());
             int port = getHelped().getPort();
             if (port > 0) {
-                setAddress(new InetSocketAddress(getHelped().getPort()));
+                setAddress(bindAddress);
             }
         }
+        int backlog = Integer.parseInt(getHelpedParameters().getFirstValue(PARAM_BACKLOG, "0"));
 
-        this.server = HttpsServer.create(new InetSocketAddress(getHelped()
-                .getPort()), 0);
+        this.server = HttpsServer.create(bindAddress, backlog);
         final SSLParameters sslParams = sslContext.getDefaultSSLParameters();
         server.setHttpsConfigurator(new HttpsConfigurator(sslContext) {
            @Override 
@@ -64,23 +108,87 @@ public class HttpsServerHelper2 extends NetServerHelper {
         server.createContext("/", new HttpHandler() {
             @Override 
             public void handle(HttpExchange httpExchange) throws IOException {
+                RequestTiming.mark(RequestTiming.Mark.HANDLER);
 // the line below is updated
                 HttpsServerHelper2.this.handle(new HttpsExchangeCall(getHelped(),
                         httpExchange, true));
+                RequestTiming.mark(RequestTiming.Mark.SENT);
             }
         });
-        server.setExecutor(createThreadPool());
+        requestTiming = RequestTiming.create(getHelpedParameters());
+        if (requestTiming == null) {
+            server.setExecutor(createThreadPool());
+        } else {
+            server.setExecutor(requestTiming.wrap(createThreadPool()));
+            getHelped().getContext().getAttributes().put(RequestTiming.CONTEXT_ATTRIBUTE, requestTiming);
+            log.info("Timing " + (requestTiming.getSampleRate() > 0 ? "1 in " + requestTiming.getSampleRate() : "all") + " requests.");
+        }
         server.start();
+        connectionReaper = ConnectionReaper.create(getHelpedParameters());
+        if (connectionReaper != null) {
+            if (connectionReaper.start(server)) {
+                getHelped().getContext().getAttributes().put(ConnectionReaper.CONTEXT_ATTRIBUTE, connectionReaper);
+                log.info("Closing connections idle for " + connectionReaper.getIdleTimeoutMs() + " ms, without request for " 
+                        + connectionReaper.getRequestTimeoutMs() + " ms" + (connectionReaper.getMaxConnections() > 0 
+                        ? " and idle connections above " + connectionReaper.getMaxConnections() + " open connections." : "."));
+            } else {
+                connectionReaper = null;
+            }
+        }
 
         setConfidential(true);
         setEphemeralPort(server.getAddress().getPort());
         super.start();
     }
 
+    /**
+     * Marks the end of the resource and adds the {@link RequestTiming#HEADER} header in debug mode.
+     */
+    @Override
+    public void handle(Request request, Response response) {
+        super.handle(request, response);
+        RequestTiming.mark(RequestTiming.Mark.RESOURCE_END);
+        String timing = RequestTiming.getHeaderValue();
+        if (timing != null) {
+            response.getHeaders().add(RequestTiming.HEADER, timing);
+        }
+    }
+
     @Override
     public synchronized void stop() throws Exception {
         super.stop();
+        if (connectionReaper != null) {
+            connectionReaper.stop();
+            log.info(connectionReaper.toString());
+        }
         this.server.stop(0);
+        if (handshakeAdmission != null) {
+        	log.info(handshakeAdmission.toString());
+        }
+        if (requestTiming != null) {
+        	log.info(requestTiming.toString());
+        }
+    }
+
+    /**
+     * @return null or the handshake admission controller (when configured).
+     */
+    public HandshakeAdmission getHandshakeAdmission() {
+    	return handshakeAdmission;
+    }
+
+    /**
+     * @return null or the connection reaper (when configured and the server connections can be accessed).
+     */
+    public ConnectionReaper getConnectionReaper() {
+    	return connectionReaper;
+    }
+
+    /**
+     * @return null or the request timing (when configured).
+     */
+    public RequestTiming getRequestTiming() {
+    	return requestTiming;
     }
 
 }